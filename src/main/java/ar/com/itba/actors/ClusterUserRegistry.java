@@ -0,0 +1,85 @@
+package ar.com.itba.actors;
+
+import static akka.pattern.PatternsCS.ask;
+
+import akka.actor.ActorRef;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Registry of the shards of a cluster, kept by the UserRegistryBucket entities. The users of a claim are claimed
+ * by their buckets, and the buckets that claimed theirs release them when another bucket finds some already in a
+ * GameRoom. Releases are not answered, so a user that leaves a GameRoom may still be found in it for a moment.
+ */
+public class ClusterUserRegistry implements UserRegistry {
+
+    private final ActorRef region;
+    private final int bucketCount;
+    private final long timeOut;
+
+    public ClusterUserRegistry(ActorRef region, int bucketCount, long timeOut) {
+        this.region = region;
+        this.bucketCount = bucketCount;
+        this.timeOut = timeOut;
+    }
+
+    @Override
+    public CompletionStage<Map<String, String>> claim(Collection<String> userIds, String gameRoomId) {
+        Map<Integer, List<String>> buckets = buckets(userIds);
+        if (buckets.size() == 1) {
+            Map.Entry<Integer, List<String>> bucket = buckets.entrySet().iterator().next();
+            return ask(region, new UserRegistryBucket.Claim(bucket.getKey(), bucket.getValue(), gameRoomId), timeOut)
+                    .thenApply(reply -> ((UserRegistryBucket.Claimed) reply).getUsersAlreadyInGame());
+        }
+        List<Integer> bucketIds = new ArrayList<>(buckets.keySet());
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[bucketIds.size()];
+        for (int i = 0; i < replies.length; i++) {
+            int bucket = bucketIds.get(i);
+            replies[i] = ask(region, new UserRegistryBucket.Claim(bucket, buckets.get(bucket), gameRoomId), timeOut).toCompletableFuture();
+        }
+        return CompletableFuture.allOf(replies).thenApply(done -> {
+            Map<String, String> usersAlreadyInGame = new HashMap<>();
+            for (CompletableFuture<?> reply : replies) {
+                usersAlreadyInGame.putAll(((UserRegistryBucket.Claimed) reply.join()).getUsersAlreadyInGame());
+            }
+            if (!usersAlreadyInGame.isEmpty()) {
+                for (int i = 0; i < replies.length; i++) {
+                    if (((UserRegistryBucket.Claimed) replies[i].join()).getUsersAlreadyInGame().isEmpty()) {
+                        int bucket = bucketIds.get(i);
+                        region.tell(new UserRegistryBucket.Release(bucket, buckets.get(bucket), gameRoomId), ActorRef.noSender());
+                    }
+                }
+            }
+            return usersAlreadyInGame;
+        });
+    }
+
+    @Override
+    public void release(Collection<String> userIds, String gameRoomId) {
+        buckets(userIds).forEach((bucket, users) ->
+                region.tell(new UserRegistryBucket.Release(bucket, users, gameRoomId), ActorRef.noSender()));
+    }
+
+    /**
+     * Nothing to do: a bucket that starts asks the shards for their users, and the buckets keep the users of a
+     * shard that moves to another node.
+     */
+    @Override
+    public void restore(Collection<String> userIds, String gameRoomId) {
+    }
+
+    private Map<Integer, List<String>> buckets(Collection<String> userIds) {
+        Map<Integer, List<String>> buckets = new HashMap<>();
+        for (String userId : userIds) {
+            buckets.computeIfAbsent(UserRegistryBucket.bucketOf(userId, bucketCount), bucket -> new ArrayList<>()).add(userId);
+        }
+        return buckets;
+    }
+
+}
@@ -2,27 +2,105 @@ package ar.com.itba.actors;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Status;
+import akka.actor.Terminated;
+import akka.dispatch.ControlMessage;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import ar.com.itba.game.GameState;
+import ar.com.itba.metrics.LatencyHistogram;
+import ar.com.itba.metrics.Metrics;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Members of a game and its simulation. While the GameRoom has WebSocket connections it ticks at the rate of
+ * "game-room.tick-rate" in application.conf: the inputs received since the last tick are applied, the GameState
+ * advances and the players that moved are sent to every connection.
+ * A GameRoom that receives nothing for "game-room.idle-timeout" tells its GameRoomManager, which deletes it when
+ * it is empty and otherwise stops it until it is needed again.
+ */
 public class GameRoom extends AbstractActor {
 
-    private final static int LIMIT = 3;
+    public final static int DEFAULT_CAPACITY = 3;
+    public final static int MAX_CAPACITY = 100;
+    public final static String DISPATCHER = "game-room-dispatcher";
+    public final static String MAILBOX = "game-room-mailbox";
+    // From the GameRoomManager sending a request until this GameRoom answers it
+    private final static LatencyHistogram ROUND_TRIP = Metrics.ask("GameRoom");
 
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
     private final String gameRoomId;
     private final String ownerId;
+    private final int capacity;
     private final Set<String> users = new HashSet<>();
+    // WebSocket connections of the users, each one an actor feeding the outgoing messages of a socket
+    private final Map<ActorRef, String> connections = new HashMap<>();
+    private final GameState state = new GameState();
+    // Last input of each user since the previous tick, older ones are overridden
+    private final Map<String, PlayerInput> inputs = new HashMap<>();
+    private final FiniteDuration tickInterval = Duration.create(
+            TimeUnit.SECONDS.toNanos(1) / getContext().getSystem().settings().config().getInt("game-room.tick-rate"), TimeUnit.NANOSECONDS);
+    private final FiniteDuration idleTimeout = Duration.create(
+            getContext().getSystem().settings().config().getDuration("game-room.idle-timeout", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    private Cancellable ticks;
+    private long tick = 0;
+    // Stopped by a Delete, not passivated, so the connections are told that this GameRoom is gone
+    private boolean deleted = false;
 
-    static public Props props(String gameRoomId, String ownerId) {
-        return Props.create(GameRoom.class, () -> new GameRoom(gameRoomId, ownerId));
+    /**
+     * GameRooms run on their own dispatcher, with a mailbox that rejects gameplay messages beyond its capacity.
+     */
+    static public Props props(String gameRoomId, String ownerId, int capacity) {
+        return Props.create(GameRoom.class, () -> new GameRoom(gameRoomId, ownerId, capacity))
+                .withDispatcher(DISPATCHER)
+                .withMailbox(MAILBOX);
     }
 
-    public GameRoom(String gameRoomId, String ownerId) {
+    /**
+     * Props for a GameRoom started again by a recovering GameRoomManager, with the users it already had.
+     */
+    static public Props props(String gameRoomId, String ownerId, Set<String> users, int capacity) {
+        Set<String> initialUsers = new HashSet<>(users);
+        return Props.create(GameRoom.class, () -> new GameRoom(gameRoomId, ownerId, initialUsers, capacity))
+                .withDispatcher(DISPATCHER)
+                .withMailbox(MAILBOX);
+    }
+
+    public GameRoom(String gameRoomId, String ownerId, int capacity) {
         this.gameRoomId = gameRoomId;
         this.ownerId = ownerId;
+        this.capacity = capacity;
         users.add(ownerId);
+        state.addPlayer(ownerId);
+    }
+
+    public GameRoom(String gameRoomId, String ownerId, Set<String> users, int capacity) {
+        this.gameRoomId = gameRoomId;
+        this.ownerId = ownerId;
+        this.capacity = capacity;
+        this.users.addAll(users);
+        for (String userId : users) {
+            state.addPlayer(userId);
+        }
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        getContext().setReceiveTimeout(idleTimeout);
     }
 
     @Override
@@ -30,45 +108,233 @@ public class GameRoom extends AbstractActor {
         return receiveBuilder()
                 .match(JoinGameRoom.class, message -> joinGameRoom(message))
                 .match(LeaveGameRoom.class, message -> leaveGameRoom(message))
+                .match(JoinGameRoomWithUsers.class, message -> joinGameRoomWithUsers(message))
+                .match(LeaveGameRoomWithUsers.class, message -> leaveGameRoomWithUsers(message))
+                .match(Connect.class, message -> connect(message))
+                .match(SendMessage.class, message -> sendMessage(message))
+                .match(PlayerInput.class, message -> playerInput(message))
+                .match(Tick.class, message -> tick())
+                .match(Terminated.class, message -> removeConnection(message.actor()))
+                .match(ReceiveTimeout.class, message -> idle())
+                .match(Delete.class, message -> {
+                    deleted = true;
+                    getContext().stop(getSelf());
+                })
                 .build();
     }
 
+    private void idle() {
+        // Sent again every idleTimeout until the GameRoomManager stops this GameRoom
+        log.debug("GameRoom(idle) - GameRoom(id: {}) is idle", gameRoomId);
+        getContext().getParent().tell(new GameRoomManager.GameRoomIdle(gameRoomId), getSelf());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        super.postStop();
+        if (ticks != null) {
+            ticks.cancel();
+        }
+        if (deleted) {
+            broadcast("GameRoom(id: " + gameRoomId + ") deleted.");
+        }
+        for (ActorRef connection : connections.keySet()) {
+            connection.tell(new Status.Success(gameRoomId), getSelf());
+        }
+    }
+
     private void joinGameRoom(JoinGameRoom message) {
+        joinGameRoomAndReply(message);
+        ROUND_TRIP.recordNanos(System.nanoTime() - message.sentAt);
+    }
+
+    private void joinGameRoomAndReply(JoinGameRoom message) {
         String userId = message.userId;
-        if (users.size() >= LIMIT) {
-            System.out.println("GameRoom(joinGameRoom) - GameRoom(" + gameRoomId + ") is full");
+        // The GameRoomManager releases the reservation of the user before the requester can retry
+        if (users.size() >= capacity) {
+            log.debug("GameRoom(joinGameRoom) - GameRoom({}) is full", gameRoomId);
+            getSender().tell(new GameRoomManager.JoinGameRoomFailed(userId, gameRoomId), getSelf());
             message.httpRef.tell(new GameRoomIsFull(), getSelf());
             return;
         }
 
         if (users.contains(userId)) {
-            System.out.println("GameRoom(joinGameRoom) - User(id: " +  userId + ") already join to GameRoom(" + gameRoomId + ")");
+            log.debug("GameRoom(joinGameRoom) - User(id: {}) already join to GameRoom({})", userId, gameRoomId);
+            getSender().tell(new GameRoomManager.JoinGameRoomFailed(userId, gameRoomId), getSelf());
             message.httpRef.tell(new UserAlreadyJoinToGameRoom(), getSelf());
         } else {
-            System.out.println("GameRoom(joinGameRoom) - User(id: " +  userId + ") join to GameRoom(" + gameRoomId + ")");
+            log.debug("GameRoom(joinGameRoom) - User(id: {}) join to GameRoom({})", userId, gameRoomId);
             users.add(userId);
+            state.addPlayer(userId);
             getSender().tell(new GameRoomManager.JoinGameRoomSuccessfully(userId, gameRoomId), getSelf());
             message.httpRef.tell(new JoinGameRoomSuccessfully(), getSelf());
+            broadcast("User(id: " + userId + ") joined GameRoom(id: " + gameRoomId + ").");
         }
     }
 
     private void leaveGameRoom(LeaveGameRoom message) {
+        leaveGameRoomAndReply(message);
+        ROUND_TRIP.recordNanos(System.nanoTime() - message.sentAt);
+    }
+
+    private void leaveGameRoomAndReply(LeaveGameRoom message) {
         String userId = message.userId;
         if (users.contains(userId)) {
-            System.out.println("GameRoom(leaveGameRoom) - User(id: " +  userId + ") left GameRoom(" + gameRoomId + ")");
+            log.debug("GameRoom(leaveGameRoom) - User(id: {}) left GameRoom({})", userId, gameRoomId);
             users.remove(userId);
+            state.removePlayer(userId);
+            inputs.remove(userId);
             message.httpRef.tell(new LeaveGameRoomSuccessfully(), getSelf());
             getSender().tell(new GameRoomManager.LeaveGameRoomSuccessfully(userId, gameRoomId), getSelf());
+            broadcast("User(id: " + userId + ") left GameRoom(id: " + gameRoomId + ").");
+            disconnect(userId);
         } else {
-            System.out.println("GameRoom(leaveGameRoom) - User(id: " +  userId + ") is not in the GameRoom(" + gameRoomId + ")");
+            log.debug("GameRoom(leaveGameRoom) - User(id: {}) is not in the GameRoom({})", userId, gameRoomId);
             message.httpRef.tell(new UserIsNotInGameRoom(), getSelf());
         }
     }
 
-    public static class JoinGameRoom {
+    private void joinGameRoomWithUsers(JoinGameRoomWithUsers message) {
+        joinGameRoomWithUsersAndReply(message);
+        ROUND_TRIP.recordNanos(System.nanoTime() - message.sentAt);
+    }
+
+    private void joinGameRoomWithUsersAndReply(JoinGameRoomWithUsers message) {
+        List<String> userIds = message.userIds;
+        if (users.size() + userIds.size() > capacity) {
+            log.debug("GameRoom(joinGameRoomWithUsers) - GameRoom({}) has no room for {} users", gameRoomId, userIds.size());
+            getSender().tell(new GameRoomManager.JoinGameRoomWithUsersFailed(gameRoomId, userIds), getSelf());
+            message.httpRef.tell(new GameRoomIsFull(), getSelf());
+            return;
+        }
+        for (String userId : userIds) {
+            if (users.contains(userId)) {
+                log.debug("GameRoom(joinGameRoomWithUsers) - User(id: {}) already join to GameRoom({})", userId, gameRoomId);
+                getSender().tell(new GameRoomManager.JoinGameRoomWithUsersFailed(gameRoomId, userIds), getSelf());
+                message.httpRef.tell(new UserAlreadyJoinToGameRoom(), getSelf());
+                return;
+            }
+        }
+        log.debug("GameRoom(joinGameRoomWithUsers) - Users {} join to GameRoom({})", userIds, gameRoomId);
+        for (String userId : userIds) {
+            users.add(userId);
+            state.addPlayer(userId);
+        }
+        getSender().tell(new GameRoomManager.JoinGameRoomWithUsersSuccessfully(gameRoomId, userIds), getSelf());
+        message.httpRef.tell(new JoinGameRoomSuccessfully(), getSelf());
+        for (String userId : userIds) {
+            broadcast("User(id: " + userId + ") joined GameRoom(id: " + gameRoomId + ").");
+        }
+    }
+
+    private void leaveGameRoomWithUsers(LeaveGameRoomWithUsers message) {
+        leaveGameRoomWithUsersAndReply(message);
+        ROUND_TRIP.recordNanos(System.nanoTime() - message.sentAt);
+    }
+
+    private void leaveGameRoomWithUsersAndReply(LeaveGameRoomWithUsers message) {
+        List<String> userIds = message.userIds;
+        Set<String> usersNotInGameRoom = new HashSet<>(userIds);
+        usersNotInGameRoom.removeAll(users);
+        if (!usersNotInGameRoom.isEmpty()) {
+            log.debug("GameRoom(leaveGameRoomWithUsers) - Users {} are not in the GameRoom({})", usersNotInGameRoom, gameRoomId);
+            message.httpRef.tell(new UsersAreNotInGameRoom(usersNotInGameRoom), getSelf());
+            return;
+        }
+        log.debug("GameRoom(leaveGameRoomWithUsers) - Users {} left GameRoom({})", userIds, gameRoomId);
+        for (String userId : userIds) {
+            users.remove(userId);
+            state.removePlayer(userId);
+            inputs.remove(userId);
+        }
+        message.httpRef.tell(new LeaveGameRoomSuccessfully(), getSelf());
+        getSender().tell(new GameRoomManager.LeaveGameRoomWithUsersSuccessfully(gameRoomId, userIds), getSelf());
+        for (String userId : userIds) {
+            broadcast("User(id: " + userId + ") left GameRoom(id: " + gameRoomId + ").");
+            disconnect(userId);
+        }
+    }
+
+    private void connect(Connect message) {
+        String userId = message.userId;
+        if (!users.contains(userId)) {
+            log.debug("GameRoom(connect) - User(id: {}) is not in the GameRoom({})", userId, gameRoomId);
+            message.connection.tell("The User(id: " + userId + ") is not in the GameRoom(id: " + gameRoomId + ").", getSelf());
+            message.connection.tell(new Status.Success(userId), getSelf());
+            return;
+        }
+        log.debug("GameRoom(connect) - User(id: {}) connected to GameRoom({})", userId, gameRoomId);
+        getContext().watch(message.connection);
+        connections.put(message.connection, userId);
+        message.connection.tell("GameRoom(id: " + gameRoomId + ") users: " + String.join(", ", users), getSelf());
+        message.connection.tell(state.snapshot(tick), getSelf());
+        if (ticks == null) {
+            // Fixed rate, so a late tick does not delay the next ones
+            ticks = getContext().getSystem().scheduler().schedule(tickInterval, tickInterval, getSelf(), Tick.INSTANCE,
+                    getContext().dispatcher(), null);
+        }
+    }
+
+    private void removeConnection(ActorRef connection) {
+        connections.remove(connection);
+        if (connections.isEmpty() && ticks != null) {
+            // Inputs only arrive through the connections, nobody is left to play or to watch
+            ticks.cancel();
+            ticks = null;
+        }
+    }
+
+    private void playerInput(PlayerInput message) {
+        if (users.contains(message.userId)) {
+            inputs.put(message.userId, message);
+        }
+    }
+
+    private void tick() {
+        tick++;
+        for (PlayerInput input : inputs.values()) {
+            state.setVelocity(input.userId, input.dx, input.dy);
+        }
+        inputs.clear();
+        state.step();
+        String delta = state.delta(tick);
+        if (delta != null) {
+            broadcast(delta);
+        }
+    }
+
+    private void sendMessage(SendMessage message) {
+        // A user that already left may still have messages on the way
+        if (users.contains(message.userId)) {
+            broadcast("User(id: " + message.userId + "): " + message.text);
+        }
+    }
+
+    private void broadcast(String text) {
+        for (ActorRef connection : connections.keySet()) {
+            connection.tell(text, getSelf());
+        }
+    }
+
+    private void disconnect(String userId) {
+        List<ActorRef> userConnections = new ArrayList<>();
+        for (Map.Entry<ActorRef, String> entry : connections.entrySet()) {
+            if (entry.getValue().equals(userId)) {
+                userConnections.add(entry.getKey());
+            }
+        }
+        for (ActorRef connection : userConnections) {
+            getContext().unwatch(connection);
+            removeConnection(connection);
+            connection.tell(new Status.Success(userId), getSelf());
+        }
+    }
+
+    public static class JoinGameRoom implements ControlMessage {
 
         private String userId;
         private ActorRef httpRef;
+        private long sentAt = System.nanoTime();
 
         public JoinGameRoom(String userId, ActorRef httpRef) {
             this.userId = userId;
@@ -76,14 +342,15 @@ public class GameRoom extends AbstractActor {
         }
     }
 
-    static public class JoinGameRoomSuccessfully { }
+    static public class JoinGameRoomSuccessfully implements Serializable { }
 
-    static public class UserAlreadyJoinToGameRoom { }
+    static public class UserAlreadyJoinToGameRoom implements Serializable { }
 
-    public static class LeaveGameRoom {
+    public static class LeaveGameRoom implements ControlMessage {
 
         private String userId;
         private ActorRef httpRef;
+        private long sentAt = System.nanoTime();
 
         public LeaveGameRoom(String userId, ActorRef httpRef) {
             this.userId = userId;
@@ -91,10 +358,110 @@ public class GameRoom extends AbstractActor {
         }
     }
 
-    static public class LeaveGameRoomSuccessfully { }
+    static public class LeaveGameRoomSuccessfully implements Serializable { }
+
+    static public class UserIsNotInGameRoom implements Serializable { }
+
+    static public class GameRoomIsFull implements Serializable { }
+
+    public static class JoinGameRoomWithUsers implements ControlMessage {
+
+        private List<String> userIds;
+        private ActorRef httpRef;
+        private long sentAt = System.nanoTime();
+
+        public JoinGameRoomWithUsers(List<String> userIds, ActorRef httpRef) {
+            this.userIds = userIds;
+            this.httpRef = httpRef;
+        }
+    }
+
+    public static class LeaveGameRoomWithUsers implements ControlMessage {
+
+        private List<String> userIds;
+        private ActorRef httpRef;
+        private long sentAt = System.nanoTime();
+
+        public LeaveGameRoomWithUsers(List<String> userIds, ActorRef httpRef) {
+            this.userIds = userIds;
+            this.httpRef = httpRef;
+        }
+    }
+
+    static public class UsersAreNotInGameRoom implements Serializable {
+
+        private final Set<String> userIds;
+
+        public UsersAreNotInGameRoom(Set<String> userIds) {
+            this.userIds = userIds;
+        }
+
+        public Set<String> getUserIds() {
+            return userIds;
+        }
+    }
+
+    /**
+     * Answer to a gameplay message rejected because the mailbox of the GameRoom is full.
+     */
+    static public class GameRoomIsBusy implements Serializable { }
+
+    /**
+     * Stops a deleted GameRoom, telling its connections that it was deleted. A passivated GameRoom is stopped with a
+     * PoisonPill instead and closes its connections quietly, since the next message for it starts it again.
+     */
+    static public class Delete implements ControlMessage, Serializable { }
+
+    // Ticks are control messages so that a flood of gameplay messages does not slow down the simulation
+    static private class Tick implements ControlMessage {
+
+        private final static Tick INSTANCE = new Tick();
+    }
+
+    /**
+     * Registers the WebSocket connection of a user of this GameRoom. The connection receives the membership
+     * changes, the messages of the users and the ticks of the GameState as text until the user leaves or the
+     * GameRoom is deleted.
+     */
+    static public class Connect implements ControlMessage, Serializable {
+
+        private final String userId;
+        private final ActorRef connection;
+
+        public Connect(String userId, ActorRef connection) {
+            this.userId = userId;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Message of a user relayed to every connection of this GameRoom.
+     */
+    static public class SendMessage implements Serializable {
+
+        private final String userId;
+        private final String text;
+
+        public SendMessage(String userId, String text) {
+            this.userId = userId;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Velocity requested by a user, applied on the next tick.
+     */
+    static public class PlayerInput implements Serializable {
 
-    static public class UserIsNotInGameRoom { }
+        private final String userId;
+        private final int dx;
+        private final int dy;
 
-    static public class GameRoomIsFull { }
+        public PlayerInput(String userId, int dx, int dy) {
+            this.userId = userId;
+            this.dx = dx;
+            this.dy = dy;
+        }
+    }
 
 }
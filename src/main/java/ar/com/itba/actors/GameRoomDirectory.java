@@ -0,0 +1,76 @@
+package ar.com.itba.actors;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Address of every GameRoom of the local shards, written by the GameRoomManager shards as they create, delete and
+ * recover GameRooms and read without going through their mailboxes, so lookups do not wait behind the joins
+ * queued in a busy shard. A GameRoom keeps its address while it is passivated, since it is started again with
+ * the same path. Reads of the ConcurrentHashMap take no locks. The shards also keep here the running count of
+ * their users, for the samples of the SystemMonitor.
+ */
+public class GameRoomDirectory {
+
+    private final Map<String, String> addresses = new ConcurrentHashMap<>();
+    // Shards recovered on this node, whose GameRooms are all in the directory
+    private final Set<Integer> shards = ConcurrentHashMap.newKeySet();
+    // Users in the GameRooms of those shards
+    private final LongAdder users = new LongAdder();
+
+    void shardStarted(int shardId, long shardUsers) {
+        if (shards.add(shardId)) {
+            users.add(shardUsers);
+        }
+    }
+
+    void shardStopped(int shardId, long shardUsers) {
+        if (shards.remove(shardId)) {
+            users.add(-shardUsers);
+        }
+    }
+
+    void usersChanged(long delta) {
+        users.add(delta);
+    }
+
+    /**
+     * Whether the shard that owns the GameRoom runs on this node, so that the GameRoom is unknown when it is not
+     * in the directory.
+     */
+    public boolean hostsShardOf(String gameRoomId, int shardCount) {
+        return shards.contains(GameRoomManagerRouter.shardOf(gameRoomId, shardCount));
+    }
+
+    void register(String gameRoomId, String address) {
+        addresses.put(gameRoomId, address);
+    }
+
+    void unregister(String gameRoomId) {
+        addresses.remove(gameRoomId);
+    }
+
+    /**
+     * Address of the GameRoom actor, or null when the GameRoom is unknown.
+     */
+    public String address(String gameRoomId) {
+        return addresses.get(gameRoomId);
+    }
+
+    /**
+     * Number of GameRooms of the local shards.
+     */
+    public int size() {
+        return addresses.size();
+    }
+
+    /**
+     * Number of users in the GameRooms of the local shards.
+     */
+    public long users() {
+        return users.sum();
+    }
+
+}
@@ -0,0 +1,96 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.AutoReceivedMessage;
+import akka.dispatch.ControlMessage;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mailbox of the GameRooms ("game-room-mailbox" in application.conf). Control messages (joins, leaves, connections,
+ * ticks and the ones Akka handles itself, like PoisonPill and Terminated) are always accepted and delivered before
+ * gameplay messages. At most mailbox-capacity gameplay messages are queued, the rest are answered with
+ * GameRoomIsBusy, so a flooding client cannot grow the mailbox of a GameRoom without limit.
+ */
+public class GameRoomMailbox implements MailboxType, ProducesMessageQueue<GameRoomMailbox.GameRoomMessageQueue> {
+
+    private final int capacity;
+
+    public GameRoomMailbox(ActorSystem.Settings settings, Config config) {
+        this.capacity = config.getInt("mailbox-capacity");
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        return new GameRoomMessageQueue(capacity);
+    }
+
+    public static class GameRoomMessageQueue implements MessageQueue {
+
+        private final int capacity;
+        private final Queue<Envelope> controlQueue = new ConcurrentLinkedQueue<>();
+        private final Queue<Envelope> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        GameRoomMessageQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            Object message = handle.message();
+            if (message instanceof ControlMessage || message instanceof AutoReceivedMessage) {
+                controlQueue.offer(handle);
+            } else if (size.incrementAndGet() <= capacity) {
+                queue.offer(handle);
+            } else {
+                size.decrementAndGet();
+                ActorRef sender = handle.sender();
+                if (sender != null && sender != ActorRef.noSender()) {
+                    sender.tell(new GameRoom.GameRoomIsBusy(), receiver);
+                }
+            }
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope envelope = controlQueue.poll();
+            if (envelope != null) {
+                return envelope;
+            }
+            envelope = queue.poll();
+            if (envelope != null) {
+                size.decrementAndGet();
+            }
+            return envelope;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return controlQueue.size() + size.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !controlQueue.isEmpty() || !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            Envelope envelope;
+            while ((envelope = dequeue()) != null) {
+                deadLetters.enqueue(owner, envelope);
+            }
+        }
+    }
+
+}
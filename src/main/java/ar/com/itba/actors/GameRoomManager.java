@@ -1,173 +1,913 @@
 package ar.com.itba.actors;
 
+import static akka.pattern.PatternsCS.pipe;
+
 import akka.actor.*;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.persistence.AbstractPersistentActor;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
+import ar.com.itba.collections.LongObjectMap;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Event sourced shard of the GameRooms. Creations, joins, leaves and deletions are journaled and a snapshot
+ * is saved every SNAPSHOT_INTERVAL events, so a restart replays at most that many events to rebuild the
+ * GameRooms and never reuses their ids.
+ * GameRoom actors only live while they are used: an idle GameRoom is deleted when it is empty and otherwise
+ * stopped, and started again from the state of this shard by the next message for it.
+ */
+public class GameRoomManager extends AbstractPersistentActor {
 
-public class GameRoomManager extends AbstractActor {
+    final static int SNAPSHOT_INTERVAL = 1000;
+    // Longest wait for a GameRoom to answer a join before the users it reserved are released
+    final static FiniteDuration RESERVATION_TIMEOUT = Duration.create(5, TimeUnit.SECONDS);
+    // Numeric order of the GameRoom ids, which are generated without leading zeros
+    public final static Comparator<String> GAME_ROOM_ORDER = Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+    // MonitoredMailbox group of the shards and their router, the backlog watched by the admission control
+    public final static String MAILBOX_GROUP = "GameRoomManager";
 
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final int shardId;
+    private final int shardCount;
     private long currentId = 0;
-    private Map<String, ActorRef> gameRooms = new HashMap<>();
-    private Map<String, String> usersInGame = new HashMap<>();
+    // GameRooms of this shard by numeric id, in the order of their ids for the paginated listing
+    private LongObjectMap<Room> rooms = new LongObjectMap<>();
+    // Live GameRoom actors, by id and by actor
+    private final LongObjectMap<ActorRef> gameRooms = new LongObjectMap<>();
+    private final Map<ActorRef, String> gameRoomIds = new HashMap<>();
+    // Messages for the idle GameRooms that are stopping, sent again once they are terminated
+    private final LongObjectMap<List<Buffered>> passivating = new LongObjectMap<>();
+    private long users = 0;
+    // Users claimed in the registry for a join that their GameRoom has not answered yet, oldest first
+    private final Map<String, Reservation> reservations = new LinkedHashMap<>();
+    private Cancellable expireReservations;
+    // Shared by every shard so that a user can only be in one GameRoom across the whole system
+    private final UserRegistry userRegistry;
+    // Shared by every shard, for the lookups of GameRoom addresses that do not go through the shards
+    private final GameRoomDirectory directory;
+
+    static public Props props(int shardId, int shardCount, UserRegistry userRegistry, GameRoomDirectory directory) {
+        return Props.create(GameRoomManager.class, () -> new GameRoomManager(shardId, shardCount, userRegistry, directory))
+                .withMailbox(MonitoredMailbox.MAILBOX);
+    }
+
+    /**
+     * Props for a GameRoomManager started as a Cluster Sharding entity, whose entity id is its shard id.
+     */
+    static public Props entityProps(int shardCount, UserRegistry userRegistry, GameRoomDirectory directory) {
+        return Props.create(GameRoomManager.class, () -> new GameRoomManager(shardCount, userRegistry, directory))
+                .withMailbox(MonitoredMailbox.MAILBOX);
+    }
+
+    public GameRoomManager(int shardId, int shardCount, UserRegistry userRegistry, GameRoomDirectory directory) {
+        this.shardId = shardId;
+        this.shardCount = shardCount;
+        this.userRegistry = userRegistry;
+        this.directory = directory;
+    }
+
+    public GameRoomManager(int shardCount, UserRegistry userRegistry, GameRoomDirectory directory) {
+        this.shardId = Integer.parseInt(getSelf().path().name());
+        this.shardCount = shardCount;
+        this.userRegistry = userRegistry;
+        this.directory = directory;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        MonitoredMailbox.join(MAILBOX_GROUP, getSelf());
+        expireReservations = getContext().getSystem().scheduler().schedule(RESERVATION_TIMEOUT, RESERVATION_TIMEOUT,
+                getSelf(), "ExpireReservations", getContext().dispatcher(), null);
+    }
+
+    @Override
+    public void postStop() {
+        super.postStop();
+        expireReservations.cancel();
+        // The GameRooms of a stopped shard, e.g. one moved to another node, are no longer here
+        directory.shardStopped(shardId, users);
+        rooms.forEach((id, room) -> {
+            directory.unregister(room.gameRoomId);
+            return true;
+        });
+    }
 
-    static public Props props() {
-        return Props.create(GameRoomManager.class, () -> new GameRoomManager());
+    @Override
+    public String persistenceId() {
+        // GameRoom ids depend on the shard count, so a different shard count starts from an empty journal
+        return "GameRoomManager-" + shardCount + "-" + shardId;
+    }
+
+    @Override
+    public Receive createReceiveRecover() {
+        return receiveBuilder()
+                .match(GameRoomCreatedEvent.class, event -> gameRoomCreated(event))
+                .match(UserJoinedEvent.class, event -> userJoined(event))
+                .match(UserLeftEvent.class, event -> userLeft(event))
+                .match(GameRoomDeletedEvent.class, event -> gameRoomDeleted(event))
+                .match(SnapshotOffer.class, offer -> recoverSnapshot((GameRoomManagerSnapshot) offer.snapshot()))
+                .match(RecoveryCompleted.class, message -> recoveryCompleted())
+                .build();
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(CreateGameRoom.class, message -> createGameRoom(message))
+                .match(CreateGameRoomWithUsers.class, message -> createGameRoomWithUsers(message))
                 .match(DeleteGameRoom.class, message -> deleteGameRoom(message))
                 .match(JoinGameRoom.class, message -> joinGameRoom(message))
                 .match(LeaveGameRoom.class, message -> leaveGameRoom(message))
                 .match(JoinGameRoomSuccessfully.class, message -> joinGameRoomSuccessfully(message))
                 .match(LeaveGameRoomSuccessfully.class, message -> leaveGameRoomSuccessfully(message))
+                .match(JoinGameRoomWithUsers.class, message -> joinGameRoomWithUsers(message))
+                .match(LeaveGameRoomWithUsers.class, message -> leaveGameRoomWithUsers(message))
+                .match(JoinGameRoomWithUsersSuccessfully.class, message -> joinGameRoomWithUsersSuccessfully(message))
+                .match(JoinGameRoomWithUsersFailed.class, message -> joinGameRoomFailed(message.userIds, message.gameRoomId))
+                .match(JoinGameRoomFailed.class, message -> joinGameRoomFailed(Collections.singletonList(message.userId), message.gameRoomId))
+                .matchEquals("ExpireReservations", message -> expireReservations())
+                .match(ReclaimUser.class, message -> reclaimUser(message))
+                .match(GetUsersInGame.class, message -> getUsersInGame(message))
+                .match(LeaveGameRoomWithUsersSuccessfully.class, message -> leaveGameRoomWithUsersSuccessfully(message))
                 .match(GetGameRoomList.class, message -> getGameRoomList(message))
+                .match(GetGameRoomPage.class, message -> getGameRoomPage(message))
+                .match(GetGameRoomUsers.class, message -> getGameRoomUsers(message))
+                .match(GetGameRoom.class, message -> getGameRoom(message))
+                .match(GetGameRoomAddress.class, message -> getGameRoomAddress(message))
+                .match(GetGameRoomCount.class, message -> getSender().tell(new GameRoomCount(rooms.size(), users), getSelf()))
+                .match(GameRoomIdle.class, message -> gameRoomIdle(message))
+                .match(Terminated.class, message -> gameRoomTerminated(message.actor()))
+                .match(SaveSnapshotSuccess.class, message -> snapshotSaved(message))
+                .match(SaveSnapshotFailure.class, message -> log.warning("GameRoomManager(saveSnapshot) - Snapshot failed: {}", message.cause().getMessage()))
                 .build();
     }
 
+    private void recoverSnapshot(GameRoomManagerSnapshot snapshot) {
+        currentId = snapshot.currentId;
+        List<String> gameRoomIds = new ArrayList<>(snapshot.gameRoomUsers.keySet());
+        // Added in the order of their ids, as they were created
+        gameRoomIds.sort(GAME_ROOM_ORDER);
+        rooms = new LongObjectMap<>(gameRoomIds.size());
+        users = 0;
+        for (String gameRoomId : gameRoomIds) {
+            Integer capacity = snapshot.gameRoomCapacities == null ? null : snapshot.gameRoomCapacities.get(gameRoomId);
+            Room room = new Room(gameRoomId, snapshot.gameRoomOwners.get(gameRoomId), capacity == null ? GameRoom.DEFAULT_CAPACITY : capacity);
+            room.users.addAll(snapshot.gameRoomUsers.get(gameRoomId));
+            rooms.put(id(gameRoomId), room);
+            users += room.users.size();
+        }
+    }
+
+    private void recoveryCompleted() {
+        // The GameRooms are started by the first message for them
+        rooms.forEach((id, room) -> {
+            userRegistry.restore(room.users, room.gameRoomId);
+            register(room);
+            return true;
+        });
+        directory.shardStarted(shardId, users);
+        log.info("GameRoomManager(recoveryCompleted) - Recovered {} GameRooms with {} users at event {}", rooms.size(), users, lastSequenceNr());
+    }
+
+    /**
+     * Numeric id of a GameRoom, or -1 when the given one can not be the id of a GameRoom.
+     */
+    static long id(String gameRoomId) {
+        if (gameRoomId == null || gameRoomId.isEmpty() || gameRoomId.charAt(0) < '1' || gameRoomId.charAt(0) > '9') {
+            return -1;
+        }
+        try {
+            return Long.parseLong(gameRoomId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * State of a GameRoom of this shard, or null when it has no such GameRoom.
+     */
+    private Room room(String gameRoomId) {
+        long id = id(gameRoomId);
+        return id < 0 ? null : rooms.get(id);
+    }
+
+    private static String gameRoomName(Room room) {
+        return "GameRoom" + room.gameRoomId + "_Owner" + room.ownerId;
+    }
+
+    /**
+     * Publishes the address of the GameRoom, with the address of this node when it is part of a cluster.
+     */
+    private void register(Room room) {
+        directory.register(room.gameRoomId, address(room));
+    }
+
+    private String address(Room room) {
+        Address address = ((ExtendedActorSystem) getContext().getSystem()).provider().getDefaultAddress();
+        return getSelf().path().child(gameRoomName(room)).toStringWithAddress(address);
+    }
+
+    private ActorRef startGameRoom(Room room) {
+        String gameRoomId = room.gameRoomId;
+        ActorRef gameRoom = getContext().actorOf(GameRoom.props(gameRoomId, room.ownerId, room.users, room.capacity), gameRoomName(room));
+        getContext().watch(gameRoom);
+        gameRooms.put(id(gameRoomId), gameRoom);
+        gameRoomIds.put(gameRoom, gameRoomId);
+        return gameRoom;
+    }
+
+    private void stopGameRoom(String gameRoomId) {
+        ActorRef gameRoom = gameRooms.remove(id(gameRoomId));
+        if (gameRoom != null) {
+            getContext().unwatch(gameRoom);
+            gameRoomIds.remove(gameRoom);
+            gameRoom.tell(new GameRoom.Delete(), getSelf());
+        }
+    }
+
+    /**
+     * Live actor of a known GameRoom, started again if it was passivated, or null when the GameRoom is unknown.
+     */
+    private ActorRef gameRoom(String gameRoomId) {
+        long id = id(gameRoomId);
+        ActorRef gameRoom = gameRooms.get(id);
+        Room room;
+        if (gameRoom == null && id > 0 && (room = rooms.get(id)) != null) {
+            gameRoom = startGameRoom(room);
+        }
+        return gameRoom;
+    }
+
+    /**
+     * Keeps the message for later when its GameRoom is still stopping, since the new one can only start after it.
+     */
+    private boolean bufferedWhilePassivating(String gameRoomId, Object message) {
+        if (passivating.isEmpty()) {
+            return false;
+        }
+        List<Buffered> buffered = passivating.get(id(gameRoomId));
+        if (buffered == null) {
+            return false;
+        }
+        buffered.add(new Buffered(message, getSender()));
+        return true;
+    }
+
+    private void gameRoomIdle(GameRoomIdle message) {
+        String gameRoomId = message.gameRoomId;
+        long id = id(gameRoomId);
+        if (!getSender().equals(gameRooms.get(id))) {
+            // Already stopping or deleted
+            return;
+        }
+        // A join waiting for its answer needs the GameRoom, so it is only passivated
+        if (rooms.get(id).users.isEmpty() && !reserved(gameRoomId)) {
+            persist(new GameRoomDeletedEvent(gameRoomId), event -> {
+                gameRoomDeleted(event);
+                stopGameRoom(gameRoomId);
+                directory.unregister(gameRoomId);
+                log.debug("GameRoomManager(gameRoomIdle) - Deleted empty GameRoom(id: {})", gameRoomId);
+                snapshotIfNeeded();
+            });
+        } else {
+            log.debug("GameRoomManager(gameRoomIdle) - Passivating GameRoom(id: {})", gameRoomId);
+            gameRooms.remove(id);
+            passivating.put(id, new ArrayList<>());
+            getSender().tell(PoisonPill.getInstance(), getSelf());
+        }
+    }
+
+    private void gameRoomTerminated(ActorRef gameRoom) {
+        String gameRoomId = gameRoomIds.remove(gameRoom);
+        if (gameRoomId == null) {
+            return;
+        }
+        List<Buffered> buffered = passivating.remove(id(gameRoomId));
+        if (buffered == null) {
+            // Not stopped by this shard, the next message for it starts it again
+            log.warning("GameRoomManager(gameRoomTerminated) - GameRoom(id: {}) stopped unexpectedly", gameRoomId);
+            gameRooms.remove(id(gameRoomId), gameRoom);
+            return;
+        }
+        for (Buffered message : buffered) {
+            getSelf().tell(message.message, message.sender);
+        }
+    }
+
     private void createGameRoom(CreateGameRoom message) {
         String ownerId = message.userId;
-        if (usersInGame.containsKey(ownerId)) {
-            String gameRoomId = usersInGame.get(ownerId);
-            System.out.println("GameRoomManager(createGameRoom) - User(id: " + ownerId + ") is already in a GameRoom(id: " + gameRoomId + ")");
-            getSender().tell(new UserIsAlreadyInGame(gameRoomId), getSelf());
+        // Ids are interleaved between shards (shard i owns i + 1, i + 1 + shardCount, ...) so the id alone tells which shard owns a GameRoom
+        String gameRoomId = String.valueOf(currentId * shardCount + shardId + 1);
+        claim(Collections.singletonList(ownerId), gameRoomId, usersAlreadyInGame -> {
+            if (!usersAlreadyInGame.isEmpty()) {
+                String currentGameRoomId = usersAlreadyInGame.get(ownerId);
+                log.debug("GameRoomManager(createGameRoom) - User(id: {}) is already in a GameRoom(id: {})", ownerId, currentGameRoomId);
+                getSender().tell(new UserIsAlreadyInGame(currentGameRoomId), getSelf());
+                return;
+            }
+            ActorRef sender = getSender();
+            persist(new GameRoomCreatedEvent(gameRoomId, ownerId, message.capacity), event -> {
+                Room room = gameRoomCreated(event);
+                startGameRoom(room);
+                register(room);
+                log.debug("GameRoomManager(createGameRoom) - Created GameRoom(id: {}) owner user(id: {})", gameRoomId, ownerId);
+                sender.tell(new GameRoomCreated(gameRoomId), getSelf());
+                snapshotIfNeeded();
+            });
+        });
+    }
+
+    /**
+     * Creates a GameRoom that already has all the given users, or none of them when any is already in a GameRoom.
+     */
+    private void createGameRoomWithUsers(CreateGameRoomWithUsers message) {
+        List<String> userIds = message.userIds;
+        String ownerId = userIds.get(0);
+        String gameRoomId = String.valueOf(currentId * shardCount + shardId + 1);
+        claim(userIds, gameRoomId, usersAlreadyInGame -> {
+            if (!usersAlreadyInGame.isEmpty()) {
+                log.debug("GameRoomManager(createGameRoomWithUsers) - Users {} are already in a GameRoom", usersAlreadyInGame.keySet());
+                getSender().tell(new UsersAreAlreadyInGame(new HashSet<>(usersAlreadyInGame.keySet())), getSelf());
+                return;
+            }
+            List<Object> events = new ArrayList<>();
+            events.add(new GameRoomCreatedEvent(gameRoomId, ownerId, message.capacity));
+            for (String userId : userIds.subList(1, userIds.size())) {
+                events.add(new UserJoinedEvent(gameRoomId, userId));
+            }
+            ActorRef sender = getSender();
+            persistAll(events, event -> {
+                if (event instanceof GameRoomCreatedEvent) {
+                    gameRoomCreated((GameRoomCreatedEvent) event);
+                } else {
+                    userJoined((UserJoinedEvent) event);
+                }
+                if (event == events.get(events.size() - 1)) {
+                    Room room = rooms.get(id(gameRoomId));
+                    startGameRoom(room);
+                    register(room);
+                    log.debug("GameRoomManager(createGameRoomWithUsers) - Created GameRoom(id: {}) with users {}", gameRoomId, userIds);
+                    sender.tell(new GameRoomCreated(gameRoomId), getSelf());
+                }
+                snapshotIfNeeded();
+            });
+        });
+    }
+
+    /**
+     * Claims every user for the GameRoom, or none of them, and goes on with the GameRooms of the users that are
+     * already in one, empty when all were claimed. When the registry does not answer at once, e.g. the one of a
+     * cluster, the shard only answers the rebuilds of the registry until it does, so that the claims and the
+     * events that follow them keep their order. The sender of the message being handled is kept meanwhile.
+     */
+    private void claim(Collection<String> userIds, String gameRoomId, Consumer<Map<String, String>> claimed) {
+        claim(userIds, gameRoomId, claimed, cause -> {
+            log.warning("GameRoomManager(claim) - Users {} could not be claimed for GameRoom(id: {}): {}", userIds, gameRoomId, cause.getMessage());
+            releaseUnknownClaims(userIds, gameRoomId);
+            getSender().tell(new Status.Failure(cause), getSelf());
+        });
+    }
+
+    private void claim(Collection<String> userIds, String gameRoomId, Consumer<Map<String, String>> claimed, Consumer<Throwable> failed) {
+        CompletableFuture<Map<String, String>> claim = userRegistry.claim(userIds, gameRoomId).toCompletableFuture();
+        if (claim.isDone() && !claim.isCompletedExceptionally()) {
+            claimed.accept(claim.join());
             return;
         }
-        String gameRoomId = String.valueOf(++currentId);
-        ActorRef gameRoom = getContext().actorOf(GameRoom.props(gameRoomId, ownerId), "GameRoom" + gameRoomId + "_Owner" + ownerId);
-        System.out.println("GameRoomManager(createGameRoom) - Created GameRoom(id: " + gameRoomId + ") owner user(id: " + ownerId + ")");
-        gameRooms.put(gameRoomId, gameRoom);
-        usersInGame.put(ownerId, gameRoomId);
-        getSender().tell(new GameRoomCreated(gameRoomId), getSelf());
+        getContext().become(receiveBuilder()
+                .match(UsersClaimed.class, message -> {
+                    getContext().unbecome();
+                    unstashAll();
+                    if (message.failure == null) {
+                        claimed.accept(message.usersAlreadyInGame);
+                    } else {
+                        failed.accept(message.failure);
+                    }
+                })
+                .match(GetUsersInGame.class, message -> getUsersInGame(message))
+                .matchAny(message -> stash())
+                .build(), false);
+        CompletableFuture<UsersClaimed> usersClaimed = claim.handle((usersAlreadyInGame, failure) ->
+                new UsersClaimed(usersAlreadyInGame, failure instanceof CompletionException ? failure.getCause() : failure));
+        pipe(usersClaimed, getContext().dispatcher()).to(getSelf(), getSender());
+    }
+
+    /**
+     * Releases the users of a failed claim, which may have been claimed or not, but the ones that are in the
+     * GameRoom, or reserved for it, by an earlier claim.
+     */
+    private void releaseUnknownClaims(Collection<String> userIds, String gameRoomId) {
+        Room room = room(gameRoomId);
+        List<String> released = new ArrayList<>();
+        for (String userId : userIds) {
+            Reservation reservation = reservations.get(userId);
+            if ((room == null || !room.users.contains(userId)) && (reservation == null || !reservation.gameRoomId.equals(gameRoomId))) {
+                released.add(userId);
+            }
+        }
+        userRegistry.release(released, gameRoomId);
     }
 
     private void deleteGameRoom(DeleteGameRoom message) {
         String gameRoomId = message.gameRoomId;
-        if (gameRooms.containsKey(gameRoomId)) {
-            ActorRef gameRoom = gameRooms.get(gameRoomId);
-            gameRoom.tell(PoisonPill.getInstance(), getSelf());
-            System.out.println("GameRoomManager(deleteGameRoom) - Deleted GameRoom(id: " + gameRoomId + ")");
-            gameRooms.remove(gameRoomId);
-            for (Map.Entry<String, String> entry : usersInGame.entrySet()) {
-                if (entry.getValue().equals(message.gameRoomId)) {
-                    usersInGame.remove(entry.getKey());
-                }
-            }
-            getSender().tell(new GameRoomDeleted(), getSelf());
+        if (bufferedWhilePassivating(gameRoomId, message)) {
+            return;
+        }
+        Room room = room(gameRoomId);
+        if (room != null) {
+            ActorRef sender = getSender();
+            persist(new GameRoomDeletedEvent(room.gameRoomId), event -> {
+                stopGameRoom(room.gameRoomId);
+                directory.unregister(room.gameRoomId);
+                userRegistry.release(gameRoomDeleted(event), room.gameRoomId);
+                log.debug("GameRoomManager(deleteGameRoom) - Deleted GameRoom(id: {})", gameRoomId);
+                sender.tell(new GameRoomDeleted(), getSelf());
+                snapshotIfNeeded();
+            });
         } else {
-            System.out.println("GameRoomManager(deleteGameRoom) - Trying to delete to an unknown game room");
+            log.debug("GameRoomManager(deleteGameRoom) - Trying to delete to an unknown game room");
             getSender().tell(new UnknownGameRoom(), getSelf());
         }
     }
 
+    /**
+     * The user is reserved for the GameRoom before it is asked, so concurrent joins of the same user to other
+     * GameRooms are rejected here. The GameRoom confirms or releases the reservation, which otherwise expires.
+     */
     private void joinGameRoom(JoinGameRoom message) {
-        String gameRoomId = message.gameRoomId;
         String userId = message.userId;
-        if (usersInGame.containsKey(userId)) {
-            System.out.println("GameRoomManager(joinGameRoom) - User(id: " + userId + ") is already in GameRoom(id: " + gameRoomId + ")");
-            getSender().tell(new UserIsAlreadyInGame(gameRoomId), getSelf());
+        if (bufferedWhilePassivating(message.gameRoomId, message)) {
             return;
         }
-
-        if (gameRooms.containsKey(gameRoomId)) {
-            ActorRef gameRoom = gameRooms.get(gameRoomId);
-            System.out.println("GameRoomManager(joinGameRoom) - Joining to GameRoom(id: "+ gameRoomId + ") with User(id: " + userId + ")");
-            gameRoom.tell(new GameRoom.JoinGameRoom(userId, getSender()), getSelf());
-        } else {
-            System.out.println("GameRoomManager(joinGameRoom) - Trying to join to an unknown GameRoom(id: " + gameRoomId + ")");
+        ActorRef gameRoom = gameRoom(message.gameRoomId);
+        if (gameRoom == null) {
+            log.debug("GameRoomManager(joinGameRoom) - Trying to join to an unknown GameRoom(id: {})", message.gameRoomId);
             getSender().tell(new UnknownGameRoom(), getSelf());
+            return;
+        }
+        // The instance of the id kept by this shard, so that the reservations do not keep one per join
+        String gameRoomId = gameRoomIds.get(gameRoom);
+        claim(Collections.singletonList(userId), gameRoomId, usersAlreadyInGame -> {
+            if (!usersAlreadyInGame.isEmpty()) {
+                String currentGameRoomId = usersAlreadyInGame.get(userId);
+                log.debug("GameRoomManager(joinGameRoom) - User(id: {}) is already in GameRoom(id: {})", userId, currentGameRoomId);
+                getSender().tell(new UserIsAlreadyInGame(currentGameRoomId), getSelf());
+                return;
+            }
+            reserve(Collections.singletonList(userId), gameRoomId);
+            log.debug("GameRoomManager(joinGameRoom) - Joining to GameRoom(id: {}) with User(id: {})", gameRoomId, userId);
+            gameRoom.tell(new GameRoom.JoinGameRoom(userId, getSender()), getSelf());
+        });
+    }
+
+    private void reserve(Collection<String> userIds, String gameRoomId) {
+        long deadline = System.nanoTime() + RESERVATION_TIMEOUT.toNanos();
+        for (String userId : userIds) {
+            reservations.put(userId, new Reservation(gameRoomId, deadline));
+        }
+    }
+
+    /**
+     * Removes the reservation of the user for the GameRoom, returning whether it had one. A reservation of the
+     * user for another GameRoom, made after this one expired, is kept.
+     */
+    private boolean unreserve(String userId, String gameRoomId) {
+        Reservation reservation = reservations.get(userId);
+        if (reservation == null || !reservation.gameRoomId.equals(gameRoomId)) {
+            return false;
+        }
+        reservations.remove(userId);
+        return true;
+    }
+
+    /**
+     * Whether a join to the GameRoom is still waiting for its answer.
+     */
+    private boolean reserved(String gameRoomId) {
+        for (Reservation reservation : reservations.values()) {
+            if (reservation.gameRoomId.equals(gameRoomId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void joinGameRoomFailed(Collection<String> userIds, String gameRoomId) {
+        Room room = room(gameRoomId);
+        Set<String> members = room == null ? Collections.emptySet() : room.users;
+        List<String> released = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            unreserve(userId, gameRoomId);
+            // A member keeps its place, e.g. when it asked to join its own GameRoom again
+            if (!members.contains(userId)) {
+                released.add(userId);
+            }
+        }
+        userRegistry.release(released, gameRoomId);
+    }
+
+    private void expireReservations() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, Reservation>> iterator = reservations.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Reservation> entry = iterator.next();
+            Reservation reservation = entry.getValue();
+            if (reservation.deadline - now > 0) {
+                // Later reservations expire later
+                return;
+            }
+            log.warning("GameRoomManager(expireReservations) - GameRoom(id: {}) did not answer the join of User(id: {})", reservation.gameRoomId, entry.getKey());
+            iterator.remove();
+            userRegistry.release(Collections.singletonList(entry.getKey()), reservation.gameRoomId);
         }
     }
 
     private void leaveGameRoom(LeaveGameRoom message) {
         String gameRoomId = message.gameRoomId;
         String userId = message.userId;
-        if (gameRooms.containsKey(gameRoomId)) {
-            ActorRef gameRoom = gameRooms.get(gameRoomId);
-            System.out.println("GameRoomManager(leaveGameRoom) - User(id: " + userId + ") leaving GameRoom(id: "+ gameRoomId + ")");
+        if (bufferedWhilePassivating(gameRoomId, message)) {
+            return;
+        }
+        ActorRef gameRoom = gameRoom(gameRoomId);
+        if (gameRoom != null) {
+            log.debug("GameRoomManager(leaveGameRoom) - User(id: {}) leaving GameRoom(id: {})", userId, gameRoomId);
             gameRoom.tell(new GameRoom.LeaveGameRoom(userId, getSender()), getSelf());
         } else {
-            System.out.println("GameRoomManager(leaveGameRoom) - User(id: " + userId + ") trying to leave an unknown GameRoom(id: " + gameRoomId + ")");
+            log.debug("GameRoomManager(leaveGameRoom) - User(id: {}) trying to leave an unknown GameRoom(id: {})", userId, gameRoomId);
+            getSender().tell(new UnknownGameRoom(), getSelf());
+        }
+    }
+
+    /**
+     * The users are claimed here and the GameRoom checks that all of them fit, so either all join or none does.
+     */
+    private void joinGameRoomWithUsers(JoinGameRoomWithUsers message) {
+        if (bufferedWhilePassivating(message.gameRoomId, message)) {
+            return;
+        }
+        ActorRef gameRoom = gameRoom(message.gameRoomId);
+        if (gameRoom == null) {
+            log.debug("GameRoomManager(joinGameRoomWithUsers) - Trying to join to an unknown GameRoom(id: {})", message.gameRoomId);
+            getSender().tell(new UnknownGameRoom(), getSelf());
+            return;
+        }
+        String gameRoomId = gameRoomIds.get(gameRoom);
+        Set<String> userIds = new LinkedHashSet<>(message.userIds);
+        claim(userIds, gameRoomId, usersAlreadyInGame -> {
+            if (!usersAlreadyInGame.isEmpty()) {
+                log.debug("GameRoomManager(joinGameRoomWithUsers) - Users {} are already in a GameRoom", usersAlreadyInGame.keySet());
+                getSender().tell(new UsersAreAlreadyInGame(new HashSet<>(usersAlreadyInGame.keySet())), getSelf());
+                return;
+            }
+            reserve(userIds, gameRoomId);
+            log.debug("GameRoomManager(joinGameRoomWithUsers) - Joining to GameRoom(id: {}) with users {}", gameRoomId, userIds);
+            gameRoom.tell(new GameRoom.JoinGameRoomWithUsers(new ArrayList<>(userIds), getSender()), getSelf());
+        });
+    }
+
+    private void leaveGameRoomWithUsers(LeaveGameRoomWithUsers message) {
+        String gameRoomId = message.gameRoomId;
+        if (bufferedWhilePassivating(gameRoomId, message)) {
+            return;
+        }
+        ActorRef gameRoom = gameRoom(gameRoomId);
+        if (gameRoom != null) {
+            log.debug("GameRoomManager(leaveGameRoomWithUsers) - Users {} leaving GameRoom(id: {})", message.userIds, gameRoomId);
+            gameRoom.tell(new GameRoom.LeaveGameRoomWithUsers(new ArrayList<>(new LinkedHashSet<>(message.userIds)), getSender()), getSelf());
+        } else {
+            log.debug("GameRoomManager(leaveGameRoomWithUsers) - Users trying to leave an unknown GameRoom(id: {})", gameRoomId);
             getSender().tell(new UnknownGameRoom(), getSelf());
         }
     }
 
+    private void joinGameRoomWithUsersSuccessfully(JoinGameRoomWithUsersSuccessfully message) {
+        String gameRoomId = message.gameRoomId;
+        if (room(gameRoomId) == null) {
+            log.debug("GameRoomManager(joinGameRoomWithUsersSuccessfully) - Users {} joined the deleted GameRoom(id: {})", message.userIds, gameRoomId);
+            joinGameRoomFailed(message.userIds, gameRoomId);
+            return;
+        }
+        List<UserJoinedEvent> events = new ArrayList<>();
+        for (String userId : message.userIds) {
+            if (confirmReservation(userId, gameRoomId)) {
+                events.add(new UserJoinedEvent(gameRoomId, userId));
+            }
+        }
+        persistAll(events, event -> {
+            userJoined(event);
+            snapshotIfNeeded();
+        });
+        log.debug("GameRoomManager(joinGameRoomWithUsersSuccessfully) - Users {} joined successfully GameRoom(id: {})", message.userIds, gameRoomId);
+    }
+
+    private void leaveGameRoomWithUsersSuccessfully(LeaveGameRoomWithUsersSuccessfully message) {
+        String gameRoomId = message.gameRoomId;
+        userRegistry.release(message.userIds, gameRoomId);
+        List<UserLeftEvent> events = new ArrayList<>();
+        for (String userId : message.userIds) {
+            events.add(new UserLeftEvent(gameRoomId, userId));
+        }
+        persistAll(events, event -> {
+            userLeft(event);
+            snapshotIfNeeded();
+        });
+        log.debug("GameRoomManager(leaveGameRoomWithUsersSuccessfully) - Users {} left successfully GameRoom(id: {})", message.userIds, gameRoomId);
+    }
+
     private void joinGameRoomSuccessfully(JoinGameRoomSuccessfully message) {
         String userId = message.userId;
         String gameRoomId = message.gameRoomId;
-        usersInGame.put(userId, gameRoomId);
-        System.out.println("GameRoomManager(joinGameRoomSuccessfully) - User(id: " + userId + ") joined successfully GameRoom(id: " + gameRoomId + ")");
+        if (room(gameRoomId) == null) {
+            // The GameRoom was deleted while the join was on its way
+            log.debug("GameRoomManager(joinGameRoomSuccessfully) - User(id: {}) joined the deleted GameRoom(id: {})", userId, gameRoomId);
+            joinGameRoomFailed(Collections.singletonList(userId), gameRoomId);
+            return;
+        }
+        if (!confirmReservation(userId, gameRoomId)) {
+            return;
+        }
+        persist(new UserJoinedEvent(gameRoomId, userId), event -> {
+            userJoined(event);
+            log.debug("GameRoomManager(joinGameRoomSuccessfully) - User(id: {}) joined successfully GameRoom(id: {})", userId, gameRoomId);
+            snapshotIfNeeded();
+        });
+    }
+
+    /**
+     * Turns the reservation of a user that joined into a membership. Returns whether the join has to be journaled,
+     * which is not the case when the user already was a member, nor when the reservation expired and was released:
+     * the user is then claimed again, and its join journaled, by a ReclaimUser.
+     */
+    private boolean confirmReservation(String userId, String gameRoomId) {
+        boolean reserved = unreserve(userId, gameRoomId);
+        if (room(gameRoomId).users.contains(userId)) {
+            return false;
+        }
+        if (!reserved) {
+            getSelf().tell(new ReclaimUser(userId, gameRoomId), getContext().getSystem().deadLetters());
+        }
+        return reserved;
+    }
+
+    private void reclaimUser(ReclaimUser message) {
+        String userId = message.userId;
+        String gameRoomId = message.gameRoomId;
+        Room room = room(gameRoomId);
+        if (room == null || room.users.contains(userId)) {
+            return;
+        }
+        claim(Collections.singletonList(userId), gameRoomId, usersAlreadyInGame -> {
+            if (!usersAlreadyInGame.isEmpty()) {
+                // The user went to another GameRoom meanwhile, so it leaves this one
+                log.warning("GameRoomManager(reclaimUser) - User(id: {}) joined GameRoom(id: {}) while in GameRoom(id: {})", userId, gameRoomId, usersAlreadyInGame.get(userId));
+                getSelf().tell(new LeaveGameRoom(gameRoomId, userId), getContext().getSystem().deadLetters());
+                return;
+            }
+            persist(new UserJoinedEvent(gameRoomId, userId), event -> {
+                userJoined(event);
+                log.debug("GameRoomManager(reclaimUser) - User(id: {}) joined GameRoom(id: {}) after its reservation expired", userId, gameRoomId);
+                snapshotIfNeeded();
+            });
+        }, cause -> {
+            log.warning("GameRoomManager(reclaimUser) - User(id: {}) could not be claimed again for GameRoom(id: {}): {}", userId, gameRoomId, cause.getMessage());
+            getSelf().tell(new LeaveGameRoom(gameRoomId, userId), getContext().getSystem().deadLetters());
+        });
     }
 
     private void leaveGameRoomSuccessfully(LeaveGameRoomSuccessfully message) {
         String userId = message.userId;
         String gameRoomId = message.gameRoomId;
-        usersInGame.remove(message.userId);
-        System.out.println("GameRoomManager(joinGameRoomSuccessfully) - User(id: " + userId + ") left successfully GameRoom(id: " + gameRoomId + ")");
+        userRegistry.release(Collections.singletonList(userId), gameRoomId);
+        persist(new UserLeftEvent(gameRoomId, userId), event -> {
+            userLeft(event);
+            log.debug("GameRoomManager(leaveGameRoomSuccessfully) - User(id: {}) left successfully GameRoom(id: {})", userId, gameRoomId);
+            snapshotIfNeeded();
+        });
     }
 
     private void getGameRoomList(GetGameRoomList message) {
-        System.out.println("GameRoomManager(getGameRoomList) - Game room list sended");
-        getSender().tell(new GameRoomList(gameRooms.keySet()), getSelf());
+        log.debug("GameRoomManager(getGameRoomList) - Game room list sended");
+        Set<String> gameRoomIds = new HashSet<>();
+        rooms.forEach((id, room) -> {
+            gameRoomIds.add(room.gameRoomId);
+            return true;
+        });
+        getSender().tell(new GameRoomList(gameRoomIds), getSelf());
     }
 
-    static public class CreateGameRoom {
+    private void getGameRoomPage(GetGameRoomPage message) {
+        List<GameRoomSummary> page = new ArrayList<>();
+        boolean[] more = new boolean[1];
+        rooms.forEachAfter(message.after == null ? 0 : id(message.after), (id, room) -> {
+            int size = room.users.size();
+            if ((message.ownerId != null && !message.ownerId.equals(room.ownerId)) || (message.openSlots && size >= room.capacity)) {
+                return true;
+            }
+            if (page.size() == message.limit) {
+                more[0] = true;
+                return false;
+            }
+            page.add(new GameRoomSummary(room.gameRoomId, room.ownerId, size, room.capacity));
+            return true;
+        });
+        log.debug("GameRoomManager(getGameRoomPage) - Sending {} GameRooms after GameRoom(id: {})", page.size(), message.after);
+        getSender().tell(new GameRoomPage(page, more[0]), getSelf());
+    }
 
-        // GameRoom owner
-        private final String userId;
+    private void getGameRoomUsers(GetGameRoomUsers message) {
+        Room room = room(message.gameRoomId);
+        if (room != null) {
+            log.debug("GameRoomManager(getGameRoomUsers) - Users of GameRoom(id: {}) sended", message.gameRoomId);
+            getSender().tell(new GameRoomUsers(new HashSet<>(room.users)), getSelf());
+        } else {
+            log.debug("GameRoomManager(getGameRoomUsers) - Trying to get the users of an unknown GameRoom(id: {})", message.gameRoomId);
+            getSender().tell(new UnknownGameRoom(), getSelf());
+        }
+    }
 
-        public CreateGameRoom(String userId) {
-            this.userId = userId;
+    private void getGameRoom(GetGameRoom message) {
+        if (bufferedWhilePassivating(message.gameRoomId, message)) {
+            return;
+        }
+        ActorRef gameRoom = gameRoom(message.gameRoomId);
+        if (gameRoom != null) {
+            getSender().tell(new GameRoomRef(gameRoom), getSelf());
+        } else {
+            log.debug("GameRoomManager(getGameRoom) - Trying to get an unknown GameRoom(id: {})", message.gameRoomId);
+            getSender().tell(new UnknownGameRoom(), getSelf());
         }
     }
 
-    static public class DeleteGameRoom {
+    /**
+     * Address of a GameRoom, for the directories of the other cluster nodes. It is answered from the state of the
+     * shard, so a passivated GameRoom is not started again.
+     */
+    private void getGameRoomAddress(GetGameRoomAddress message) {
+        Room room = room(message.gameRoomId);
+        if (room != null) {
+            getSender().tell(new GameRoomAddress(address(room)), getSelf());
+        } else {
+            log.debug("GameRoomManager(getGameRoomAddress) - Trying to get the address of an unknown GameRoom(id: {})", message.gameRoomId);
+            getSender().tell(new UnknownGameRoom(), getSelf());
+        }
+    }
 
-        private final String gameRoomId;
+    /**
+     * Members of the GameRooms of this shard, and users reserved for them, that belong to a bucket of the registry
+     * of a cluster, for that bucket to rebuild itself.
+     */
+    private void getUsersInGame(GetUsersInGame message) {
+        Map<String, String> usersInGame = new HashMap<>();
+        rooms.forEach((id, room) -> {
+            for (String userId : room.users) {
+                if (UserRegistryBucket.bucketOf(userId, message.bucketCount) == message.bucket) {
+                    usersInGame.put(userId, room.gameRoomId);
+                }
+            }
+            return true;
+        });
+        reservations.forEach((userId, reservation) -> {
+            if (UserRegistryBucket.bucketOf(userId, message.bucketCount) == message.bucket) {
+                usersInGame.putIfAbsent(userId, reservation.gameRoomId);
+            }
+        });
+        getSender().tell(new UsersInGame(usersInGame), getSelf());
+    }
 
-        public DeleteGameRoom(String gameRoomId) {
-            this.gameRoomId = gameRoomId;
+    // Event handlers, shared by the commands and the recovery. They only change the state of this shard,
+    // the GameRooms and the registry are updated by the callers.
+
+    private Room gameRoomCreated(GameRoomCreatedEvent event) {
+        currentId++;
+        Room room = new Room(event.gameRoomId, event.ownerId, event.getCapacity());
+        room.users.add(event.ownerId);
+        rooms.put(id(event.gameRoomId), room);
+        usersChanged(1);
+        return room;
+    }
+
+    private void userJoined(UserJoinedEvent event) {
+        Room room = room(event.gameRoomId);
+        if (room != null && room.users.add(event.userId)) {
+            usersChanged(1);
         }
     }
 
-    static public class GameRoomCreated {
+    private void userLeft(UserLeftEvent event) {
+        Room room = room(event.gameRoomId);
+        if (room != null && room.users.remove(event.userId)) {
+            usersChanged(-1);
+        }
+    }
 
-        private final String gameRoomId;
+    private Set<String> gameRoomDeleted(GameRoomDeletedEvent event) {
+        Set<String> removedUsers = rooms.remove(id(event.gameRoomId)).users;
+        usersChanged(-removedUsers.size());
+        return removedUsers;
+    }
 
-        public GameRoomCreated(String gameRoomId) {
-            this.gameRoomId = gameRoomId;
+    private void usersChanged(long delta) {
+        users += delta;
+        // The users replayed by the recovery are counted by the directory all at once when it completes
+        if (!recoveryRunning()) {
+            directory.usersChanged(delta);
         }
+    }
 
-        public String getGameRoomId() {
-            return gameRoomId;
+    private void snapshotIfNeeded() {
+        if (lastSequenceNr() % SNAPSHOT_INTERVAL == 0) {
+            // The snapshot is serialized after this handler returns, so it gets its own copy of the state
+            Map<String, String> owners = new HashMap<>();
+            Map<String, Integer> capacities = new HashMap<>();
+            Map<String, Set<String>> roomUsers = new HashMap<>();
+            rooms.forEach((id, room) -> {
+                owners.put(room.gameRoomId, room.ownerId);
+                capacities.put(room.gameRoomId, room.capacity);
+                roomUsers.put(room.gameRoomId, new HashSet<>(room.users));
+                return true;
+            });
+            saveSnapshot(new GameRoomManagerSnapshot(currentId, owners, capacities, roomUsers));
         }
     }
 
-    static public class GameRoomDeleted { }
+    private void snapshotSaved(SaveSnapshotSuccess message) {
+        log.debug("GameRoomManager(snapshotSaved) - Snapshot saved at event {}", message.metadata().sequenceNr());
+        // Only the latest snapshot is used by the recovery
+        deleteSnapshots(SnapshotSelectionCriteria.create(message.metadata().sequenceNr() - 1, Long.MAX_VALUE));
+    }
+
+    /**
+     * A GameRoom of this shard. Its id is the instance kept by the reservations of its users.
+     */
+    static private class Room {
+
+        private final String gameRoomId;
+        private final String ownerId;
+        private final int capacity;
+        private final Set<String> users = new HashSet<>();
 
-    static public class UnknownGameRoom { }
+        private Room(String gameRoomId, String ownerId, int capacity) {
+            this.gameRoomId = gameRoomId;
+            this.ownerId = ownerId;
+            this.capacity = capacity;
+        }
+    }
 
-    static public class JoinGameRoom {
+    static private class Reservation {
 
         private final String gameRoomId;
-        private final String userId;
+        private final long deadline;
 
-        public JoinGameRoom(String gameRoomId, String userId) {
+        private Reservation(String gameRoomId, long deadline) {
             this.gameRoomId = gameRoomId;
-            this.userId = userId;
+            this.deadline = deadline;
         }
     }
 
-    static public class UserIsAlreadyInGame {
+    static private class Buffered {
 
-        private String gameRoomId;
+        private final Object message;
+        private final ActorRef sender;
 
-        public UserIsAlreadyInGame(String gameRoomId) {
+        private Buffered(Object message, ActorRef sender) {
+            this.message = message;
+            this.sender = sender;
+        }
+    }
+
+    /**
+     * Sent by a GameRoom that received nothing for "game-room.idle-timeout".
+     */
+    static public class GameRoomIdle implements Serializable {
+
+        private final String gameRoomId;
+
+        public GameRoomIdle(String gameRoomId) {
             this.gameRoomId = gameRoomId;
         }
 
@@ -176,52 +916,711 @@ public class GameRoomManager extends AbstractActor {
         }
     }
 
-    static public class JoinGameRoomSuccessfully {
+    static public class CreateGameRoom implements Serializable {
 
-        private String userId;
-        private String gameRoomId;
+        // GameRoom owner
+        private final String userId;
+        private final int capacity;
 
-        public JoinGameRoomSuccessfully(String userId, String gameRoomId) {
+        public CreateGameRoom(String userId) {
+            this(userId, GameRoom.DEFAULT_CAPACITY);
+        }
+
+        public CreateGameRoom(String userId, int capacity) {
             this.userId = userId;
-            this.gameRoomId = gameRoomId;
+            this.capacity = capacity;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public int getCapacity() {
+            return capacity;
         }
     }
 
-    static public class LeaveGameRoomSuccessfully {
-        private String userId;
-        private String gameRoomId;
+    static public class CreateGameRoomWithUsers implements Serializable {
 
-        public LeaveGameRoomSuccessfully(String userId, String gameRoomId) {
-            this.userId = userId;
-            this.gameRoomId = gameRoomId;
+        // The first one is the GameRoom owner
+        private final List<String> userIds;
+        private final int capacity;
+
+        public CreateGameRoomWithUsers(List<String> userIds, int capacity) {
+            this.userIds = userIds;
+            this.capacity = capacity;
+        }
+
+        public List<String> getUserIds() {
+            return userIds;
+        }
+
+        public int getCapacity() {
+            return capacity;
         }
     }
 
-    static public class LeaveGameRoom {
+    static public class DeleteGameRoom implements Serializable {
 
         private final String gameRoomId;
-        private final String userId;
 
-        public LeaveGameRoom(String gameRoomId, String userId) {
+        public DeleteGameRoom(String gameRoomId) {
             this.gameRoomId = gameRoomId;
-            this.userId = userId;
         }
-    }
 
-    static public class GetGameRoomList { }
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+    }
 
-    static public class GameRoomList {
+    static public class GameRoomCreated implements Serializable {
 
-        private Set<String> list;
+        private final String gameRoomId;
 
-        public GameRoomList(Set<String> list) {
-            this.list = list;
+        public GameRoomCreated(String gameRoomId) {
+            this.gameRoomId = gameRoomId;
         }
 
-        public Set<String> getList() {
-            return list;
+        public String getGameRoomId() {
+            return gameRoomId;
         }
     }
 
+    static public class GameRoomDeleted implements Serializable { }
+
+    static public class UnknownGameRoom implements Serializable { }
+
+    static public class JoinGameRoom implements Serializable {
+
+        private final String gameRoomId;
+        private final String userId;
+
+        public JoinGameRoom(String gameRoomId, String userId) {
+            this.gameRoomId = gameRoomId;
+            this.userId = userId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    static public class UserIsAlreadyInGame implements Serializable {
+
+        private String gameRoomId;
+
+        public UserIsAlreadyInGame(String gameRoomId) {
+            this.gameRoomId = gameRoomId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+    }
+
+    static public class UsersAreAlreadyInGame implements Serializable {
+
+        private final Set<String> userIds;
+
+        public UsersAreAlreadyInGame(Set<String> userIds) {
+            this.userIds = userIds;
+        }
+
+        public Set<String> getUserIds() {
+            return userIds;
+        }
+    }
+
+    static public class JoinGameRoomSuccessfully {
+
+        private String userId;
+        private String gameRoomId;
+
+        public JoinGameRoomSuccessfully(String userId, String gameRoomId) {
+            this.userId = userId;
+            this.gameRoomId = gameRoomId;
+        }
+    }
+
+    static public class JoinGameRoomFailed {
+
+        private final String userId;
+        private final String gameRoomId;
+
+        public JoinGameRoomFailed(String userId, String gameRoomId) {
+            this.userId = userId;
+            this.gameRoomId = gameRoomId;
+        }
+    }
+
+    static public class LeaveGameRoomSuccessfully {
+        private String userId;
+        private String gameRoomId;
+
+        public LeaveGameRoomSuccessfully(String userId, String gameRoomId) {
+            this.userId = userId;
+            this.gameRoomId = gameRoomId;
+        }
+    }
+
+    static public class LeaveGameRoom implements Serializable {
+
+        private final String gameRoomId;
+        private final String userId;
+
+        public LeaveGameRoom(String gameRoomId, String userId) {
+            this.gameRoomId = gameRoomId;
+            this.userId = userId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    /**
+     * Joins all the users to the GameRoom, or none of them when some are already in a GameRoom or they do not fit.
+     */
+    static public class JoinGameRoomWithUsers implements Serializable {
+
+        private final String gameRoomId;
+        private final List<String> userIds;
+
+        public JoinGameRoomWithUsers(String gameRoomId, List<String> userIds) {
+            this.gameRoomId = gameRoomId;
+            this.userIds = userIds;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+
+        public List<String> getUserIds() {
+            return userIds;
+        }
+    }
+
+    /**
+     * Removes all the users from the GameRoom, or none of them when some are not in it.
+     */
+    static public class LeaveGameRoomWithUsers implements Serializable {
+
+        private final String gameRoomId;
+        private final List<String> userIds;
+
+        public LeaveGameRoomWithUsers(String gameRoomId, List<String> userIds) {
+            this.gameRoomId = gameRoomId;
+            this.userIds = userIds;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+
+        public List<String> getUserIds() {
+            return userIds;
+        }
+    }
+
+    static public class JoinGameRoomWithUsersSuccessfully {
+
+        private final String gameRoomId;
+        private final List<String> userIds;
+
+        public JoinGameRoomWithUsersSuccessfully(String gameRoomId, List<String> userIds) {
+            this.gameRoomId = gameRoomId;
+            this.userIds = userIds;
+        }
+    }
+
+    static public class JoinGameRoomWithUsersFailed {
+
+        private final String gameRoomId;
+        private final List<String> userIds;
+
+        public JoinGameRoomWithUsersFailed(String gameRoomId, List<String> userIds) {
+            this.gameRoomId = gameRoomId;
+            this.userIds = userIds;
+        }
+    }
+
+    static public class LeaveGameRoomWithUsersSuccessfully {
+
+        private final String gameRoomId;
+        private final List<String> userIds;
+
+        public LeaveGameRoomWithUsersSuccessfully(String gameRoomId, List<String> userIds) {
+            this.gameRoomId = gameRoomId;
+            this.userIds = userIds;
+        }
+    }
+
+    static public class GetGameRoomList implements Serializable { }
+
+    static public class GameRoomList implements Serializable {
+
+        private Set<String> list;
+        // Shards that did not answer, whose GameRooms are not listed
+        private final List<Integer> missingShards;
+
+        public GameRoomList(Set<String> list) {
+            this(list, Collections.emptyList());
+        }
+
+        public GameRoomList(Set<String> list, List<Integer> missingShards) {
+            this.list = list;
+            this.missingShards = missingShards;
+        }
+
+        public Set<String> getList() {
+            return list;
+        }
+
+        public List<Integer> getMissingShards() {
+            return missingShards;
+        }
+    }
+
+    /**
+     * Up to limit GameRooms, in the order of their ids, after the given id or from the first one when it is null.
+     * Only the GameRooms with free places are included when openSlots is set, and those of the given owner if any.
+     */
+    static public class GetGameRoomPage implements Serializable {
+
+        private final String after;
+        private final int limit;
+        private final boolean openSlots;
+        private final String ownerId;
+
+        public GetGameRoomPage(String after, int limit, boolean openSlots, String ownerId) {
+            this.after = after;
+            this.limit = limit;
+            this.openSlots = openSlots;
+            this.ownerId = ownerId;
+        }
+
+        public String getAfter() {
+            return after;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public boolean isOpenSlots() {
+            return openSlots;
+        }
+
+        public String getOwnerId() {
+            return ownerId;
+        }
+    }
+
+    static public class GameRoomPage implements Serializable {
+
+        private final List<GameRoomSummary> gameRooms;
+        // Whether other GameRooms match after the last one of this page
+        private final boolean more;
+        // Shards that did not answer, whose GameRooms are missing from this page
+        private final List<Integer> missingShards;
+
+        public GameRoomPage(List<GameRoomSummary> gameRooms, boolean more) {
+            this(gameRooms, more, Collections.emptyList());
+        }
+
+        public GameRoomPage(List<GameRoomSummary> gameRooms, boolean more, List<Integer> missingShards) {
+            this.gameRooms = Collections.unmodifiableList(gameRooms);
+            this.more = more;
+            this.missingShards = missingShards;
+        }
+
+        public List<Integer> getMissingShards() {
+            return missingShards;
+        }
+
+        public List<GameRoomSummary> getGameRooms() {
+            return gameRooms;
+        }
+
+        public boolean hasMore() {
+            return more;
+        }
+
+        /**
+         * Cursor of the next page, or null when this is the last one.
+         */
+        public String getNext() {
+            return more && !gameRooms.isEmpty() ? gameRooms.get(gameRooms.size() - 1).gameRoomId : null;
+        }
+    }
+
+    static public class GameRoomSummary implements Serializable {
+
+        private final String gameRoomId;
+        private final String ownerId;
+        private final int users;
+        private final int capacity;
+
+        public GameRoomSummary(String gameRoomId, String ownerId, int users, int capacity) {
+            this.gameRoomId = gameRoomId;
+            this.ownerId = ownerId;
+            this.users = users;
+            this.capacity = capacity;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+
+        public String getOwnerId() {
+            return ownerId;
+        }
+
+        public int getUsers() {
+            return users;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+    }
+
+    static public class GetGameRoomUsers implements Serializable {
+
+        private final String gameRoomId;
+
+        public GetGameRoomUsers(String gameRoomId) {
+            this.gameRoomId = gameRoomId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+    }
+
+    static public class GameRoomUsers implements Serializable {
+
+        private Set<String> users;
+
+        public GameRoomUsers(Set<String> users) {
+            this.users = users;
+        }
+
+        public Set<String> getUsers() {
+            return users;
+        }
+
+        public int getSize() {
+            return users.size();
+        }
+    }
+
+    /**
+     * Asks for the GameRoom actor itself, for the WebSocket connections that talk to it directly.
+     */
+    static public class GetGameRoom implements Serializable {
+
+        private final String gameRoomId;
+
+        public GetGameRoom(String gameRoomId) {
+            this.gameRoomId = gameRoomId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+    }
+
+    static public class GameRoomRef implements Serializable {
+
+        private final ActorRef gameRoom;
+
+        public GameRoomRef(ActorRef gameRoom) {
+            this.gameRoom = gameRoom;
+        }
+
+        public ActorRef getGameRoom() {
+            return gameRoom;
+        }
+    }
+
+    static public class GetGameRoomCount implements Serializable { }
+
+    static public class GameRoomCount implements Serializable {
+
+        private final long gameRooms;
+        private final long users;
+        // Shards that did not answer, whose GameRooms and users are not counted
+        private final List<Integer> missingShards;
+
+        public GameRoomCount(long gameRooms, long users) {
+            this(gameRooms, users, Collections.emptyList());
+        }
+
+        public GameRoomCount(long gameRooms, long users, List<Integer> missingShards) {
+            this.gameRooms = gameRooms;
+            this.users = users;
+            this.missingShards = missingShards;
+        }
+
+        public List<Integer> getMissingShards() {
+            return missingShards;
+        }
+
+        public long getGameRooms() {
+            return gameRooms;
+        }
+
+        public long getUsers() {
+            return users;
+        }
+    }
+
+    static public class GetGameRoomAddress implements Serializable {
+
+        private final String gameRoomId;
+
+        public GetGameRoomAddress(String gameRoomId) {
+            this.gameRoomId = gameRoomId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+    }
+
+    static public class GameRoomAddress implements Serializable {
+
+        private final String address;
+
+        public GameRoomAddress(String address) {
+            this.address = address;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+    }
+
+    /**
+     * Message addressed to a given shard when the shards are hosted by Cluster Sharding.
+     */
+    static public class ShardEnvelope implements Serializable {
+
+        private final int shardId;
+        private final Object message;
+
+        public ShardEnvelope(int shardId, Object message) {
+            this.shardId = shardId;
+            this.message = message;
+        }
+
+        public int getShardId() {
+            return shardId;
+        }
+
+        public Object getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Asks a shard for its users in the given bucket of the registry, answered with UsersInGame.
+     */
+    static public class GetUsersInGame implements Serializable {
+
+        private final int bucket;
+        private final int bucketCount;
+
+        public GetUsersInGame(int bucket, int bucketCount) {
+            this.bucket = bucket;
+            this.bucketCount = bucketCount;
+        }
+
+        public int getBucket() {
+            return bucket;
+        }
+
+        public int getBucketCount() {
+            return bucketCount;
+        }
+    }
+
+    static public class UsersInGame implements Serializable {
+
+        // GameRoom of each user
+        private final Map<String, String> usersInGame;
+
+        public UsersInGame(Map<String, String> usersInGame) {
+            this.usersInGame = usersInGame;
+        }
+
+        public Map<String, String> getUsersInGame() {
+            return usersInGame;
+        }
+    }
+
+    /**
+     * Answer of the registry to the claim a shard is waiting for, sent by the shard to itself.
+     */
+    static private class UsersClaimed {
+
+        private final Map<String, String> usersAlreadyInGame;
+        // null when the claim was answered
+        private final Throwable failure;
+
+        private UsersClaimed(Map<String, String> usersAlreadyInGame, Throwable failure) {
+            this.usersAlreadyInGame = usersAlreadyInGame;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Claims again a user whose GameRoom answered its join after the reservation expired.
+     */
+    static private class ReclaimUser {
+
+        private final String userId;
+        private final String gameRoomId;
+
+        private ReclaimUser(String userId, String gameRoomId) {
+            this.userId = userId;
+            this.gameRoomId = gameRoomId;
+        }
+    }
+
+    static public class GameRoomCreatedEvent implements Serializable {
+
+        // Events are kept in the journal, so their serialVersionUIDs are fixed to the ones they had before the capacity
+        // was added instead of being computed from the class, which changes with the accessors the compiler adds
+        private static final long serialVersionUID = -7460649151453767287L;
+
+        private final String gameRoomId;
+        private final String ownerId;
+        // 0 in the events written before the capacity was added
+        private final int capacity;
+
+        public GameRoomCreatedEvent(String gameRoomId, String ownerId, int capacity) {
+            this.gameRoomId = gameRoomId;
+            this.ownerId = ownerId;
+            this.capacity = capacity;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+
+        public String getOwnerId() {
+            return ownerId;
+        }
+
+        public int getCapacity() {
+            return capacity == 0 ? GameRoom.DEFAULT_CAPACITY : capacity;
+        }
+    }
+
+    static public class UserJoinedEvent implements Serializable {
+
+        private static final long serialVersionUID = 8909845218681933266L;
+
+        private final String gameRoomId;
+        private final String userId;
+
+        public UserJoinedEvent(String gameRoomId, String userId) {
+            this.gameRoomId = gameRoomId;
+            this.userId = userId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    static public class UserLeftEvent implements Serializable {
+
+        private static final long serialVersionUID = -5257401846572596232L;
+
+        private final String gameRoomId;
+        private final String userId;
+
+        public UserLeftEvent(String gameRoomId, String userId) {
+            this.gameRoomId = gameRoomId;
+            this.userId = userId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    static public class GameRoomDeletedEvent implements Serializable {
+
+        private static final long serialVersionUID = -7917726893423842995L;
+
+        private final String gameRoomId;
+
+        public GameRoomDeletedEvent(String gameRoomId) {
+            this.gameRoomId = gameRoomId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+    }
+
+    /**
+     * State of a shard at a given event, the GameRooms are started again from it on recovery.
+     */
+    static public class GameRoomManagerSnapshot implements Serializable {
+
+        // Kept from before the capacities were added, so that older snapshots can still be read
+        private static final long serialVersionUID = -7612676984515028090L;
+
+        private final long currentId;
+        private final Map<String, String> gameRoomOwners;
+        // null in the snapshots saved before the capacities were added
+        private final Map<String, Integer> gameRoomCapacities;
+        private final Map<String, Set<String>> gameRoomUsers;
+
+        public GameRoomManagerSnapshot(long currentId, Map<String, String> gameRoomOwners, Map<String, Integer> gameRoomCapacities,
+                                       Map<String, Set<String>> gameRoomUsers) {
+            this.currentId = currentId;
+            this.gameRoomOwners = gameRoomOwners;
+            this.gameRoomCapacities = gameRoomCapacities;
+            this.gameRoomUsers = gameRoomUsers;
+        }
+
+        public long getCurrentId() {
+            return currentId;
+        }
+
+        public Map<String, String> getGameRoomOwners() {
+            return gameRoomOwners;
+        }
+
+        public Map<String, Integer> getGameRoomCapacities() {
+            return gameRoomCapacities;
+        }
+
+        public Map<String, Set<String>> getGameRoomUsers() {
+            return gameRoomUsers;
+        }
+    }
 
 }
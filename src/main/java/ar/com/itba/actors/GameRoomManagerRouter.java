@@ -0,0 +1,261 @@
+package ar.com.itba.actors;
+
+import static akka.pattern.PatternsCS.ask;
+import static akka.pattern.PatternsCS.pipe;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.sharding.ClusterSharding$;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
+import akka.pattern.Backoff;
+import akka.pattern.BackoffSupervisor;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class GameRoomManagerRouter extends AbstractActor {
+
+    private final static int TIME_OUT = 5000;
+    // Wait before starting again a shard that stopped, e.g. on a journal failure, doubled while it keeps stopping
+    final static FiniteDuration SHARD_MIN_BACKOFF = Duration.create(1, TimeUnit.SECONDS);
+    private final static FiniteDuration SHARD_MAX_BACKOFF = Duration.create(30, TimeUnit.SECONDS);
+    // Cluster Sharding type name of the GameRoomManager shards
+    public final static String TYPE_NAME = "GameRoomManager";
+
+    private final int shardCount;
+    private final ActorRef[] shards;
+    // Cluster Sharding region hosting the shards, null when they are children of this router
+    private final ActorRef region;
+    private final UserRegistry userRegistry = new LocalUserRegistry();
+    private final GameRoomDirectory directory;
+
+    static public Props props(int shardCount) {
+        return props(shardCount, new GameRoomDirectory());
+    }
+
+    /**
+     * Props for a router with its own shards, that keep the addresses of their GameRooms in the given directory.
+     */
+    static public Props props(int shardCount, GameRoomDirectory directory) {
+        return Props.create(GameRoomManagerRouter.class, () -> new GameRoomManagerRouter(shardCount, null, directory))
+                .withMailbox(MonitoredMailbox.MAILBOX);
+    }
+
+    static public Props props(int shardCount, ActorRef region) {
+        return Props.create(GameRoomManagerRouter.class, () -> new GameRoomManagerRouter(shardCount, region, null))
+                .withMailbox(MonitoredMailbox.MAILBOX);
+    }
+
+    /**
+     * Starts the Cluster Sharding region that spreads the GameRoomManager shards, and so their GameRooms, over the cluster nodes,
+     * along with the region of the user registry buckets that keeps a user in one GameRoom across all of them.
+     * A shard that moves to another node only recovers its GameRooms if the journal is shared by the nodes. The
+     * directory only has the addresses of the GameRooms hosted by the local node, the others are asked to their shards.
+     */
+    static public ActorRef startRegion(ActorSystem system, int shardCount, GameRoomDirectory directory) {
+        ClusterShardingSettings settings = ClusterShardingSettings.create(system);
+        ActorRef userRegistry = ClusterSharding$.MODULE$.get(system).start(
+                UserRegistryBucket.TYPE_NAME,
+                UserRegistryBucket.props(shardCount),
+                settings,
+                new UserRegistryBucket.BucketMessageExtractor());
+        long timeOut = UserRegistryBucket.timeOut(system.settings().config());
+        return ClusterSharding$.MODULE$.get(system).start(
+                TYPE_NAME,
+                GameRoomManager.entityProps(shardCount, new ClusterUserRegistry(userRegistry, shardCount, timeOut), directory),
+                settings,
+                new ShardMessageExtractor());
+    }
+
+    public GameRoomManagerRouter(int shardCount, ActorRef region, GameRoomDirectory directory) {
+        this.shardCount = shardCount;
+        this.shards = new ActorRef[shardCount];
+        this.region = region;
+        this.directory = directory;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        MonitoredMailbox.join(GameRoomManager.MAILBOX_GROUP, getSelf());
+        if (region != null) {
+            return;
+        }
+        // A persistent actor stops when the journal fails, its supervisor starts it again to recover its GameRooms
+        for (int shardId = 0; shardId < shardCount; shardId++) {
+            Props shard = GameRoomManager.props(shardId, shardCount, userRegistry, directory);
+            shards[shardId] = getContext().actorOf(BackoffSupervisor.props(
+                    Backoff.onStop(shard, "GameRoomManager", SHARD_MIN_BACKOFF, SHARD_MAX_BACKOFF, 0.2)), "Shard" + shardId);
+        }
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(GameRoomManager.CreateGameRoom.class, message -> forward(userShard(message.getUserId()), message))
+                .match(GameRoomManager.CreateGameRoomWithUsers.class, message -> forward(userShard(message.getUserIds().get(0)), message))
+                .match(GameRoomManager.DeleteGameRoom.class, message -> forward(shardOf(message.getGameRoomId(), shardCount), message))
+                .match(GameRoomManager.JoinGameRoom.class, message -> forward(shardOf(message.getGameRoomId(), shardCount), message))
+                .match(GameRoomManager.LeaveGameRoom.class, message -> forward(shardOf(message.getGameRoomId(), shardCount), message))
+                .match(GameRoomManager.JoinGameRoomWithUsers.class, message -> forward(shardOf(message.getGameRoomId(), shardCount), message))
+                .match(GameRoomManager.LeaveGameRoomWithUsers.class, message -> forward(shardOf(message.getGameRoomId(), shardCount), message))
+                .match(GameRoomManager.GetGameRoomUsers.class, message -> forward(shardOf(message.getGameRoomId(), shardCount), message))
+                .match(GameRoomManager.GetGameRoom.class, message -> forward(shardOf(message.getGameRoomId(), shardCount), message))
+                .match(GameRoomManager.GetGameRoomAddress.class, message -> forward(shardOf(message.getGameRoomId(), shardCount), message))
+                .match(GameRoomManager.GetGameRoomList.class, message -> getGameRoomList(message))
+                .match(GameRoomManager.GetGameRoomPage.class, message -> getGameRoomPage(message))
+                .match(GameRoomManager.GetGameRoomCount.class, message -> getGameRoomCount(message))
+                .build();
+    }
+
+    private void getGameRoomList(GameRoomManager.GetGameRoomList message) {
+        CompletableFuture<GameRoomManager.GameRoomList> gameRoomList = askAllShards(message).thenApply(replies -> {
+            Set<String> list = new HashSet<>();
+            for (Object reply : replies.getReplies()) {
+                list.addAll(((GameRoomManager.GameRoomList) reply).getList());
+            }
+            return new GameRoomManager.GameRoomList(list, replies.getMissingShards());
+        });
+        pipe(gameRoomList, getContext().dispatcher()).to(getSender());
+    }
+
+    /**
+     * Every shard answers its own first page, the page of the system is the first ones of all of them that answered.
+     */
+    private void getGameRoomPage(GameRoomManager.GetGameRoomPage message) {
+        CompletableFuture<GameRoomManager.GameRoomPage> gameRoomPage = askAllShards(message).thenApply(replies -> {
+            List<GameRoomManager.GameRoomSummary> gameRooms = new ArrayList<>();
+            boolean more = false;
+            for (Object reply : replies.getReplies()) {
+                GameRoomManager.GameRoomPage page = (GameRoomManager.GameRoomPage) reply;
+                gameRooms.addAll(page.getGameRooms());
+                more |= page.hasMore();
+            }
+            gameRooms.sort(Comparator.comparing(GameRoomManager.GameRoomSummary::getGameRoomId, GameRoomManager.GAME_ROOM_ORDER));
+            if (gameRooms.size() > message.getLimit()) {
+                gameRooms = new ArrayList<>(gameRooms.subList(0, message.getLimit()));
+                more = true;
+            }
+            return new GameRoomManager.GameRoomPage(gameRooms, more, replies.getMissingShards());
+        });
+        pipe(gameRoomPage, getContext().dispatcher()).to(getSender());
+    }
+
+    private void getGameRoomCount(GameRoomManager.GetGameRoomCount message) {
+        CompletableFuture<GameRoomManager.GameRoomCount> gameRoomCount = askAllShards(message).thenApply(replies -> {
+            long gameRooms = 0;
+            long users = 0;
+            for (Object reply : replies.getReplies()) {
+                gameRooms += ((GameRoomManager.GameRoomCount) reply).getGameRooms();
+                users += ((GameRoomManager.GameRoomCount) reply).getUsers();
+            }
+            return new GameRoomManager.GameRoomCount(gameRooms, users, replies.getMissingShards());
+        });
+        pipe(gameRoomCount, getContext().dispatcher()).to(getSender());
+    }
+
+    /**
+     * Asks every shard, completing with the replies of the ones that answered in time. A slow or failed shard does
+     * not fail the whole answer, it is only left out of it as missing.
+     */
+    private CompletableFuture<ShardReplies> askAllShards(Object message) {
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[shardCount];
+        for (int shardId = 0; shardId < shardCount; shardId++) {
+            replies[shardId] = (region == null
+                    ? ask(shards[shardId], message, TIME_OUT)
+                    : ask(region, new GameRoomManager.ShardEnvelope(shardId, message), TIME_OUT))
+                    .toCompletableFuture()
+                    .exceptionally(failure -> null);
+        }
+        return CompletableFuture.allOf(replies).thenApply(done -> {
+            List<Object> results = new ArrayList<>(shardCount);
+            List<Integer> missingShards = new ArrayList<>();
+            for (int shardId = 0; shardId < shardCount; shardId++) {
+                Object reply = replies[shardId].join();
+                if (reply == null) {
+                    missingShards.add(shardId);
+                } else {
+                    results.add(reply);
+                }
+            }
+            return new ShardReplies(results, missingShards);
+        });
+    }
+
+    private static class ShardReplies {
+
+        private final List<Object> replies;
+        private final List<Integer> missingShards;
+
+        private ShardReplies(List<Object> replies, List<Integer> missingShards) {
+            this.replies = replies;
+            this.missingShards = missingShards;
+        }
+
+        List<Object> getReplies() {
+            return replies;
+        }
+
+        List<Integer> getMissingShards() {
+            return missingShards;
+        }
+    }
+
+    private void forward(int shardId, Object message) {
+        if (region == null) {
+            shards[shardId].forward(message, getContext());
+        } else {
+            region.tell(new GameRoomManager.ShardEnvelope(shardId, message), getSender());
+        }
+    }
+
+    private int userShard(String userId) {
+        return Math.floorMod(userId.hashCode(), shardCount);
+    }
+
+    /**
+     * Shard that created the given GameRoom. Malformed ids go to the first shard, which answers them as unknown.
+     */
+    static int shardOf(String gameRoomId, int shardCount) {
+        try {
+            long id = Long.parseLong(gameRoomId);
+            return id > 0 ? (int) ((id - 1) % shardCount) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Each GameRoomManager shard is its own entity and its own Cluster Sharding shard, so shards are the unit of rebalancing.
+     */
+    static class ShardMessageExtractor implements ShardRegion.MessageExtractor {
+
+        @Override
+        public String entityId(Object message) {
+            return message instanceof GameRoomManager.ShardEnvelope
+                    ? String.valueOf(((GameRoomManager.ShardEnvelope) message).getShardId())
+                    : null;
+        }
+
+        @Override
+        public Object entityMessage(Object message) {
+            return ((GameRoomManager.ShardEnvelope) message).getMessage();
+        }
+
+        @Override
+        public String shardId(Object message) {
+            return entityId(message);
+        }
+    }
+
+}
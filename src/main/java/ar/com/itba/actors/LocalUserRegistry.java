@@ -0,0 +1,90 @@
+package ar.com.itba.actors;
+
+import ar.com.itba.collections.ObjectLongMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Registry of the shards of a single node, claims are answered at once. The numeric GameRoom id of every user is
+ * kept in ObjectLongMaps, with no entry objects nor id strings per user; the users are spread over STRIPES of them,
+ * each one locked on its own, so the shards seldom wait for each other.
+ */
+public class LocalUserRegistry implements UserRegistry {
+
+    private final static int STRIPES = 64;
+    private final static CompletionStage<Map<String, String>> CLAIMED = CompletableFuture.completedFuture(Collections.emptyMap());
+
+    @SuppressWarnings("unchecked")
+    private final ObjectLongMap<String>[] stripes = new ObjectLongMap[STRIPES];
+
+    public LocalUserRegistry() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ObjectLongMap<>();
+        }
+    }
+
+    private ObjectLongMap<String> stripe(String userId) {
+        int hash = userId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    @Override
+    public CompletionStage<Map<String, String>> claim(Collection<String> userIds, String gameRoomId) {
+        long id = GameRoomManager.id(gameRoomId);
+        List<String> claimed = new ArrayList<>(userIds.size());
+        Map<String, String> usersAlreadyInGame = null;
+        for (String userId : userIds) {
+            ObjectLongMap<String> stripe = stripe(userId);
+            long currentId;
+            synchronized (stripe) {
+                currentId = stripe.putIfAbsent(userId, id);
+            }
+            if (currentId == ObjectLongMap.MISSING) {
+                claimed.add(userId);
+            } else {
+                if (usersAlreadyInGame == null) {
+                    usersAlreadyInGame = new HashMap<>();
+                }
+                usersAlreadyInGame.put(userId, String.valueOf(currentId));
+            }
+        }
+        if (usersAlreadyInGame == null) {
+            return CLAIMED;
+        }
+        release(claimed, id);
+        return CompletableFuture.completedFuture(usersAlreadyInGame);
+    }
+
+    @Override
+    public void release(Collection<String> userIds, String gameRoomId) {
+        release(userIds, GameRoomManager.id(gameRoomId));
+    }
+
+    private void release(Collection<String> userIds, long id) {
+        for (String userId : userIds) {
+            ObjectLongMap<String> stripe = stripe(userId);
+            synchronized (stripe) {
+                stripe.remove(userId, id);
+            }
+        }
+    }
+
+    @Override
+    public void restore(Collection<String> userIds, String gameRoomId) {
+        long id = GameRoomManager.id(gameRoomId);
+        for (String userId : userIds) {
+            ObjectLongMap<String> stripe = stripe(userId);
+            synchronized (stripe) {
+                stripe.put(userId, id);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+package ar.com.itba.actors;
+
+import static akka.pattern.PatternsCS.ask;
+import static akka.pattern.PatternsCS.pipe;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups the users looking for a game by region and skill, and creates a GameRoom for each group with a single
+ * request to the GameRoomManager. A group is matched as soon as it fills a GameRoom, or once its first user
+ * has waited maxWait with whoever is waiting with it.
+ * A GameRoom created with fewer users than its capacity stays open for its group: the users of the group that
+ * arrive later are seated in it first, until a join to it fails.
+ */
+public class Matchmaker extends AbstractActor {
+
+    // Key of the timeout of the asks to the GameRoomManager in "ask-timeout", which has a default
+    public final static String ASK_TIMEOUT = "matchmaker";
+    // Skills are grouped in fixed bands of this width (0-99, 100-199...), only users of the same band are matched
+    public final static int SKILL_BAND = 100;
+
+    static public Props props(ActorRef gameRoomManager, int capacity, FiniteDuration maxWait) {
+        return Props.create(Matchmaker.class, () -> new Matchmaker(gameRoomManager, capacity, maxWait))
+                .withMailbox(MonitoredMailbox.MAILBOX);
+    }
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final ActorRef gameRoomManager;
+    private final int capacity;
+    private final FiniteDuration maxWait;
+    private final long timeOut;
+    // Waiting users of each group, oldest first
+    private final Map<String, Deque<Waiting>> groups = new HashMap<>();
+    // GameRooms created for each group with free seats, oldest first. One being joined is not in the list until
+    // the join is answered
+    private final Map<String, Deque<OpenGameRoom>> openGameRooms = new HashMap<>();
+    // Group of every waiting user, including the ones of a batch being created
+    private final Map<String, String> waitingUsers = new HashMap<>();
+    private Cancellable cancellable;
+
+    public Matchmaker(ActorRef gameRoomManager, int capacity, FiniteDuration maxWait) {
+        this.gameRoomManager = gameRoomManager;
+        this.capacity = capacity;
+        this.maxWait = maxWait;
+        Config timeouts = getContext().getSystem().settings().config().getConfig("ask-timeout");
+        this.timeOut = timeouts.getDuration(timeouts.hasPath(ASK_TIMEOUT) ? ASK_TIMEOUT : "default", TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        // Partial groups are checked a few times per maxWait
+        FiniteDuration interval = maxWait.div(4);
+        cancellable = getContext().system().scheduler().schedule(interval, interval, getSelf(), "Tick",
+                getContext().dispatcher(), null);
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        super.postStop();
+        cancellable.cancel();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(FindGameRoom.class, message -> findGameRoom(message))
+                .match(BatchCreated.class, message -> batchCreated(message))
+                .match(BatchJoined.class, message -> batchJoined(message))
+                .matchEquals("Tick", message -> tick())
+                .build();
+    }
+
+    private void findGameRoom(FindGameRoom message) {
+        if (waitingUsers.containsKey(message.userId)) {
+            log.debug("Matchmaker(findGameRoom) - User(id: {}) is already waiting", message.userId);
+            getSender().tell(new UserIsAlreadyWaiting(), getSelf());
+            return;
+        }
+        String group = message.region + "/" + Math.floorDiv(message.skill, SKILL_BAND);
+        waitingUsers.put(message.userId, group);
+        Deque<Waiting> waiting = groups.computeIfAbsent(group, key -> new ArrayDeque<>());
+        waiting.addLast(new Waiting(message.userId, getSender(), System.nanoTime()));
+        next(group, waiting);
+    }
+
+    /**
+     * Seats the waiting users of the group in an open GameRoom of the group, or else matches them once they fill
+     * a GameRoom of their own.
+     */
+    private void next(String group, Deque<Waiting> waiting) {
+        if (waiting.isEmpty() || fill(group, waiting)) {
+            return;
+        }
+        if (waiting.size() >= capacity) {
+            match(group, waiting);
+        }
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, Deque<Waiting>>> iterator = groups.entrySet().iterator();
+        List<Map.Entry<String, Deque<Waiting>>> expired = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Deque<Waiting>> entry = iterator.next();
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            } else if (now - entry.getValue().getFirst().since >= maxWait.toNanos()) {
+                expired.add(entry);
+            }
+        }
+        for (Map.Entry<String, Deque<Waiting>> entry : expired) {
+            if (!fill(entry.getKey(), entry.getValue())) {
+                match(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Joins the oldest waiting users of the group to the oldest open GameRoom of the group, as many as it has
+     * free seats. Returns false when the group has no open GameRoom.
+     */
+    private boolean fill(String group, Deque<Waiting> waiting) {
+        Deque<OpenGameRoom> open = openGameRooms.get(group);
+        if (open == null || open.isEmpty()) {
+            return false;
+        }
+        OpenGameRoom gameRoom = open.removeFirst();
+        if (open.isEmpty()) {
+            openGameRooms.remove(group);
+        }
+        List<Waiting> batch = new ArrayList<>(gameRoom.seats);
+        List<String> userIds = new ArrayList<>(gameRoom.seats);
+        while (batch.size() < gameRoom.seats && !waiting.isEmpty()) {
+            Waiting user = waiting.removeFirst();
+            batch.add(user);
+            userIds.add(user.userId);
+        }
+        log.debug("Matchmaker(fill) - Joining users {} of group {} to GameRoom(id: {})", userIds, group, gameRoom.gameRoomId);
+        CompletionStage<BatchJoined> joined = ask(gameRoomManager, new GameRoomManager.JoinGameRoomWithUsers(gameRoom.gameRoomId, userIds), timeOut)
+                .handle((reply, exception) -> new BatchJoined(group, gameRoom, batch, exception == null ? reply : new Status.Failure(exception)));
+        pipe(joined, getContext().dispatcher()).to(getSelf());
+        return true;
+    }
+
+    private void match(String group, Deque<Waiting> waiting) {
+        List<Waiting> batch = new ArrayList<>(capacity);
+        List<String> userIds = new ArrayList<>(capacity);
+        while (batch.size() < capacity && !waiting.isEmpty()) {
+            Waiting user = waiting.removeFirst();
+            batch.add(user);
+            userIds.add(user.userId);
+        }
+        log.debug("Matchmaker(match) - Creating a GameRoom for users {} of group {}", userIds, group);
+        CompletionStage<BatchCreated> created = ask(gameRoomManager, new GameRoomManager.CreateGameRoomWithUsers(userIds, capacity), timeOut)
+                .handle((reply, exception) -> new BatchCreated(group, batch, exception == null ? reply : new Status.Failure(exception)));
+        pipe(created, getContext().dispatcher()).to(getSelf());
+    }
+
+    private void batchCreated(BatchCreated message) {
+        Object reply = message.reply;
+        if (reply instanceof GameRoomManager.GameRoomCreated) {
+            String gameRoomId = ((GameRoomManager.GameRoomCreated) reply).getGameRoomId();
+            found(message.batch, gameRoomId);
+            if (message.batch.size() < capacity) {
+                openGameRooms.computeIfAbsent(message.group, key -> new ArrayDeque<>())
+                        .addLast(new OpenGameRoom(gameRoomId, capacity - message.batch.size()));
+                next(message.group, groups.computeIfAbsent(message.group, key -> new ArrayDeque<>()));
+            }
+        } else if (reply instanceof GameRoomManager.UsersAreAlreadyInGame) {
+            next(message.group, requeue(message.group, message.batch, ((GameRoomManager.UsersAreAlreadyInGame) reply).getUserIds()));
+        } else {
+            log.warning("Matchmaker(batchCreated) - GameRoom not created: {}", reply);
+            failed(message.batch, reply);
+        }
+    }
+
+    private void batchJoined(BatchJoined message) {
+        Object reply = message.reply;
+        OpenGameRoom gameRoom = message.gameRoom;
+        Deque<OpenGameRoom> open = openGameRooms.computeIfAbsent(message.group, key -> new ArrayDeque<>());
+        if (reply instanceof GameRoom.JoinGameRoomSuccessfully) {
+            found(message.batch, gameRoom.gameRoomId);
+            if (gameRoom.seats > message.batch.size()) {
+                open.addFirst(new OpenGameRoom(gameRoom.gameRoomId, gameRoom.seats - message.batch.size()));
+            }
+            next(message.group, groups.computeIfAbsent(message.group, key -> new ArrayDeque<>()));
+        } else if (reply instanceof GameRoomManager.UsersAreAlreadyInGame) {
+            open.addFirst(gameRoom);
+            next(message.group, requeue(message.group, message.batch, ((GameRoomManager.UsersAreAlreadyInGame) reply).getUserIds()));
+        } else if (reply instanceof GameRoom.GameRoomIsFull || reply instanceof GameRoomManager.UnknownGameRoom) {
+            // Taken by other users or deleted meanwhile, the users wait for another GameRoom
+            log.debug("Matchmaker(batchJoined) - GameRoom(id: {}) is no longer open", gameRoom.gameRoomId);
+            next(message.group, requeue(message.group, message.batch, Collections.emptySet()));
+        } else {
+            log.warning("Matchmaker(batchJoined) - Users not joined to GameRoom(id: {}): {}", gameRoom.gameRoomId, reply);
+            failed(message.batch, reply);
+        }
+        if (open.isEmpty()) {
+            openGameRooms.remove(message.group);
+        }
+    }
+
+    private void found(List<Waiting> batch, String gameRoomId) {
+        for (Waiting user : batch) {
+            waitingUsers.remove(user.userId);
+            user.sender.tell(new GameRoomFound(gameRoomId), getSelf());
+        }
+    }
+
+    /**
+     * The users of the batch that are already playing are answered, the rest wait again in front of their group.
+     */
+    private Deque<Waiting> requeue(String group, List<Waiting> batch, Set<String> usersAlreadyInGame) {
+        Deque<Waiting> waiting = groups.computeIfAbsent(group, key -> new ArrayDeque<>());
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            Waiting user = batch.get(i);
+            if (usersAlreadyInGame.contains(user.userId)) {
+                waitingUsers.remove(user.userId);
+                user.sender.tell(new UserIsAlreadyInGame(), getSelf());
+            } else {
+                waiting.addFirst(user);
+            }
+        }
+        return waiting;
+    }
+
+    private void failed(List<Waiting> batch, Object reply) {
+        for (Waiting user : batch) {
+            waitingUsers.remove(user.userId);
+            user.sender.tell(reply instanceof Status.Failure ? reply : new Status.Failure(new IllegalStateException(String.valueOf(reply))), getSelf());
+        }
+    }
+
+    static private class Waiting {
+
+        private final String userId;
+        private final ActorRef sender;
+        private final long since;
+
+        private Waiting(String userId, ActorRef sender, long since) {
+            this.userId = userId;
+            this.sender = sender;
+            this.since = since;
+        }
+    }
+
+    static private class OpenGameRoom {
+
+        private final String gameRoomId;
+        private final int seats;
+
+        private OpenGameRoom(String gameRoomId, int seats) {
+            this.gameRoomId = gameRoomId;
+            this.seats = seats;
+        }
+    }
+
+    static private class BatchJoined {
+
+        private final String group;
+        private final OpenGameRoom gameRoom;
+        private final List<Waiting> batch;
+        private final Object reply;
+
+        private BatchJoined(String group, OpenGameRoom gameRoom, List<Waiting> batch, Object reply) {
+            this.group = group;
+            this.gameRoom = gameRoom;
+            this.batch = batch;
+            this.reply = reply;
+        }
+    }
+
+    static private class BatchCreated {
+
+        private final String group;
+        private final List<Waiting> batch;
+        private final Object reply;
+
+        private BatchCreated(String group, List<Waiting> batch, Object reply) {
+            this.group = group;
+            this.batch = batch;
+            this.reply = reply;
+        }
+    }
+
+    static public class FindGameRoom implements Serializable {
+
+        private final String userId;
+        private final String region;
+        private final int skill;
+
+        public FindGameRoom(String userId, String region, int skill) {
+            this.userId = userId;
+            this.region = region;
+            this.skill = skill;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public int getSkill() {
+            return skill;
+        }
+    }
+
+    static public class GameRoomFound implements Serializable {
+
+        private final String gameRoomId;
+
+        public GameRoomFound(String gameRoomId) {
+            this.gameRoomId = gameRoomId;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+    }
+
+    static public class UserIsAlreadyWaiting implements Serializable { }
+
+    static public class UserIsAlreadyInGame implements Serializable { }
+
+}
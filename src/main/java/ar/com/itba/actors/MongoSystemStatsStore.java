@@ -0,0 +1,172 @@
+package ar.com.itba.actors;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BsonField;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples of the SystemMonitor in the systemStats collection, with their minute and hour rollups in collections of
+ * their own keyed by the start of the bucket. Every document has an "at" date for the TTL indexes.
+ */
+public class MongoSystemStatsStore implements SystemStatsHistory.Store {
+
+    // Rolled up gauges and their path in a raw sample, each kept as its average and maximum in the bucket
+    private final static Map<String, String> GAUGES = new LinkedHashMap<>();
+
+    static {
+        GAUGES.put("freeMemory", "$freeMemory");
+        GAUGES.put("totalMemory", "$totalMemory");
+        GAUGES.put("processCpuLoad", "$cpu.processCpuLoad");
+        GAUGES.put("systemCpuLoad", "$cpu.systemCpuLoad");
+        GAUGES.put("liveThreads", "$threads.live");
+        GAUGES.put("dispatcherQueueDepth", "$dispatcherQueueDepth");
+        GAUGES.put("gameRooms", "$gameRooms");
+        GAUGES.put("users", "$users");
+    }
+
+    // Mongo error of an index created again with other options
+    private final static int INDEX_OPTIONS_CONFLICT = 85;
+
+    private final MongoDatabase database;
+
+    public MongoSystemStatsStore(MongoDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public void insertMany(List<Document> documents) {
+        for (Document document : documents) {
+            document.append("at", new Date(document.getLong("time")));
+        }
+        collection(SystemStatsHistory.Resolution.RAW).insertMany(documents);
+    }
+
+    @Override
+    public void createIndexes(SystemStatsHistory.Resolution resolution, long retentionMillis) {
+        if (resolution == SystemStatsHistory.Resolution.RAW) {
+            collection(resolution).createIndex(Indexes.ascending("time"));
+        }
+        if (retentionMillis == 0) {
+            return;
+        }
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(retentionMillis);
+        try {
+            collection(resolution).createIndex(Indexes.ascending("at"), new IndexOptions().expireAfter(seconds, TimeUnit.SECONDS));
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != INDEX_OPTIONS_CONFLICT) {
+                throw e;
+            }
+            // The retention was changed since the index was created
+            database.runCommand(new Document("collMod", resolution.getCollection())
+                    .append("index", new Document("keyPattern", new Document("at", 1)).append("expireAfterSeconds", seconds)));
+        }
+    }
+
+    @Override
+    public SystemStatsHistory.Cursor find(SystemStatsHistory.Resolution resolution, long from, long to) {
+        String time = timeField(resolution);
+        MongoCursor<Document> cursor = collection(resolution)
+                .find(and(gte(time, from), lt(time, to)))
+                .projection(new Document("_id", 0).append("at", 0))
+                .sort(Sorts.ascending(time))
+                .iterator();
+        return new SystemStatsHistory.Cursor() {
+
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public Document next() {
+                return cursor.next();
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+
+    @Override
+    public Long first(SystemStatsHistory.Resolution resolution) {
+        return time(resolution, Sorts.ascending(timeField(resolution)));
+    }
+
+    @Override
+    public Long last(SystemStatsHistory.Resolution resolution) {
+        return time(resolution, Sorts.descending(timeField(resolution)));
+    }
+
+    private Long time(SystemStatsHistory.Resolution resolution, Bson sort) {
+        Document document = collection(resolution).find().sort(sort).limit(1).first();
+        return document == null ? null : document.getLong("time");
+    }
+
+    @Override
+    public int rollup(SystemStatsHistory.Resolution resolution, long from, long to) {
+        List<BsonField> accumulators = new ArrayList<>();
+        accumulators.add(Accumulators.sum("samples", 1));
+        Document gauges = new Document("_id", 0).append("time", "$_id").append("samples", 1);
+        for (Map.Entry<String, String> gauge : GAUGES.entrySet()) {
+            accumulators.add(Accumulators.avg(gauge.getKey() + "Avg", gauge.getValue()));
+            accumulators.add(Accumulators.max(gauge.getKey() + "Max", gauge.getValue()));
+            gauges.append(gauge.getKey(), new Document("avg", "$" + gauge.getKey() + "Avg").append("max", "$" + gauge.getKey() + "Max"));
+        }
+        // Start of the bucket of each sample
+        Document bucket = new Document("$subtract", Arrays.asList("$time", new Document("$mod", Arrays.asList("$time", resolution.getStepMillis()))));
+        List<Bson> pipeline = Arrays.asList(
+                Aggregates.match(and(gte("time", from), lt("time", to))),
+                Aggregates.group(bucket, accumulators),
+                Aggregates.project(gauges));
+
+        List<WriteModel<Document>> buckets = new ArrayList<>();
+        for (Document document : collection(SystemStatsHistory.Resolution.RAW).aggregate(pipeline).allowDiskUse(true)) {
+            long time = document.getLong("time");
+            document.append("_id", time).append("at", new Date(time));
+            buckets.add(new ReplaceOneModel<>(Filters.eq("_id", time), document, new UpdateOptions().upsert(true)));
+        }
+        if (!buckets.isEmpty()) {
+            collection(resolution).bulkWrite(buckets);
+        }
+        return buckets.size();
+    }
+
+    /**
+     * Rollups are keyed by their time, so they are found by the _id index.
+     */
+    private static String timeField(SystemStatsHistory.Resolution resolution) {
+        return resolution == SystemStatsHistory.Resolution.RAW ? "time" : "_id";
+    }
+
+    private MongoCollection<Document> collection(SystemStatsHistory.Resolution resolution) {
+        return database.getCollection(resolution.getCollection());
+    }
+
+}
@@ -0,0 +1,147 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedDequeBasedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unbounded mailbox that keeps a constant time message count, so the SystemMonitor can sample the
+ * mailbox sizes of the actors using it ("monitored-mailbox" in application.conf). It is deque based so that
+ * actors that stash, like the persistent GameRoomManager, can use it.
+ */
+public class MonitoredMailbox implements MailboxType, ProducesMessageQueue<MonitoredMailbox.CountingMessageQueue> {
+
+    public final static String MAILBOX = "monitored-mailbox";
+
+    private final static Map<String, CountingMessageQueue> queues = new ConcurrentHashMap<>();
+
+    public MonitoredMailbox(ActorSystem.Settings settings, Config config) { }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        CountingMessageQueue queue = new CountingMessageQueue(owner.isDefined() ? owner.get().path().toStringWithoutAddress() : null);
+        if (queue.owner != null) {
+            queues.put(queue.owner, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Current mailbox size of every live actor using this mailbox, by actor path.
+     */
+    public static Map<String, Integer> sizes() {
+        Map<String, Integer> sizes = new HashMap<>();
+        for (Map.Entry<String, CountingMessageQueue> entry : queues.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().numberOfMessages());
+        }
+        return sizes;
+    }
+
+    /**
+     * Messages waiting in the mailboxes of the actor at the given path and of its descendants.
+     */
+    public static int size(String path) {
+        int size = 0;
+        for (Map.Entry<String, CountingMessageQueue> entry : queues.entrySet()) {
+            String owner = entry.getKey();
+            // Whole segments only, /user/GameRoomManager does not count /user/GameRoomManagerBackup
+            if (owner.startsWith(path) && (owner.length() == path.length() || owner.charAt(path.length()) == '/')) {
+                size += entry.getValue().numberOfMessages();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Counts the mailbox of the given actor, which must use this mailbox, in the size of the group. Actors join
+     * from preStart, so that a group follows them wherever they are started, e.g. under the Cluster Sharding
+     * guardian.
+     */
+    public static void join(String group, ActorRef actor) {
+        CountingMessageQueue queue = queues.get(actor.path().toStringWithoutAddress());
+        if (queue != null) {
+            queue.group = group;
+        }
+    }
+
+    /**
+     * Messages waiting in the mailboxes of the live actors of the group.
+     */
+    public static int groupSize(String group) {
+        int size = 0;
+        for (CountingMessageQueue queue : queues.values()) {
+            if (group.equals(queue.group)) {
+                size += queue.numberOfMessages();
+            }
+        }
+        return size;
+    }
+
+    public static class CountingMessageQueue implements MessageQueue, UnboundedDequeBasedMessageQueueSemantics {
+
+        private final String owner;
+        private final Deque<Envelope> queue = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private volatile String group;
+
+        private CountingMessageQueue(String owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            queue.offer(handle);
+            size.incrementAndGet();
+        }
+
+        @Override
+        public void enqueueFirst(ActorRef receiver, Envelope handle) {
+            queue.offerFirst(handle);
+            size.incrementAndGet();
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope envelope = queue.poll();
+            if (envelope != null) {
+                size.decrementAndGet();
+            }
+            return envelope;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return size.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            if (this.owner != null) {
+                queues.remove(this.owner, this);
+            }
+            Envelope envelope;
+            while ((envelope = dequeue()) != null) {
+                deadLetters.enqueue(owner, envelope);
+            }
+        }
+    }
+
+}
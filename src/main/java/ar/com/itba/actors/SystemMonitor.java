@@ -1,32 +1,77 @@
 package ar.com.itba.actors;
 
 import akka.actor.*;
+import akka.dispatch.Dispatcher;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.dispatch.MessageDispatcher;
 import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document;
 import scala.concurrent.duration.Duration;
-
+import scala.concurrent.duration.FiniteDuration;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class SystemMonitor extends AbstractActor {
 
-    static public Props props(Boolean logs) {
-        return Props.create(SystemMonitor.class, () -> new SystemMonitor(logs));
+    private final static int BATCH_SIZE = 100;
+    private final static FiniteDuration FLUSH_INTERVAL = Duration.create(5, TimeUnit.SECONDS);
+    private final static int MAX_BUFFERED = 10000;
+    // getCpuLoad of Java 14, found by reflection since the build targets Java 8, null on older JVMs
+    private final static Method CPU_LOAD = cpuLoadMethod();
+
+    static public Props props(Boolean logs, GameRoomDirectory gameRoomDirectory, FiniteDuration sampleInterval, int windowSize) {
+        return Props.create(SystemMonitor.class, () -> new SystemMonitor(logs, gameRoomDirectory, sampleInterval, windowSize));
     }
 
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
     private Cancellable cancellable;
     private Boolean logs;
-
-    public SystemMonitor(Boolean logs) {
+    private MongoClient client;
+    private ActorRef writer;
+    private ActorRef history;
+    // GameRooms and users of the local shards, counted by the shards themselves so no sample asks them
+    private final GameRoomDirectory gameRoomDirectory;
+    private final FiniteDuration sampleInterval;
+    private final int windowSize;
+    // Last samples, oldest first
+    private final Deque<Document> window = new ArrayDeque<>();
+    private final Map<String, long[]> lastGarbageCollections = new HashMap<>();
+
+    public SystemMonitor(Boolean logs, GameRoomDirectory gameRoomDirectory, FiniteDuration sampleInterval, int windowSize) {
         this.logs = logs;
+        this.gameRoomDirectory = gameRoomDirectory;
+        this.sampleInterval = sampleInterval;
+        this.windowSize = windowSize;
     }
 
     @Override
     public void preStart() throws Exception {
         super.preStart();
+        client = new MongoClient();
+        MongoSystemStatsStore store = new MongoSystemStatsStore(client.getDatabase("TAVJ-AKKA"));
+        writer = getContext().actorOf(SystemStatsWriter.props(store, BATCH_SIZE, FLUSH_INTERVAL, MAX_BUFFERED, logs)
+                .withDispatcher(SystemStatsWriter.BLOCKING_DISPATCHER), "SystemStatsWriter");
+        // A sample may wait in the writer up to a flush interval, and the flush may take as long
+        history = getContext().actorOf(SystemStatsHistory.props(store, sampleInterval, FLUSH_INTERVAL.mul(2)), "SystemStatsHistory");
         ActorSystem system = getContext().system();
         cancellable = system.scheduler().schedule(Duration.Zero(),
-                Duration.create(60, TimeUnit.SECONDS), getSelf(), "Tick",
+                sampleInterval, getSelf(), "Tick",
                 system.dispatcher(), null);
     }
 
@@ -34,86 +79,155 @@ public class SystemMonitor extends AbstractActor {
     public void postStop() throws Exception {
         super.postStop();
         cancellable.cancel();
+        // The writer is already stopped, so its last batch has been written
+        client.close();
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(GetSystemInfo.class, message -> getSystemInfo(message))
+                .match(SystemStatsHistory.GetSystemHistory.class, message -> history.forward(message, getContext()))
                 .matchEquals("Tick", message -> tick())
                 .build();
     }
 
     private void getSystemInfo(GetSystemInfo message) {
-        long totalMemory = Runtime.getRuntime().totalMemory();
-        long maxMemory = Runtime.getRuntime().maxMemory();
-        long freeMemory = Runtime.getRuntime().freeMemory();
-        long cores = Runtime.getRuntime().availableProcessors();
-
-        System.out.println("SystemMonitor(getSystemInfo) - Sending stats");
-        getSender().tell(new SystemStats(totalMemory, maxMemory, freeMemory, cores), getSelf());
+        log.debug("SystemMonitor(getSystemInfo) - Sending stats");
+        Document current = window.isEmpty() ? sample() : window.getLast();
+        getSender().tell(new SystemStats(current, new ArrayList<>(window)), getSelf());
     }
 
     private void tick() {
-        long totalMemory = Runtime.getRuntime().totalMemory();
-        long maxMemory = Runtime.getRuntime().maxMemory();
-        long freeMemory = Runtime.getRuntime().freeMemory();
-        long cores = Runtime.getRuntime().availableProcessors();
+        Document document = sample();
+        window.addLast(document);
+        if (window.size() > windowSize) {
+            window.removeFirst();
+        }
+        // Mongo adds an _id to what it inserts, the window keeps its own copy
+        writer.tell(new Document(document), getSelf());
 
+        if (logs && log.isInfoEnabled()) {
+            log.info("SystemMonitor(tick) - {}", document.toJson());
+        }
+    }
+
+    private Document sample() {
+        Runtime runtime = Runtime.getRuntime();
         Document document = new Document()
                 .append("time", System.currentTimeMillis())
-                .append("totalMemory", totalMemory)
-                .append("maxMemory", maxMemory)
-                .append("freeMemory", freeMemory)
-                .append("cores", cores);
-
-        MongoClient client = new MongoClient();
+                .append("totalMemory", runtime.totalMemory())
+                .append("maxMemory", runtime.maxMemory())
+                .append("freeMemory", runtime.freeMemory())
+                .append("cores", (long) runtime.availableProcessors());
+
+        List<Document> garbageCollectors = new ArrayList<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long count = collector.getCollectionCount();
+            long time = collector.getCollectionTime();
+            long[] last = lastGarbageCollections.put(collector.getName(), new long[] { count, time });
+            garbageCollectors.add(new Document()
+                    .append("name", collector.getName())
+                    .append("collections", count)
+                    .append("pauseMillis", time)
+                    .append("recentCollections", last == null ? count : count - last[0])
+                    .append("recentPauseMillis", last == null ? time : time - last[1]));
+        }
+        document.append("garbageCollectors", garbageCollectors);
+
+        List<Document> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(new Document()
+                        .append("name", pool.getName())
+                        .append("used", pool.getUsage().getUsed())
+                        .append("committed", pool.getUsage().getCommitted())
+                        .append("max", pool.getUsage().getMax()));
+            }
+        }
+        document.append("heapPools", heapPools);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        document.append("threads", new Document()
+                .append("live", threads.getThreadCount())
+                .append("daemon", threads.getDaemonThreadCount())
+                .append("peak", threads.getPeakThreadCount()));
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        Document cpu = new Document("systemLoadAverage", os.getSystemLoadAverage());
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            cpu.append("processCpuLoad", ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad());
+            if (CPU_LOAD != null) {
+                try {
+                    cpu.append("systemCpuLoad", CPU_LOAD.invoke(os));
+                } catch (ReflectiveOperationException e) {
+                    // Left out of the sample, like on the JVMs without it
+                }
+            }
+        }
+        document.append("cpu", cpu);
 
-        client
-            .getDatabase("TAVJ-AKKA")
-            .getCollection("systemStats")
-            .insertOne(document);
+        document.append("dispatcherQueueDepth", queueDepth(getContext().system().dispatchers().defaultGlobalDispatcher()));
+        Document mailboxSizes = new Document();
+        for (Map.Entry<String, Integer> entry : MonitoredMailbox.sizes().entrySet()) {
+            mailboxSizes.append(entry.getKey(), entry.getValue());
+        }
+        document.append("mailboxSizes", mailboxSizes);
+        long gameRooms = gameRoomDirectory.size();
+        long users = gameRoomDirectory.users();
+        document.append("gameRooms", gameRooms)
+                .append("users", users)
+                .append("usersPerGameRoom", gameRooms == 0 ? 0.0 : (double) users / gameRooms);
+        return document;
+    }
 
-        client.close();
+    /**
+     * getCpuLoad of the OperatingSystemMXBean, which replaced the deprecated getSystemCpuLoad, or null when the JVM
+     * does not have it and the system CPU load is left out of the samples.
+     */
+    private static Method cpuLoadMethod() {
+        try {
+            return com.sun.management.OperatingSystemMXBean.class.getMethod("getCpuLoad");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
 
-        if (logs) {
-            System.out.println("SystemMonitor(tick) - Total memory (bytes): " + totalMemory);
-            System.out.println("SystemMonitor(tick) - Maximum memory (bytes): " + maxMemory);
-            System.out.println("SystemMonitor(tick) - Free memory (bytes): " + freeMemory);
-            System.out.println("SystemMonitor(tick) - Available processors (cores): " + cores);
+    /**
+     * Tasks waiting to run on the given dispatcher, or -1 when its executor does not tell.
+     */
+    private static long queueDepth(MessageDispatcher dispatcher) {
+        if (!(dispatcher instanceof Dispatcher)) {
+            return -1;
         }
+        ExecutorService executor = ((Dispatcher) dispatcher).executorService().executor();
+        if (executor instanceof akka.dispatch.forkjoin.ForkJoinPool) {
+            akka.dispatch.forkjoin.ForkJoinPool pool = (akka.dispatch.forkjoin.ForkJoinPool) executor;
+            return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+        } else if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return -1;
     }
 
     static public class GetSystemInfo { }
 
     static public class SystemStats {
 
-        private long totalMemory;
-        private long maxMemory;
-        private long freeMemory;
-        private long cores;
-
-        public SystemStats(long totalMemory, long maxMemory, long freeMemory, long cores) {
-            this.totalMemory = totalMemory;
-            this.maxMemory = maxMemory;
-            this.freeMemory = freeMemory;
-            this.cores = cores;
-        }
-
-        public long getCores() {
-            return cores;
-        }
+        private final Document current;
+        private final List<Document> window;
 
-        public long getFreeMemory() {
-            return freeMemory;
+        public SystemStats(Document current, List<Document> window) {
+            this.current = current;
+            this.window = window;
         }
 
-        public long getMaxMemory() {
-            return maxMemory;
+        public Document getCurrent() {
+            return current;
         }
 
-        public long getTotalMemory() {
-            return totalMemory;
+        public List<Document> getWindow() {
+            return window;
         }
     }
 
@@ -0,0 +1,322 @@
+package ar.com.itba.actors;
+
+import static akka.pattern.PatternsCS.pipe;
+
+import akka.NotUsed;
+import akka.actor.AbstractActor;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
+import org.bson.Document;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Serves the stored samples of the SystemMonitor by time range, and keeps them rolled up by minute and by hour so
+ * that long ranges are answered from a few points. Raw samples and minute rollups expire after the retention
+ * configured in "system-stats"; a bucket is rolled up once the samples that fall in it have all been written.
+ */
+public class SystemStatsHistory extends AbstractActor {
+
+    // Points of a range served at a resolution before falling back to the next coarser one
+    public final static int MAX_POINTS = 1440;
+    // Buckets rolled up by a single aggregation, a backlog is caught up over the next rollups
+    private final static int MAX_ROLLUP_BUCKETS = 1440;
+
+    static public Props props(Store store, FiniteDuration sampleInterval, FiniteDuration writeLag) {
+        return props(store, sampleInterval, writeLag, System::currentTimeMillis);
+    }
+
+    static Props props(Store store, FiniteDuration sampleInterval, FiniteDuration writeLag, LongSupplier clock) {
+        return Props.create(SystemStatsHistory.class, () -> new SystemStatsHistory(store, sampleInterval, writeLag, clock));
+    }
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final Store store;
+    private final long sampleInterval;
+    private final long writeLag;
+    private final LongSupplier clock;
+    private final FiniteDuration rollupInterval;
+    private final Map<Resolution, Long> retentions = new EnumMap<>(Resolution.class);
+    // Start of the next bucket to roll up by resolution, read from the store by the first rollup
+    private final Map<Resolution, Long> rolledUpTo = new EnumMap<>(Resolution.class);
+    private Cancellable cancellable;
+    private boolean indexed = false;
+    private boolean rollingUp = false;
+
+    public SystemStatsHistory(Store store, FiniteDuration sampleInterval, FiniteDuration writeLag, LongSupplier clock) {
+        this.store = store;
+        this.sampleInterval = sampleInterval.toMillis();
+        this.writeLag = writeLag.toMillis();
+        this.clock = clock;
+        Config config = getContext().getSystem().settings().config().getConfig("system-stats");
+        this.rollupInterval = Duration.create(config.getDuration("rollup-interval", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        retentions.put(Resolution.RAW, config.getDuration("raw-retention", TimeUnit.MILLISECONDS));
+        retentions.put(Resolution.MINUTE, config.getDuration("minute-retention", TimeUnit.MILLISECONDS));
+        retentions.put(Resolution.HOUR, 0L);
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        cancellable = getContext().system().scheduler().schedule(rollupInterval, rollupInterval, getSelf(), "Rollup",
+                getContext().dispatcher(), null);
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        super.postStop();
+        cancellable.cancel();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(GetSystemHistory.class, message -> getSystemHistory(message))
+                .matchEquals("Rollup", message -> rollup())
+                .match(RolledUp.class, message -> rolledUp(message))
+                .build();
+    }
+
+    private void getSystemHistory(GetSystemHistory message) {
+        Resolution resolution = message.resolution != null ? message.resolution : resolution(message.from, message.to);
+        log.debug("SystemStatsHistory(getSystemHistory) - Samples from {} to {} by {}", message.from, message.to, resolution.getName());
+        // The cursor is opened when the response is streamed and closed when it ends or the client goes away
+        Source<Document, NotUsed> samples = Source.unfoldResource(
+                () -> store.find(resolution, message.from, message.to),
+                cursor -> cursor.hasNext() ? Optional.of(cursor.next()) : Optional.empty(),
+                Cursor::close);
+        getSender().tell(new SystemHistory(resolution, message.from, message.to, samples), getSelf());
+    }
+
+    /**
+     * Finest resolution still kept at the start of the range that gives at most MAX_POINTS points.
+     */
+    Resolution resolution(long from, long to) {
+        long now = clock.getAsLong();
+        for (Resolution resolution : Resolution.values()) {
+            long retention = retentions.get(resolution);
+            long step = resolution == Resolution.RAW ? sampleInterval : resolution.getStepMillis();
+            if ((retention == 0 || from >= now - retention) && (to - from) / step <= MAX_POINTS) {
+                return resolution;
+            }
+        }
+        return Resolution.HOUR;
+    }
+
+    private void rollup() {
+        if (rollingUp) {
+            return;
+        }
+        rollingUp = true;
+        long now = clock.getAsLong();
+        Executor executor = getContext().system().dispatchers().lookup(SystemStatsWriter.BLOCKING_DISPATCHER);
+        CompletableFuture<Object> result = CompletableFuture.supplyAsync(() -> {
+            if (!indexed) {
+                for (Resolution resolution : Resolution.values()) {
+                    store.createIndexes(resolution, retentions.get(resolution));
+                }
+            }
+            Map<Resolution, Long> upTo = new EnumMap<>(Resolution.class);
+            int buckets = 0;
+            for (Resolution resolution : new Resolution[] { Resolution.MINUTE, Resolution.HOUR }) {
+                long step = resolution.getStepMillis();
+                Long from = rolledUpTo.get(resolution);
+                if (from == null) {
+                    Long last = store.last(resolution);
+                    Long first = last == null ? store.first(Resolution.RAW) : null;
+                    if (last == null && first == null) {
+                        continue;
+                    }
+                    from = last != null ? last + step : Math.floorDiv(first, step) * step;
+                }
+                // Only buckets whose samples have all been written
+                long to = Math.min(Math.floorDiv(now - writeLag, step) * step, from + MAX_ROLLUP_BUCKETS * step);
+                if (to > from) {
+                    buckets += store.rollup(resolution, from, to);
+                    from = to;
+                }
+                upTo.put(resolution, from);
+            }
+            return (Object) new RolledUp(upTo, buckets);
+        }, executor).exceptionally(e -> new RolledUp(null, e));
+        pipe(result, getContext().dispatcher()).to(getSelf());
+    }
+
+    private void rolledUp(RolledUp message) {
+        rollingUp = false;
+        if (message.cause != null) {
+            log.warning("SystemStatsHistory(rolledUp) - Rollup failed: {}", message.cause.getMessage());
+            return;
+        }
+        indexed = true;
+        rolledUpTo.putAll(message.upTo);
+        log.debug("SystemStatsHistory(rolledUp) - {} buckets written, rolled up to {}", message.buckets, rolledUpTo);
+    }
+
+    public enum Resolution {
+
+        RAW("raw", "systemStats", 0),
+        MINUTE("1m", "systemStats_1m", TimeUnit.MINUTES.toMillis(1)),
+        HOUR("1h", "systemStats_1h", TimeUnit.HOURS.toMillis(1));
+
+        private final String name;
+        private final String collection;
+        private final long stepMillis;
+
+        Resolution(String name, String collection, long stepMillis) {
+            this.name = name;
+            this.collection = collection;
+            this.stepMillis = stepMillis;
+        }
+
+        /**
+         * Resolution of the given name, null when there is none.
+         */
+        public static Resolution of(String name) {
+            for (Resolution resolution : values()) {
+                if (resolution.name.equals(name)) {
+                    return resolution;
+                }
+            }
+            return null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCollection() {
+            return collection;
+        }
+
+        public long getStepMillis() {
+            return stepMillis;
+        }
+    }
+
+    /**
+     * Storage of the samples and their rollups, the Mongo collections outside of tests. Every call may block.
+     */
+    public interface Store extends SystemStatsWriter.Sink {
+
+        /**
+         * Indexes the documents of the resolution by time, expiring them after retentionMillis unless it is 0.
+         */
+        void createIndexes(Resolution resolution, long retentionMillis);
+
+        /**
+         * Documents of the resolution with a time in [from, to), oldest first.
+         */
+        Cursor find(Resolution resolution, long from, long to);
+
+        /**
+         * Time of the oldest or newest document of the resolution, null when there is none.
+         */
+        Long first(Resolution resolution);
+
+        Long last(Resolution resolution);
+
+        /**
+         * Aggregates the raw samples in [from, to) into the buckets of the resolution, replacing the buckets already
+         * there, and gives the number of buckets written.
+         */
+        int rollup(Resolution resolution, long from, long to);
+    }
+
+    public interface Cursor extends Iterator<Document>, AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    static private class RolledUp {
+
+        private final Map<Resolution, Long> upTo;
+        private final int buckets;
+        private final Throwable cause;
+
+        private RolledUp(Map<Resolution, Long> upTo, int buckets) {
+            this.upTo = upTo;
+            this.buckets = buckets;
+            this.cause = null;
+        }
+
+        private RolledUp(Map<Resolution, Long> upTo, Throwable cause) {
+            this.upTo = upTo;
+            this.buckets = 0;
+            this.cause = cause;
+        }
+    }
+
+    static public class GetSystemHistory implements Serializable {
+
+        private final long from;
+        private final long to;
+        // Chosen by the length of the range when null
+        private final Resolution resolution;
+
+        public GetSystemHistory(long from, long to, Resolution resolution) {
+            this.from = from;
+            this.to = to;
+            this.resolution = resolution;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        public Resolution getResolution() {
+            return resolution;
+        }
+    }
+
+    static public class SystemHistory {
+
+        private final Resolution resolution;
+        private final long from;
+        private final long to;
+        private final Source<Document, NotUsed> samples;
+
+        public SystemHistory(Resolution resolution, long from, long to, Source<Document, NotUsed> samples) {
+            this.resolution = resolution;
+            this.from = from;
+            this.to = to;
+            this.samples = samples;
+        }
+
+        public Resolution getResolution() {
+            return resolution;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        public Source<Document, NotUsed> getSamples() {
+            return samples;
+        }
+    }
+
+}
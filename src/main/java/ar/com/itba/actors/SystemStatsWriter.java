@@ -0,0 +1,202 @@
+package ar.com.itba.actors;
+
+import static akka.pattern.PatternsCS.pipe;
+
+import akka.actor.AbstractActor;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import org.bson.Document;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers the samples of the SystemMonitor and writes them in batches, off the actor thread.
+ * When the sink is slower than the samples arrive the oldest buffered samples are dropped.
+ */
+public class SystemStatsWriter extends AbstractActor {
+
+    public final static String BLOCKING_DISPATCHER = "blocking-io-dispatcher";
+
+    static public Props props(Sink sink, int batchSize, FiniteDuration flushInterval, int maxBuffered, Boolean logs) {
+        return Props.create(SystemStatsWriter.class, () -> new SystemStatsWriter(sink, batchSize, flushInterval, maxBuffered, logs));
+    }
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final Sink sink;
+    private final int batchSize;
+    private final FiniteDuration flushInterval;
+    private final int maxBuffered;
+    private final Boolean logs;
+    private final Deque<Document> buffer = new ArrayDeque<>();
+    private Cancellable cancellable;
+    private boolean flushing = false;
+    private long samplesWritten = 0;
+    private long samplesLost = 0;
+    private long lastWriteLatency = 0;
+    private long maxWriteLatency = 0;
+
+    public SystemStatsWriter(Sink sink, int batchSize, FiniteDuration flushInterval, int maxBuffered, Boolean logs) {
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.maxBuffered = maxBuffered;
+        this.logs = logs;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        cancellable = getContext().system().scheduler().schedule(flushInterval, flushInterval, getSelf(), "Flush",
+                getContext().dispatcher(), null);
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        super.postStop();
+        cancellable.cancel();
+        if (!buffer.isEmpty()) {
+            try {
+                sink.insertMany(new ArrayList<>(buffer));
+            } catch (Exception e) {
+                log.warning("SystemStatsWriter(postStop) - {} samples lost: {}", buffer.size(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Document.class, document -> write(document))
+                .matchEquals("Flush", message -> flush())
+                .match(Flushed.class, message -> flushed(message))
+                .match(FlushFailed.class, message -> flushFailed(message))
+                .match(GetWriterStats.class, message -> getSender().tell(new WriterStats(samplesWritten, samplesLost, buffer.size(), lastWriteLatency, maxWriteLatency), getSelf()))
+                .build();
+    }
+
+    private void write(Document document) {
+        buffer.addLast(document);
+        if (buffer.size() > maxBuffered) {
+            buffer.removeFirst();
+            samplesLost++;
+        }
+        if (buffer.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (flushing || buffer.isEmpty()) {
+            return;
+        }
+        List<Document> batch = new ArrayList<>(Math.min(batchSize, buffer.size()));
+        while (batch.size() < batchSize && !buffer.isEmpty()) {
+            batch.add(buffer.removeFirst());
+        }
+        flushing = true;
+        Executor executor = getContext().system().dispatchers().lookup(BLOCKING_DISPATCHER);
+        CompletableFuture<Object> result = CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            sink.insertMany(batch);
+            return (Object) new Flushed(batch.size(), System.nanoTime() - start);
+        }, executor).exceptionally(e -> new FlushFailed(batch.size(), e));
+        pipe(result, getContext().dispatcher()).to(getSelf());
+    }
+
+    private void flushed(Flushed message) {
+        flushing = false;
+        samplesWritten += message.count;
+        lastWriteLatency = TimeUnit.NANOSECONDS.toMillis(message.latency);
+        maxWriteLatency = Math.max(maxWriteLatency, lastWriteLatency);
+        if (logs) {
+            log.info("SystemStatsWriter(flushed) - {} samples written in {} ms ({} lost so far)", message.count, lastWriteLatency, samplesLost);
+        }
+        if (buffer.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private void flushFailed(FlushFailed message) {
+        flushing = false;
+        samplesLost += message.count;
+        log.warning("SystemStatsWriter(flushFailed) - {} samples lost: {}", message.count, message.cause.getMessage());
+    }
+
+    /**
+     * Destination of the batches, the systemStats collection outside of tests.
+     */
+    public interface Sink {
+        void insertMany(List<Document> documents);
+    }
+
+    static private class Flushed {
+
+        private final int count;
+        private final long latency;
+
+        private Flushed(int count, long latency) {
+            this.count = count;
+            this.latency = latency;
+        }
+    }
+
+    static private class FlushFailed {
+
+        private final int count;
+        private final Throwable cause;
+
+        private FlushFailed(int count, Throwable cause) {
+            this.count = count;
+            this.cause = cause;
+        }
+    }
+
+    static public class GetWriterStats { }
+
+    static public class WriterStats {
+
+        private final long samplesWritten;
+        private final long samplesLost;
+        private final long samplesBuffered;
+        private final long lastWriteLatency;
+        private final long maxWriteLatency;
+
+        public WriterStats(long samplesWritten, long samplesLost, long samplesBuffered, long lastWriteLatency, long maxWriteLatency) {
+            this.samplesWritten = samplesWritten;
+            this.samplesLost = samplesLost;
+            this.samplesBuffered = samplesBuffered;
+            this.lastWriteLatency = lastWriteLatency;
+            this.maxWriteLatency = maxWriteLatency;
+        }
+
+        public long getSamplesWritten() {
+            return samplesWritten;
+        }
+
+        public long getSamplesLost() {
+            return samplesLost;
+        }
+
+        public long getSamplesBuffered() {
+            return samplesBuffered;
+        }
+
+        public long getLastWriteLatency() {
+            return lastWriteLatency;
+        }
+
+        public long getMaxWriteLatency() {
+            return maxWriteLatency;
+        }
+    }
+
+}
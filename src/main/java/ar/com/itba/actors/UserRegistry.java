@@ -0,0 +1,29 @@
+package ar.com.itba.actors;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * GameRoom of every user that is in one, or reserved for the join of one. It is shared by all the GameRoomManager
+ * shards, wherever they run, so that a user is in at most one GameRoom across the whole system.
+ */
+public interface UserRegistry {
+
+    /**
+     * Claims every user for the GameRoom, or none of them. Completes with the GameRoom of each user that is already
+     * in one, empty when all the users were claimed.
+     */
+    CompletionStage<Map<String, String>> claim(Collection<String> userIds, String gameRoomId);
+
+    /**
+     * Releases the users claimed for the GameRoom. Users claimed for another GameRoom keep their claim.
+     */
+    void release(Collection<String> userIds, String gameRoomId);
+
+    /**
+     * Claims the users of a GameRoom recovered from the journal, which were claimed when they joined it.
+     */
+    void restore(Collection<String> userIds, String gameRoomId);
+
+}
@@ -0,0 +1,226 @@
+package ar.com.itba.actors;
+
+import static akka.pattern.PatternsCS.ask;
+import static akka.pattern.PatternsCS.pipe;
+
+import akka.actor.AbstractActorWithStash;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.cluster.sharding.ClusterSharding$;
+import akka.cluster.sharding.ShardRegion;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import ar.com.itba.collections.ObjectLongMap;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster Sharding entity with the GameRooms of the users of one bucket, the registry of the shards of a cluster.
+ * It is not journaled: the GameRoomManager shards journal the members of their GameRooms, so when a bucket starts,
+ * on any node, it asks every shard for its users of the bucket and keeps the claims waiting meanwhile.
+ */
+public class UserRegistryBucket extends AbstractActorWithStash {
+
+    public final static String TYPE_NAME = "UserRegistry";
+    // Asks of the shards to the buckets, and of the buckets to the shards when they start
+    public final static String ASK_TIMEOUT = "user_registry";
+    // Wait before asking the shards again when some of them did not answer
+    final static FiniteDuration REBUILD_RETRY = Duration.create(1, TimeUnit.SECONDS);
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final int bucket;
+    private final int shardCount;
+    private final long timeOut;
+    // Numeric GameRoom id of each user
+    private final ObjectLongMap<String> usersInGame = new ObjectLongMap<>();
+
+    /**
+     * Props of the buckets of a registry for the given number of GameRoomManager shards, which is also its number of buckets.
+     */
+    static public Props props(int shardCount) {
+        return Props.create(UserRegistryBucket.class, () -> new UserRegistryBucket(shardCount));
+    }
+
+    public UserRegistryBucket(int shardCount) {
+        this.bucket = Integer.parseInt(getSelf().path().name());
+        this.shardCount = shardCount;
+        this.timeOut = timeOut(getContext().getSystem().settings().config());
+    }
+
+    static long timeOut(Config config) {
+        Config timeouts = config.getConfig("ask-timeout");
+        return timeouts.getDuration(timeouts.hasPath(ASK_TIMEOUT) ? ASK_TIMEOUT : "default", TimeUnit.MILLISECONDS);
+    }
+
+    static int bucketOf(String userId, int bucketCount) {
+        return Math.floorMod(userId.hashCode(), bucketCount);
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        rebuild();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(GameRoomManager.UsersInGame.class, message -> rebuilt(message))
+                .match(Status.Failure.class, message -> {
+                    log.warning("UserRegistryBucket(rebuild) - Bucket {} could not ask every GameRoomManager shard: {}", bucket, message.cause().getMessage());
+                    getContext().getSystem().scheduler().scheduleOnce(REBUILD_RETRY, getSelf(), "Rebuild", getContext().dispatcher(), getSelf());
+                })
+                .matchEquals("Rebuild", message -> rebuild())
+                .matchAny(message -> stash())
+                .build();
+    }
+
+    private Receive ready() {
+        return receiveBuilder()
+                .match(Claim.class, message -> claim(message))
+                .match(Release.class, message -> release(message))
+                .build();
+    }
+
+    private void rebuild() {
+        ActorRef gameRoomManagers = ClusterSharding$.MODULE$.get(getContext().getSystem()).shardRegion(GameRoomManagerRouter.TYPE_NAME);
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[shardCount];
+        for (int shardId = 0; shardId < shardCount; shardId++) {
+            replies[shardId] = ask(gameRoomManagers, new GameRoomManager.ShardEnvelope(shardId,
+                    new GameRoomManager.GetUsersInGame(bucket, shardCount)), timeOut).toCompletableFuture();
+        }
+        CompletableFuture<GameRoomManager.UsersInGame> usersInGame = CompletableFuture.allOf(replies).thenApply(done -> {
+            Map<String, String> users = new HashMap<>();
+            for (CompletableFuture<?> reply : replies) {
+                users.putAll(((GameRoomManager.UsersInGame) reply.join()).getUsersInGame());
+            }
+            return new GameRoomManager.UsersInGame(users);
+        });
+        pipe(usersInGame, getContext().dispatcher()).to(getSelf());
+    }
+
+    private void rebuilt(GameRoomManager.UsersInGame message) {
+        message.getUsersInGame().forEach((userId, gameRoomId) -> usersInGame.put(userId, GameRoomManager.id(gameRoomId)));
+        log.debug("UserRegistryBucket(rebuilt) - Bucket {} has {} users in a GameRoom", bucket, usersInGame.size());
+        getContext().become(ready());
+        unstashAll();
+    }
+
+    private void claim(Claim message) {
+        long id = GameRoomManager.id(message.gameRoomId);
+        List<String> claimed = new ArrayList<>(message.userIds.size());
+        Map<String, String> usersAlreadyInGame = new HashMap<>();
+        for (String userId : message.userIds) {
+            long currentId = usersInGame.putIfAbsent(userId, id);
+            if (currentId == ObjectLongMap.MISSING) {
+                claimed.add(userId);
+            } else {
+                usersAlreadyInGame.put(userId, String.valueOf(currentId));
+            }
+        }
+        if (!usersAlreadyInGame.isEmpty()) {
+            for (String userId : claimed) {
+                usersInGame.remove(userId);
+            }
+        }
+        getSender().tell(new Claimed(usersAlreadyInGame), getSelf());
+    }
+
+    private void release(Release message) {
+        long id = GameRoomManager.id(message.gameRoomId);
+        for (String userId : message.userIds) {
+            usersInGame.remove(userId, id);
+        }
+    }
+
+    /**
+     * Message for the bucket of its users.
+     */
+    static abstract public class BucketMessage implements Serializable {
+
+        private final int bucket;
+        protected final List<String> userIds;
+        protected final String gameRoomId;
+
+        BucketMessage(int bucket, List<String> userIds, String gameRoomId) {
+            this.bucket = bucket;
+            this.userIds = userIds;
+            this.gameRoomId = gameRoomId;
+        }
+
+        public int getBucket() {
+            return bucket;
+        }
+
+        public List<String> getUserIds() {
+            return userIds;
+        }
+
+        public String getGameRoomId() {
+            return gameRoomId;
+        }
+    }
+
+    /**
+     * Claims every user for the GameRoom, or none of them, answered with Claimed.
+     */
+    static public class Claim extends BucketMessage {
+
+        public Claim(int bucket, List<String> userIds, String gameRoomId) {
+            super(bucket, userIds, gameRoomId);
+        }
+    }
+
+    static public class Claimed implements Serializable {
+
+        // Empty when every user was claimed
+        private final Map<String, String> usersAlreadyInGame;
+
+        public Claimed(Map<String, String> usersAlreadyInGame) {
+            this.usersAlreadyInGame = usersAlreadyInGame;
+        }
+
+        public Map<String, String> getUsersAlreadyInGame() {
+            return usersAlreadyInGame;
+        }
+    }
+
+    static public class Release extends BucketMessage {
+
+        public Release(int bucket, List<String> userIds, String gameRoomId) {
+            super(bucket, userIds, gameRoomId);
+        }
+    }
+
+    /**
+     * Each bucket is its own entity and its own Cluster Sharding shard, like the GameRoomManager shards.
+     */
+    static class BucketMessageExtractor implements ShardRegion.MessageExtractor {
+
+        @Override
+        public String entityId(Object message) {
+            return message instanceof BucketMessage ? String.valueOf(((BucketMessage) message).getBucket()) : null;
+        }
+
+        @Override
+        public Object entityMessage(Object message) {
+            return message;
+        }
+
+        @Override
+        public String shardId(Object message) {
+            return entityId(message);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package ar.com.itba.admission;
+
+/**
+ * Checks a request goes through before it is asked to the GameRoomManager, the same for the HTTP routes and the
+ * TCP server: it is shed while the GameRoomManager is overloaded, and limited by the bucket of its user, when it
+ * has one, and then by the bucket of the whole server. A request refused by the bucket of the server gives back the
+ * token of its user, so users are not charged for the requests the server could not take.
+ */
+public class Admission {
+
+    private final AdmissionControl control;
+    private final TokenBuckets userBuckets;
+    private final TokenBuckets globalBucket;
+
+    public Admission(AdmissionControl control, TokenBuckets userBuckets, TokenBuckets globalBucket) {
+        this.control = control;
+        this.userBuckets = userBuckets;
+        this.globalBucket = globalBucket;
+    }
+
+    public AdmissionControl getControl() {
+        return control;
+    }
+
+    /**
+     * Verdict for a request of the given user, null when the request is not made for a user.
+     */
+    public Verdict admit(String userId) {
+        if (control.overloaded()) {
+            return new Verdict(Outcome.OVERLOADED, 1_000_000_000L);
+        }
+        long wait = userId != null ? userBuckets.tryAcquire(userId) : 0;
+        if (wait > 0) {
+            return new Verdict(Outcome.USER_RATE_EXCEEDED, wait);
+        }
+        wait = globalBucket.tryAcquire("");
+        if (wait > 0) {
+            if (userId != null) {
+                userBuckets.release(userId);
+            }
+            return new Verdict(Outcome.RATE_EXCEEDED, wait);
+        }
+        return Verdict.ADMITTED;
+    }
+
+    public enum Outcome {
+        ADMITTED, OVERLOADED, USER_RATE_EXCEEDED, RATE_EXCEEDED
+    }
+
+    public static class Verdict {
+
+        private final static Verdict ADMITTED = new Verdict(Outcome.ADMITTED, 0);
+
+        private final Outcome outcome;
+        // Nanoseconds to wait before trying again
+        private final long waitNanos;
+
+        private Verdict(Outcome outcome, long waitNanos) {
+            this.outcome = outcome;
+            this.waitNanos = waitNanos;
+        }
+
+        public boolean isAdmitted() {
+            return outcome == Outcome.ADMITTED;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package ar.com.itba.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Load shedding in front of an actor: requests are rejected while its mailbox holds more than maxDepth messages
+ * or while the moving average of its ask latency is above maxLatency. Without new latencies for a RECOVERY
+ * period the average is ignored, so that some requests get through to measure it again.
+ */
+public class AdmissionControl {
+
+    private final static long RECOVERY = 1_000_000_000L;
+    // Mailbox depths are read again after this long, walking the mailboxes on every request would cost too much
+    private final static long DEPTH_SAMPLE = 10_000_000L;
+
+    private final IntSupplier mailboxDepth;
+    private final int maxDepth;
+    private final long maxLatency;
+    private final LongSupplier clock;
+    private final AtomicLong averageLatency = new AtomicLong();
+    private volatile long lastLatencyAt;
+    private volatile int depth;
+    private volatile long depthSampledAt;
+
+    public AdmissionControl(IntSupplier mailboxDepth, int maxDepth, long maxLatencyNanos) {
+        this(mailboxDepth, maxDepth, maxLatencyNanos, System::nanoTime);
+    }
+
+    AdmissionControl(IntSupplier mailboxDepth, int maxDepth, long maxLatencyNanos, LongSupplier clock) {
+        this.mailboxDepth = mailboxDepth;
+        this.maxDepth = maxDepth;
+        this.maxLatency = maxLatencyNanos;
+        this.clock = clock;
+        this.depthSampledAt = clock.getAsLong() - DEPTH_SAMPLE;
+        this.lastLatencyAt = clock.getAsLong() - RECOVERY;
+    }
+
+    /**
+     * Adds a latency to the moving average, where it weighs an eighth.
+     */
+    public void recordLatency(long nanos) {
+        long average;
+        do {
+            average = averageLatency.get();
+        } while (!averageLatency.compareAndSet(average, average + (nanos - average) / 8));
+        lastLatencyAt = clock.getAsLong();
+    }
+
+    public boolean overloaded() {
+        long now = clock.getAsLong();
+        if (now - depthSampledAt >= DEPTH_SAMPLE) {
+            depth = mailboxDepth.getAsInt();
+            depthSampledAt = now;
+        }
+        return depth > maxDepth || (averageLatency.get() > maxLatency && now - lastLatencyAt < RECOVERY);
+    }
+
+}
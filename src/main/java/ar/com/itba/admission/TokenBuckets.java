@@ -0,0 +1,82 @@
+package ar.com.itba.admission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * One token bucket per key, refilled at rate tokens per second up to burst tokens. Each bucket is a single atomic
+ * time (the generic cell rate algorithm): the time at which it would be full again, so taking a token is one
+ * compare and set and a full bucket is the same as a missing one. The buckets live in a ConcurrentHashMap, whose
+ * bins keep unrelated keys from contending, and full ones are dropped at most once per second when there are
+ * more than maxKeys of them.
+ */
+public class TokenBuckets {
+
+    private final static long SWEEP_INTERVAL = 1_000_000_000L;
+
+    private final long interval;
+    private final long tolerance;
+    private final int maxKeys;
+    private final LongSupplier clock;
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    public TokenBuckets(double rate, int burst, int maxKeys) {
+        this(rate, burst, maxKeys, System::nanoTime);
+    }
+
+    TokenBuckets(double rate, int burst, int maxKeys, LongSupplier clock) {
+        this.interval = (long) (1e9 / rate);
+        this.tolerance = interval * (burst - 1);
+        this.maxKeys = maxKeys;
+        this.clock = clock;
+        lastSweep.set(clock.getAsLong());
+    }
+
+    /**
+     * Takes a token of the bucket of the key. Returns 0 when there was one, or else the nanoseconds until there is.
+     */
+    public long tryAcquire(String key) {
+        long now = clock.getAsLong();
+        AtomicLong full = buckets.get(key);
+        if (full == null) {
+            sweepIfNeeded(now);
+            full = buckets.computeIfAbsent(key, newKey -> new AtomicLong(now));
+        }
+        while (true) {
+            long current = full.get();
+            long start = current - now > 0 ? current : now;
+            long wait = start - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (full.compareAndSet(current, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken from the bucket of the key, for a request refused by a later check.
+     */
+    public void release(String key) {
+        AtomicLong full = buckets.get(key);
+        if (full != null) {
+            full.addAndGet(-interval);
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    private void sweepIfNeeded(long now) {
+        long last = lastSweep.get();
+        if (buckets.size() >= maxKeys && now - last >= SWEEP_INTERVAL && lastSweep.compareAndSet(last, now)) {
+            buckets.values().removeIf(full -> full.get() - now <= 0);
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package ar.com.itba.collections;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys to non null values without boxing the keys. Entries are kept in parallel arrays in the order
+ * they were added, and found through an open addressing table (linear probing, at most half full) of their
+ * positions. A removed entry keeps its place, with a null value, until the arrays are compacted, and is used
+ * again if its key is added back.
+ * When the keys are added in increasing order, as the GameRoom ids of a shard, forEachAfter walks them from a
+ * given key on like a sorted map.
+ */
+public class LongObjectMap<V> {
+
+    private final static int FREE = -1;
+    private final static int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private Object[] values;
+    // Entries used, removed ones included
+    private int entries = 0;
+    private int size = 0;
+    // Positions of the entries, FREE for empty slots
+    private int[] table;
+    private boolean ascending = true;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize - 1)) << 1));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int entry = table[find(key)];
+        return entry == FREE ? null : (V) values[entry];
+    }
+
+    public V getOrDefault(long key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Sets the value of the key, returning its previous value or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("LongObjectMap values can not be null");
+        }
+        int slot = find(key);
+        int entry = table[slot];
+        if (entry != FREE) {
+            V previous = (V) values[entry];
+            values[entry] = value;
+            if (previous == null) {
+                size++;
+            }
+            return previous;
+        }
+        if (entries == keys.length) {
+            // Compacts the removed entries away, and grows when at least half of the entries are live
+            allocate(size >= keys.length / 2 ? keys.length * 2 : keys.length);
+            slot = find(key);
+        }
+        if (entries > 0 && key <= keys[entries - 1]) {
+            ascending = false;
+        }
+        keys[entries] = key;
+        values[entries] = value;
+        table[slot] = entries++;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the key, returning its value or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int entry = table[find(key)];
+        if (entry == FREE || values[entry] == null) {
+            return null;
+        }
+        V previous = (V) values[entry];
+        values[entry] = null;
+        size--;
+        return previous;
+    }
+
+    /**
+     * Removes the key only while it has the given value.
+     */
+    public boolean remove(long key, V value) {
+        int entry = table[find(key)];
+        if (entry == FREE || values[entry] == null || !values[entry].equals(value)) {
+            return false;
+        }
+        values[entry] = null;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Visits the entries in the order they were added, while the visitor returns true.
+     */
+    public void forEach(Visitor<V> visitor) {
+        visit(0, visitor);
+    }
+
+    /**
+     * Visits the entries whose key is greater than the given one, in increasing order, while the visitor returns
+     * true. Only for maps whose keys were added in increasing order.
+     */
+    public void forEachAfter(long after, Visitor<V> visitor) {
+        if (!ascending) {
+            throw new IllegalStateException("Keys were not added in increasing order");
+        }
+        int from = Arrays.binarySearch(keys, 0, entries, after);
+        visit(from >= 0 ? from + 1 : -from - 1, visitor);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void visit(int from, Visitor<V> visitor) {
+        for (int i = from; i < entries; i++) {
+            if (values[i] != null && !visitor.visit(keys[i], (V) values[i])) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Slot of the table holding the entry of the key, or the free slot where it would go.
+     */
+    private int find(long key) {
+        int mask = table.length - 1;
+        int slot = mix(key) & mask;
+        while (table[slot] != FREE && keys[table[slot]] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int oldEntries = entries;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        table = new int[capacity * 2];
+        Arrays.fill(table, FREE);
+        entries = 0;
+        size = 0;
+        ascending = true;
+        for (int i = 0; i < oldEntries; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    public interface Visitor<V> {
+        boolean visit(long key, V value);
+    }
+
+}
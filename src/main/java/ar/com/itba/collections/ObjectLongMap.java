@@ -0,0 +1,164 @@
+package ar.com.itba.collections;
+
+/**
+ * Map from non null keys to long values without boxing the values nor allocating an entry per key. Keys and values
+ * are kept in parallel arrays used as an open addressing table (linear probing, at most half full). A removed
+ * entry is filled by shifting back the entries probed after it, so removals leave no tombstones behind.
+ * MISSING stands for an absent value, and can not be a value itself.
+ */
+public class ObjectLongMap<K> {
+
+    public final static long MISSING = Long.MIN_VALUE;
+    private final static int MIN_CAPACITY = 16;
+
+    private Object[] keys;
+    private long[] values;
+    private int size = 0;
+
+    public ObjectLongMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    public ObjectLongMap(int expectedSize) {
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize - 1)) << 2));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Value of the key, or MISSING.
+     */
+    public long get(K key) {
+        int slot = find(key);
+        return keys[slot] == null ? MISSING : values[slot];
+    }
+
+    /**
+     * Sets the value of the key, returning its previous value or MISSING.
+     */
+    public long put(K key, long value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Sets the value of the key unless it has one, returning that value or MISSING.
+     */
+    public long putIfAbsent(K key, long value) {
+        return put(key, value, false);
+    }
+
+    private long put(K key, long value, boolean replace) {
+        if (value == MISSING) {
+            throw new IllegalArgumentException("ObjectLongMap values can not be MISSING");
+        }
+        int slot = find(key);
+        if (keys[slot] != null) {
+            long previous = values[slot];
+            if (replace) {
+                values[slot] = value;
+            }
+            return previous;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length / 2) {
+            allocate(keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    /**
+     * Removes the key, returning its value or MISSING.
+     */
+    public long remove(K key) {
+        int slot = find(key);
+        if (keys[slot] == null) {
+            return MISSING;
+        }
+        long previous = values[slot];
+        delete(slot);
+        return previous;
+    }
+
+    /**
+     * Removes the key only while it has the given value.
+     */
+    public boolean remove(K key, long value) {
+        int slot = find(key);
+        if (keys[slot] == null || values[slot] != value) {
+            return false;
+        }
+        delete(slot);
+        return true;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Slot of the key, or the empty slot where it would go.
+     */
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        int slot = mix(key.hashCode()) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties the slot, moving into it the next entry of the run that would no longer be found past it, and so on
+     * with the slot that entry leaves.
+     */
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == null) {
+                break;
+            }
+            int home = mix(keys[next].hashCode()) & mask;
+            // Whether home is outside the cyclic range (gap, next], so the entry is probed through the gap
+            boolean movable = gap <= next ? (home <= gap || home > next) : (home <= gap && home > next);
+            if (movable) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = null;
+        size--;
+    }
+
+    private static int mix(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        Object[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new Object[capacity];
+        values = new long[capacity];
+        size = 0;
+        if (oldKeys != null) {
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put((K) oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+
+}
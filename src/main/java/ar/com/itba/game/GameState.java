@@ -0,0 +1,98 @@
+package ar.com.itba.game;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Server side simulation of a GameRoom: every player moves inside the board at the velocity of its last input.
+ * Only the players that moved since the last delta are written to the next one.
+ */
+public class GameState {
+
+    public final static int BOARD_SIZE = 1000;
+    public final static int MAX_SPEED = 10;
+
+    private final Map<String, Player> players = new HashMap<>();
+    private final Set<String> moved = new LinkedHashSet<>();
+
+    public void addPlayer(String userId) {
+        players.putIfAbsent(userId, new Player());
+    }
+
+    public void removePlayer(String userId) {
+        players.remove(userId);
+        moved.remove(userId);
+    }
+
+    public void setVelocity(String userId, int dx, int dy) {
+        Player player = players.get(userId);
+        if (player != null) {
+            player.dx = clamp(dx, -MAX_SPEED, MAX_SPEED);
+            player.dy = clamp(dy, -MAX_SPEED, MAX_SPEED);
+        }
+    }
+
+    /**
+     * Advances the simulation one tick.
+     */
+    public void step() {
+        for (Map.Entry<String, Player> entry : players.entrySet()) {
+            Player player = entry.getValue();
+            if (player.dx == 0 && player.dy == 0) {
+                continue;
+            }
+            int x = clamp(player.x + player.dx, 0, BOARD_SIZE);
+            int y = clamp(player.y + player.dy, 0, BOARD_SIZE);
+            if (x != player.x || y != player.y) {
+                player.x = x;
+                player.y = y;
+                moved.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Positions of the players that moved since the last delta, or null when none did.
+     */
+    public String delta(long tick) {
+        if (moved.isEmpty()) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder("Tick(").append(tick).append(")");
+        for (String userId : moved) {
+            append(text, userId, players.get(userId));
+        }
+        moved.clear();
+        return text.toString();
+    }
+
+    /**
+     * Positions of every player, for the connections that just joined.
+     */
+    public String snapshot(long tick) {
+        StringBuilder text = new StringBuilder("Tick(").append(tick).append(")");
+        for (Map.Entry<String, Player> entry : players.entrySet()) {
+            append(text, entry.getKey(), entry.getValue());
+        }
+        return text.toString();
+    }
+
+    private static void append(StringBuilder text, String userId, Player player) {
+        text.append(" User(id: ").append(userId).append(") at (").append(player.x).append(", ").append(player.y).append(")");
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    static private class Player {
+
+        private int x = 0;
+        private int y = 0;
+        private int dx = 0;
+        private int dy = 0;
+    }
+
+}
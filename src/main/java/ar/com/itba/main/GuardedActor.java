@@ -0,0 +1,68 @@
+package ar.com.itba.main;
+
+import akka.actor.ActorRef;
+import akka.actor.Scheduler;
+import akka.pattern.CircuitBreaker;
+import akka.pattern.PatternsCS;
+import ar.com.itba.metrics.LatencyHistogram;
+import ar.com.itba.metrics.Metrics;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks an actor through a CircuitBreaker: after max-failures consecutive failed or timed out asks every ask fails
+ * at once with a CircuitBreakerOpenException, instead of waiting for its timeout, until one trial ask succeeds
+ * reset-timeout later. Latencies go to the ask histogram of the target and state changes to its breaker metrics.
+ */
+public class GuardedActor {
+
+    private final ActorRef actor;
+    private final CircuitBreaker breaker;
+    private final LatencyHistogram askLatency;
+
+    /**
+     * Breaker configured by the given section (max-failures, call-timeout and reset-timeout).
+     */
+    public static GuardedActor create(Scheduler scheduler, String target, ActorRef actor, Config config) {
+        return new GuardedActor(scheduler, target, actor, config.getInt("max-failures"),
+                duration(config, "call-timeout"), duration(config, "reset-timeout"));
+    }
+
+    public GuardedActor(Scheduler scheduler, String target, ActorRef actor, int maxFailures, FiniteDuration callTimeout, FiniteDuration resetTimeout) {
+        this.actor = actor;
+        this.askLatency = Metrics.ask(target);
+        Metrics.BreakerMetrics metrics = Metrics.breaker(target);
+        this.breaker = CircuitBreaker.create(scheduler, maxFailures, callTimeout, resetTimeout)
+                .addOnOpenListener(() -> metrics.transitioned(Metrics.BreakerState.OPEN))
+                .addOnHalfOpenListener(() -> metrics.transitioned(Metrics.BreakerState.HALF_OPEN))
+                .addOnCloseListener(() -> metrics.transitioned(Metrics.BreakerState.CLOSED));
+    }
+
+    public ActorRef getActor() {
+        return actor;
+    }
+
+    public boolean isOpen() {
+        return breaker.isOpen();
+    }
+
+    /**
+     * Reply of the actor, failed with an AskTimeoutException after timeOut milliseconds or with a
+     * CircuitBreakerOpenException right away while the breaker is open.
+     */
+    public CompletionStage<Object> ask(Object request, long timeOut) {
+        return breaker.callWithCircuitBreakerCS(() -> {
+            long start = System.nanoTime();
+            return PatternsCS.ask(actor, request, timeOut).whenComplete((reply, exception) -> askLatency.recordNanos(System.nanoTime() - start));
+        });
+    }
+
+    private static FiniteDuration duration(Config config, String path) {
+        return Duration.create(config.getDuration(path, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -1,29 +1,88 @@
 package ar.com.itba.main;
 
-import static akka.pattern.PatternsCS.ask;
-
+import akka.Done;
 import akka.NotUsed;
 import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
 import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.actor.AddressFromURIString;
+import akka.actor.Cancellable;
+import akka.actor.CoordinatedShutdown;
+import akka.actor.CoordinatedShutdown$;
+import akka.actor.Props;
+import akka.cluster.Cluster$;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.pattern.AskTimeoutException;
+import akka.pattern.CircuitBreakerOpenException;
+import akka.persistence.journal.leveldb.SharedLeveldbJournal;
+import akka.persistence.journal.leveldb.SharedLeveldbStore;
 import akka.http.javadsl.ConnectHttp;
 import akka.http.javadsl.Http;
+import akka.http.javadsl.Http$;
 import akka.http.javadsl.IncomingConnection;
 import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.ResponseEntity;
+import akka.http.javadsl.model.StatusCode;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.Connection;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.model.ws.TextMessage;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
 import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
+import akka.stream.OverflowStrategy;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
+import akka.stream.javadsl.Tcp;
+import akka.util.ByteString;
 import ar.com.itba.actors.GameRoom;
+import ar.com.itba.actors.GameRoomDirectory;
 import ar.com.itba.actors.GameRoomManager;
+import ar.com.itba.actors.GameRoomManagerRouter;
+import ar.com.itba.actors.Matchmaker;
+import ar.com.itba.actors.MonitoredMailbox;
 import ar.com.itba.actors.SystemMonitor;
+import ar.com.itba.actors.SystemStatsHistory;
+import ar.com.itba.admission.Admission;
+import ar.com.itba.admission.AdmissionControl;
+import ar.com.itba.admission.TokenBuckets;
+import ar.com.itba.metrics.Metrics;
+import ar.com.itba.metrics.RouteTimer;
+import ar.com.itba.tcp.TcpServer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,203 +90,830 @@ public class Main extends AllDirectives {
 
     public static final String HOST = "localhost";
     public static final int PORT = 8080;
-    public static final int TIME_OUT = 10000;
+    public static final int GAME_ROOM_MANAGER_SHARDS = Runtime.getRuntime().availableProcessors();
+    public static final FiniteDuration SYSTEM_MONITOR_INTERVAL = Duration.create(250, TimeUnit.MILLISECONDS);
+    // One minute of samples
+    public static final int SYSTEM_MONITOR_WINDOW = 240;
+    // Fixed for the whole cluster, since GameRoom ids tell which shard owns them
+    public static final int CLUSTER_SHARDS = 100;
+    // Longest wait before the users looking for a game are matched with fewer players than a full GameRoom
+    public static final FiniteDuration MATCHMAKER_MAX_WAIT = Duration.create(3, TimeUnit.SECONDS);
+    // Outgoing messages buffered per WebSocket, the oldest ones are dropped when a client does not keep up
+    public static final int WEB_SOCKET_BUFFER = 64;
+    // GameRooms listed per page when the request does not say, and at most
+    public static final int GAME_ROOM_PAGE = 100;
+    public static final int MAX_GAME_ROOM_PAGE = 1000;
+    // Rendered pages of the GameRoom list are served again for this long
+    public static final FiniteDuration GAME_ROOM_LIST_TTL = Duration.create(1, TimeUnit.SECONDS);
+    public static final int GAME_ROOM_LIST_CACHE_SIZE = 1000;
+    // GameRooms per chunk of a streamed list
+    public static final int GAME_ROOM_LIST_CHUNK = 100;
+    // Range of the system history when the request does not give its start, and samples per chunk of the response
+    public static final FiniteDuration SYSTEM_HISTORY_RANGE = Duration.create(1, TimeUnit.HOURS);
+    public static final int SYSTEM_HISTORY_CHUNK = 100;
+    // Dispatcher of the HTTP and TCP streams ("http-dispatcher" in application.conf)
+    public static final String HTTP_DISPATCHER = "http-dispatcher";
+    // How often the shutdown checks whether the requests in progress have been answered
+    public static final FiniteDuration DRAIN_CHECK_INTERVAL = Duration.create(50, TimeUnit.MILLISECONDS);
+    // Name of the shared LevelDB journal store on the first seed node, and how long its lookup waits before retrying
+    public static final String SHARED_JOURNAL_STORE = "store";
+    public static final FiniteDuration SHARED_JOURNAL_LOOKUP = Duration.create(1, TimeUnit.SECONDS);
+    // The binary protocol is served on the port next to the HTTP one
+    public static final int TCP_PORT_OFFSET = 1;
+    // Requests of a TCP connection in progress at once
+    public static final int TCP_PIPELINING = 64;
+    // Requests per second (and burst) admitted for each user and for the whole server
+    public static final double USER_RATE = 5;
+    public static final int USER_BURST = 10;
+    public static final double GLOBAL_RATE = 5000;
+    public static final int GLOBAL_BURST = 10000;
+    // Users whose buckets are kept before dropping the full ones
+    public static final int MAX_RATE_LIMITED_USERS = 100000;
+    // Requests are shed while the GameRoomManager has more messages waiting or answers slower than this
+    public static final int SHED_MAILBOX_DEPTH = 10000;
+    public static final FiniteDuration SHED_ASK_LATENCY = Duration.create(1, TimeUnit.SECONDS);
+
+    private static final Metrics.RouteMetrics CREATE_GAME_ROOM = Metrics.route("create_gameRoom");
+    private static final Metrics.RouteMetrics DELETE_GAME_ROOM = Metrics.route("delete_gameRoom");
+    private static final Metrics.RouteMetrics JOIN_GAME_ROOM = Metrics.route("join_gameRoom");
+    private static final Metrics.RouteMetrics LEAVE_GAME_ROOM = Metrics.route("leave_gameRoom");
+    private static final Metrics.RouteMetrics JOIN_GAME_ROOM_USERS = Metrics.route("join_gameRoom_users");
+    private static final Metrics.RouteMetrics LEAVE_GAME_ROOM_USERS = Metrics.route("leave_gameRoom_users");
+    private static final Metrics.RouteMetrics GET_SYSTEM = Metrics.route("get_system");
+    private static final Metrics.RouteMetrics GET_SYSTEM_HISTORY = Metrics.route("get_system_history");
+    private static final Metrics.RouteMetrics GET_GAME_ROOM_USERS = Metrics.route("users_gameRoom");
+    private static final Metrics.RouteMetrics LIST_GAME_ROOM = Metrics.route("list_gameRoom");
+    private static final Metrics.RouteMetrics WS_GAME_ROOM = Metrics.route("ws_gameRoom");
+    private static final Metrics.RouteMetrics FIND_GAME_ROOM = Metrics.route("find_gameRoom");
+    private static final Metrics.RouteMetrics GAME_ROOM_ADDRESS = Metrics.route("gameRoom_address");
+
+    private static final TtlCache<String, CompletionStage<Object>> gameRoomListings = new TtlCache<>(GAME_ROOM_LIST_TTL.toNanos(), GAME_ROOM_LIST_CACHE_SIZE);
+
+    // Shared by the HTTP routes and the TCP server
+    private static final Admission admission = new Admission(
+            new AdmissionControl(() -> MonitoredMailbox.groupSize(GameRoomManager.MAILBOX_GROUP), SHED_MAILBOX_DEPTH, SHED_ASK_LATENCY.toNanos()),
+            new TokenBuckets(USER_RATE, USER_BURST, MAX_RATE_LIMITED_USERS),
+            new TokenBuckets(GLOBAL_RATE, GLOBAL_BURST, 1));
+
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+    // HTTP requests received and not answered yet, and whether the server is shutting down
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static volatile boolean draining = false;
 
     private static ActorSystem actorSystem;
     private static ActorRef gameRoomManager;
     private static ActorRef systemMonitor;
+    private static ActorRef matchmaker;
+    private static final GameRoomDirectory gameRoomDirectory = new GameRoomDirectory();
+    // Whether the shards are spread over a cluster, so that the directory only has the GameRooms of some of them
+    private static boolean cluster = false;
+    // The actors asked by the routes, behind their circuit breakers
+    private static GuardedActor guardedGameRoomManager;
+    private static GuardedActor guardedSystemMonitor;
+    private static GuardedActor guardedMatchmaker;
+    private static final Map<String, Long> askTimeouts = new ConcurrentHashMap<>();
 
     private static Boolean systemLogs = false;
 
+    private final LoggingAdapter log;
+
+    public Main(LoggingAdapter log) {
+        this.log = log;
+    }
+
     public static void main( String[] args ) throws IOException {
         // Disable Mongo logs
         Logger mongoLogger = Logger.getLogger("org.mongodb.driver");
         mongoLogger.setLevel(Level.SEVERE);
 
-        actorSystem = ActorSystem.create("TAVJ-AKKA");
-        gameRoomManager = actorSystem.actorOf(GameRoomManager.props(), "GameRoomManager");
-        systemMonitor = actorSystem.actorOf(SystemMonitor.props(systemLogs), "SytemMonitor");
+        int port = PORT;
+        // Stopping the server ends the process, even when some actor does not stop within its phase
+        Config shutdownConfig = ConfigFactory.parseString("akka.coordinated-shutdown.exit-jvm = on");
+        if (args.length == 3 && args[0].equals("cluster")) {
+            // Cluster mode: the GameRoomManager shards, with their GameRooms, are spread over every node of the cluster
+            // Snapshots are only a shortcut over the shared journal, so each node keeps its own
+            Config config = ConfigFactory.parseString("akka.remote.netty.tcp.port = " + args[1] + "\n"
+                            + "akka.persistence.snapshot-store.local.dir = \"snapshots-" + args[1] + "\"")
+                    .withFallback(shutdownConfig)
+                    .withFallback(ConfigFactory.load("cluster"));
+            port = Integer.parseInt(args[2]);
+            actorSystem = ActorSystem.create("TAVJ-AKKA", config);
+            cluster = true;
+            startSharedJournal(actorSystem);
+            ActorRef region = GameRoomManagerRouter.startRegion(actorSystem, CLUSTER_SHARDS, gameRoomDirectory);
+            gameRoomManager = actorSystem.actorOf(GameRoomManagerRouter.props(CLUSTER_SHARDS, region), "GameRoomManager");
+        } else {
+            actorSystem = ActorSystem.create("TAVJ-AKKA", shutdownConfig.withFallback(ConfigFactory.load()));
+            gameRoomManager = actorSystem.actorOf(GameRoomManagerRouter.props(GAME_ROOM_MANAGER_SHARDS, gameRoomDirectory), "GameRoomManager");
+        }
+        matchmaker = actorSystem.actorOf(Matchmaker.props(gameRoomManager, GameRoom.DEFAULT_CAPACITY, MATCHMAKER_MAX_WAIT), "Matchmaker");
+        systemMonitor = actorSystem.actorOf(SystemMonitor.props(systemLogs, gameRoomDirectory, SYSTEM_MONITOR_INTERVAL, SYSTEM_MONITOR_WINDOW), "SytemMonitor");
+        Config breaker = actorSystem.settings().config().getConfig("ask-circuit-breaker");
+        guardedGameRoomManager = GuardedActor.create(actorSystem.scheduler(), "GameRoomManager", gameRoomManager, breaker);
+        guardedSystemMonitor = GuardedActor.create(actorSystem.scheduler(), "SystemMonitor", systemMonitor, breaker);
+        guardedMatchmaker = GuardedActor.create(actorSystem.scheduler(), "Matchmaker", matchmaker, breaker);
 
-        ActorSystem system = ActorSystem.create("Main");
-        Http http = Http.get(system);
-        Main main = new Main();
-        ActorMaterializer materializer = ActorMaterializer.create(system);
-        Source<IncomingConnection, CompletionStage<ServerBinding>> serverSource = http
-                .bind(ConnectHttp.toHost(HOST, PORT), materializer);
-        Flow<HttpRequest, HttpResponse, NotUsed> routeFlow = main.createRoutes().flow(system, materializer);
-        CompletionStage<ServerBinding> binding = http.bindAndHandle(routeFlow, ConnectHttp.toHost(HOST, PORT), materializer);
+        Http http = Http$.MODULE$.get(actorSystem);
+        Main main = new Main(Logging.getLogger(actorSystem, Main.class));
+        // The HTTP and TCP streams run on their own dispatcher, apart from the actors they ask
+        ActorMaterializer materializer = ActorMaterializer.create(ActorMaterializerSettings.create(actorSystem)
+                .withDispatcher(HTTP_DISPATCHER), actorSystem);
+        Flow<HttpRequest, HttpResponse, NotUsed> routeFlow = main.createRoutes().flow(actorSystem, materializer);
+        CompletionStage<ServerBinding> binding = http.bind(ConnectHttp.toHost(HOST, port), materializer)
+                .to(Sink.foreach(connection -> connection.handleWith(tracked(routeFlow), materializer)))
+                .run(materializer);
+        CompletionStage<Tcp.ServerBinding> tcpBinding = new TcpServer(guardedGameRoomManager, admission, askTimeout(TcpServer.TCP_REQUEST.getName()), TCP_PIPELINING)
+                .bind(actorSystem, materializer, HOST, port + TCP_PORT_OFFSET);
 
+        // Stop accepting connections, answer the requests in progress and then stop the actors
+        CoordinatedShutdown shutdown = CoordinatedShutdown$.MODULE$.get(actorSystem);
+        shutdown.addTask(CoordinatedShutdown.PhaseServiceUnbind(), "unbind", () -> {
+            draining = true;
+            return binding.thenCompose(ServerBinding::unbind)
+                    .thenCompose(unbound -> tcpBinding)
+                    .thenCompose(Tcp.ServerBinding::unbind)
+                    .thenApply(unbound -> Done.getInstance());
+        });
+        shutdown.addTask(CoordinatedShutdown.PhaseServiceRequestsDone(), "drain", () -> drained(actorSystem));
+
+        binding.thenAccept(bound -> System.out.println(String.format("Server online at http://%s:%d/ and tcp://%s:%d/ in %d ms with %d threads\nPress RETURN to stop...",
+                HOST, bound.localAddress().getPort(), HOST, bound.localAddress().getPort() + TCP_PORT_OFFSET,
+                ManagementFactory.getRuntimeMXBean().getUptime(), ManagementFactory.getThreadMXBean().getThreadCount())));
+        // Without a console the server runs until the JVM is asked to stop, which also runs the shutdown
+        if (System.in.read() != -1) {
+            shutdown.runAll();
+        }
+    }
+
+    /**
+     * Points the journal of this node at the shared LevelDB store run by the first seed node, starting the store
+     * when this is that node. Persistent actors wait for the store, and their journal calls fail after the
+     * leveldb-shared timeout while the first seed node is down; the lookup is retried until it answers.
+     */
+    private static void startSharedJournal(ActorSystem system) {
+        LoggingAdapter log = Logging.getLogger(system, Main.class);
+        Address storeNode = AddressFromURIString.parse(system.settings().config().getStringList("akka.cluster.seed-nodes").get(0));
+        if (Cluster$.MODULE$.get(system).selfAddress().equals(storeNode)) {
+            system.actorOf(Props.create(SharedLeveldbStore.class), SHARED_JOURNAL_STORE);
+        }
+        ActorSelection store = system.actorSelection(storeNode + "/user/" + SHARED_JOURNAL_STORE);
+        store.resolveOneCS(SHARED_JOURNAL_LOOKUP).whenComplete((ref, exception) -> {
+            if (exception == null) {
+                log.info("Main(startSharedJournal) - Journaling to {}", ref);
+                SharedLeveldbJournal.setStore(ref, system);
+            } else {
+                log.warning("Main(startSharedJournal) - Shared journal at {} not found, trying again", storeNode);
+                system.scheduler().scheduleOnce(SHARED_JOURNAL_LOOKUP, () -> startSharedJournal(system), system.dispatcher());
+            }
+        });
+    }
+
+    /**
+     * Handler of a connection that counts its requests in inFlight until they are answered. The requests still
+     * unanswered when the connection ends, because the client went away or the stream failed, are discounted then.
+     */
+    private static Flow<HttpRequest, HttpResponse, NotUsed> tracked(Flow<HttpRequest, HttpResponse, NotUsed> routeFlow) {
+        AtomicInteger pending = new AtomicInteger();
+        return Flow.of(HttpRequest.class)
+                .map(request -> {
+                    pending.incrementAndGet();
+                    inFlight.incrementAndGet();
+                    return request;
+                })
+                .via(routeFlow)
+                .map(response -> {
+                    pending.decrementAndGet();
+                    inFlight.decrementAndGet();
+                    return response;
+                })
+                .watchTermination((notUsed, terminated) -> {
+                    terminated.whenComplete((done, exception) -> inFlight.addAndGet(-pending.getAndSet(0)));
+                    return notUsed;
+                });
+    }
 
-        System.out.println(String.format("Server online at http://%s:%d/\nPress RETURN to stop...", HOST, PORT));
-        System.in.read();
-        binding
-            .thenCompose(ServerBinding::unbind) // trigger unbinding from the port
-            .thenAccept(unbound -> system.terminate()); // and shutdown when done
+    /**
+     * Completes once no HTTP request is in progress, polling every DRAIN_CHECK_INTERVAL. The phase gives up on
+     * the requests left after its timeout.
+     */
+    private static CompletionStage<Done> drained(ActorSystem system) {
+        Logging.getLogger(system, Main.class).info("Main(drained) - Waiting for {} requests in progress", inFlight.get());
+        CompletableFuture<Done> drained = new CompletableFuture<>();
+        Cancellable check = system.scheduler().schedule(Duration.Zero(), DRAIN_CHECK_INTERVAL, () -> {
+            if (inFlight.get() <= 0) {
+                drained.complete(Done.getInstance());
+            }
+        }, system.dispatcher());
+        return drained.whenComplete((done, exception) -> check.cancel());
     }
 
     private Route createRoutes() {
         return route(
+            drainingRoute(),
             pathSingleSlash(() -> complete("Welcome!")),
             createGameRoomRoute(),
             getSystemDataRoute(),
+            getSystemHistoryRoute(),
             getGameRoomAddressRoute(),
+            gameRoomAddressRoute(),
+            getGameRoomUsersRoute(),
             joinGameRoomRoute(),
+            joinGameRoomWithUsersRoute(),
+            leaveGameRoomWithUsersRoute(),
+            findGameRoomRoute(),
             leaveGameRoomRoute(),
-            deleteGameRoomRoute()
+            deleteGameRoomRoute(),
+            gameRoomWebSocketRoute(),
+            path("metrics", () -> complete(StatusCodes.OK, Metrics.toPrometheus()))
         );
     }
 
+    /**
+     * While shutting down the requests that still arrive on open connections are refused, closing the connection.
+     */
+    private Route drainingRoute() {
+        // The inner route is built again for every request, so it sees the current value of draining
+        return pass(() -> {
+            if (!draining) {
+                return reject();
+            }
+            return respondWithHeader(Connection.create("close"), () -> complete(StatusCodes.SERVICE_UNAVAILABLE, "Server shutting down."));
+        });
+    }
+
     private Route createGameRoomRoute() {
-        return path(PathMatchers.segment("create").slash("gameRoom"), () -> parameter("userId", userId -> {
-            System.out.println("---------------------------------------------");
-            System.out.println("Main(createGameRoomRoute) - Processing create GameRoom with userId: " + userId);
-            try {
-                Object message = ask(gameRoomManager, new GameRoomManager.CreateGameRoom(userId), TIME_OUT).toCompletableFuture().get();
+        return path(PathMatchers.segment("create").slash("gameRoom"), () -> parameter("userId", userId -> parameterOptional("capacity", capacityParameter -> {
+            log.debug("Main(createGameRoomRoute) - Processing create GameRoom with userId: {}", userId);
+            int capacity = capacity(capacityParameter);
+            if (capacity < 1 || capacity > GameRoom.MAX_CAPACITY) {
+                return complete(StatusCodes.BAD_REQUEST, "Invalid capacity " + capacityParameter.get() + ", it must be between 1 and " + GameRoom.MAX_CAPACITY + ".");
+            }
+            return admitted(Optional.of(userId), CREATE_GAME_ROOM, timer -> askAndThen(timer, guardedGameRoomManager, new GameRoomManager.CreateGameRoom(userId, capacity), message -> {
                 if (message instanceof GameRoomManager.GameRoomCreated) {
                     GameRoomManager.GameRoomCreated gameRoomCreate = (GameRoomManager.GameRoomCreated) message;
                     String gameRoomId = gameRoomCreate.getGameRoomId();
-                    System.out.println("Main(createGameRoomRoute) - GameRoomCreated(id: " + gameRoomId + ", ownerId: " + userId + ") received");
+                    log.debug("Main(createGameRoomRoute) - GameRoomCreated(id: {}, ownerId: {}) received", gameRoomId, userId);
                     return complete(StatusCodes.OK, "Create GameRoom(id: " + gameRoomId + ") owner userId " + userId);
                 } else if (message instanceof GameRoomManager.UserIsAlreadyInGame) {
                     GameRoomManager.UserIsAlreadyInGame userIsAlreadyInGame = (GameRoomManager.UserIsAlreadyInGame) message;
                     String gameRoomId = userIsAlreadyInGame.getGameRoomId();
-                    System.out.println("Main(createGameRoomRoute) - User(id: " + userId + ") is already in GameRoom(id: " + gameRoomId + ")");
+                    log.debug("Main(createGameRoomRoute) - User(id: {}) is already in GameRoom(id: {})", userId, gameRoomId);
                     return complete(StatusCodes.CONFLICT, "User(id: " + userId + ") already join to GameRoom(id: "+ gameRoomId +").");
                 } else {
-                    System.out.println("Main(createGameRoomRoute) - Unknown message received");
+                    log.warning("Main(createGameRoomRoute) - Unknown message received");
                     return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                return complete(StatusCodes.CONFLICT, "Exception received. Operation failed.");
-            }
-        }));
+            }));
+        })));
+    }
+
+    /**
+     * Capacity requested for a new GameRoom, 0 when it is not a number.
+     */
+    private static int capacity(Optional<String> capacity) {
+        try {
+            return capacity.map(Integer::parseInt).orElse(GameRoom.DEFAULT_CAPACITY);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
 
     private Route deleteGameRoomRoute() {
         return path(PathMatchers.segment("delete").slash("gameRoom"), () -> parameter("id", gameRoomId -> {
-            System.out.println("---------------------------------------------");
-            System.out.println("Main(deleteGameRoomRoute) - Processing delete GameRoom(id: " + gameRoomId + ")");
-            try {
-                Object message = ask(gameRoomManager, new GameRoomManager.DeleteGameRoom(gameRoomId), TIME_OUT).toCompletableFuture().get();
+            log.debug("Main(deleteGameRoomRoute) - Processing delete GameRoom(id: {})", gameRoomId);
+            return admitted(Optional.empty(), DELETE_GAME_ROOM, timer -> askAndThen(timer, guardedGameRoomManager, new GameRoomManager.DeleteGameRoom(gameRoomId), message -> {
                 if (message instanceof GameRoomManager.GameRoomDeleted) {
-                    System.out.println("Main(deleteGameRoomRoute) - GameRoomDeleted(id: " + gameRoomId + ") received");
+                    log.debug("Main(deleteGameRoomRoute) - GameRoomDeleted(id: {}) received", gameRoomId);
                     return complete(StatusCodes.OK, "GameRoom(id: " + gameRoomId + ") deleted.");
                 } else if (message instanceof GameRoomManager.UnknownGameRoom) {
-                    System.out.println("Main(deleteGameRoomRoute) - TryingToDeleteUnknownGameRoom(id: " + gameRoomId + ") received");
+                    log.debug("Main(deleteGameRoomRoute) - TryingToDeleteUnknownGameRoom(id: {}) received", gameRoomId);
                     return complete(StatusCodes.CONFLICT, "Trying to delete unknown GameRoom(id: " + gameRoomId + ").");
                 } else {
-                    System.out.println("Main(deleteGameRoomRoute) - Unknown message received");
+                    log.warning("Main(deleteGameRoomRoute) - Unknown message received");
                     return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                return complete(StatusCodes.CONFLICT, "Exception received. Operation failed.");
-            }
+            }));
         }));
     }
 
     private Route joinGameRoomRoute() {
         return path(PathMatchers.segment("join").slash("gameRoom"), () -> parameter("id", gameRoomId -> parameter("userId", userId -> {
-            System.out.println("---------------------------------------------");
-            System.out.println("Main(joinGameRoomRoute) - Processing join User(id: " + userId + ") to GameRoom(id: " + gameRoomId + ")");
-            try {
-                Object message = ask(gameRoomManager, new GameRoomManager.JoinGameRoom(gameRoomId, userId), TIME_OUT).toCompletableFuture().get();
+            log.debug("Main(joinGameRoomRoute) - Processing join User(id: {}) to GameRoom(id: {})", userId, gameRoomId);
+            return admitted(Optional.of(userId), JOIN_GAME_ROOM, timer -> askAndThen(timer, guardedGameRoomManager, new GameRoomManager.JoinGameRoom(gameRoomId, userId), message -> {
                 if (message instanceof GameRoom.JoinGameRoomSuccessfully) {
-                    System.out.println("Main(joinGameRoomRoute) - JoinGameRoomSuccessfully(gameRoomId: " + gameRoomId + ", userId: "+ userId + ") received");
+                    log.debug("Main(joinGameRoomRoute) - JoinGameRoomSuccessfully(gameRoomId: {}, userId: {}) received", gameRoomId, userId);
                     return complete(StatusCodes.OK, "User(id: " + userId + ") joined GameRoom(id: " + gameRoomId + ").");
                 } else if (message instanceof GameRoom.UserAlreadyJoinToGameRoom) {
-                    System.out.println("Main(joinGameRoomRoute) - UserAlreadyJoinToGameRoom(id: " + gameRoomId + ", userId: " + userId + ") received");
+                    log.debug("Main(joinGameRoomRoute) - UserAlreadyJoinToGameRoom(id: {}, userId: {}) received", gameRoomId, userId);
                     return complete(StatusCodes.CONFLICT, "User(id: " + userId + ") already join to GameRoom(id: "+ gameRoomId +").");
                 } else if (message instanceof GameRoomManager.UserIsAlreadyInGame) {
-                    System.out.println("Main(joinGameRoomRoute) - UserAlreadyJoinToGameRoom(id: " + gameRoomId + ", userId: " + userId + ") received");
+                    log.debug("Main(joinGameRoomRoute) - UserAlreadyJoinToGameRoom(id: {}, userId: {}) received", gameRoomId, userId);
                     return complete(StatusCodes.CONFLICT, "User(id: " + userId + ") already join to GameRoom(id: "+ gameRoomId +").");
                 } else if (message instanceof GameRoomManager.UnknownGameRoom) {
-                    System.out.println("Main(joinGameRoomRoute) - UnknownGameRoom(id: " + gameRoomId + ") received");
+                    log.debug("Main(joinGameRoomRoute) - UnknownGameRoom(id: {}) received", gameRoomId);
                     return complete(StatusCodes.CONFLICT, "Invalid GameRoom(id: " + gameRoomId+ ").");
                 } else if (message instanceof GameRoom.GameRoomIsFull) {
-                    System.out.println("Main(joinGameRoomRoute) - GameRoomIsFull(id: " + gameRoomId + ") received");
+                    log.debug("Main(joinGameRoomRoute) - GameRoomIsFull(id: {}) received", gameRoomId);
                     return complete(StatusCodes.CONFLICT, "GameRoom(id: " + gameRoomId+ ") is full.");
                 } else {
-                    System.out.println("Main(joinGameRoomRoute) - Unknown message received");
-                    System.out.println(message);
+                    log.warning("Main(joinGameRoomRoute) - Unknown message received: {}", message);
                     return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
                 }
-            } catch(Exception e) {
-                e.printStackTrace();
-                return complete(StatusCodes.CONFLICT, "Exception received. Operation failed.");
+            }));
+        })));
+    }
+
+    private Route joinGameRoomWithUsersRoute() {
+        return path(PathMatchers.segment("join").slash("gameRoom").slash("users"), () -> parameter("id", gameRoomId -> parameter("userIds", userIdsParameter -> {
+            log.debug("Main(joinGameRoomWithUsersRoute) - Processing join Users(ids: {}) to GameRoom(id: {})", userIdsParameter, gameRoomId);
+            List<String> userIds = userIds(userIdsParameter);
+            if (userIds.isEmpty() || userIds.size() > GameRoom.MAX_CAPACITY) {
+                return complete(StatusCodes.BAD_REQUEST, "Invalid users " + userIdsParameter + ", there must be between 1 and " + GameRoom.MAX_CAPACITY + ".");
             }
+            return admitted(Optional.empty(), JOIN_GAME_ROOM_USERS, timer -> askAndThen(timer, guardedGameRoomManager, new GameRoomManager.JoinGameRoomWithUsers(gameRoomId, userIds), message -> {
+                if (message instanceof GameRoom.JoinGameRoomSuccessfully) {
+                    log.debug("Main(joinGameRoomWithUsersRoute) - JoinGameRoomSuccessfully(gameRoomId: {}, userIds: {}) received", gameRoomId, userIds);
+                    return complete(StatusCodes.OK, "Users(ids: " + String.join(", ", userIds) + ") joined GameRoom(id: " + gameRoomId + ").");
+                } else if (message instanceof GameRoomManager.UsersAreAlreadyInGame) {
+                    Set<String> usersAlreadyInGame = ((GameRoomManager.UsersAreAlreadyInGame) message).getUserIds();
+                    log.debug("Main(joinGameRoomWithUsersRoute) - UsersAreAlreadyInGame(userIds: {}) received", usersAlreadyInGame);
+                    return complete(StatusCodes.CONFLICT, "Users(ids: " + String.join(", ", usersAlreadyInGame) + ") are already in a GameRoom.");
+                } else if (message instanceof GameRoom.UserAlreadyJoinToGameRoom) {
+                    log.debug("Main(joinGameRoomWithUsersRoute) - UserAlreadyJoinToGameRoom(id: {}) received", gameRoomId);
+                    return complete(StatusCodes.CONFLICT, "Some of the users already join to GameRoom(id: " + gameRoomId + ").");
+                } else if (message instanceof GameRoomManager.UnknownGameRoom) {
+                    log.debug("Main(joinGameRoomWithUsersRoute) - UnknownGameRoom(id: {}) received", gameRoomId);
+                    return complete(StatusCodes.CONFLICT, "Invalid GameRoom(id: " + gameRoomId + ").");
+                } else if (message instanceof GameRoom.GameRoomIsFull) {
+                    log.debug("Main(joinGameRoomWithUsersRoute) - GameRoomIsFull(id: {}) received", gameRoomId);
+                    return complete(StatusCodes.CONFLICT, "GameRoom(id: " + gameRoomId + ") has no room for " + userIds.size() + " users.");
+                } else {
+                    log.warning("Main(joinGameRoomWithUsersRoute) - Unknown message received: {}", message);
+                    return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
+                }
+            }));
+        })));
+    }
+
+    private Route leaveGameRoomWithUsersRoute() {
+        return path(PathMatchers.segment("leave").slash("gameRoom").slash("users"), () -> parameter("id", gameRoomId -> parameter("userIds", userIdsParameter -> {
+            log.debug("Main(leaveGameRoomWithUsersRoute) - Processing Users(ids: {}) leaving GameRoom(id: {})", userIdsParameter, gameRoomId);
+            List<String> userIds = userIds(userIdsParameter);
+            if (userIds.isEmpty() || userIds.size() > GameRoom.MAX_CAPACITY) {
+                return complete(StatusCodes.BAD_REQUEST, "Invalid users " + userIdsParameter + ", there must be between 1 and " + GameRoom.MAX_CAPACITY + ".");
+            }
+            return admitted(Optional.empty(), LEAVE_GAME_ROOM_USERS, timer -> askAndThen(timer, guardedGameRoomManager, new GameRoomManager.LeaveGameRoomWithUsers(gameRoomId, userIds), message -> {
+                if (message instanceof GameRoom.LeaveGameRoomSuccessfully) {
+                    log.debug("Main(leaveGameRoomWithUsersRoute) - LeaveGameRoomSuccessfully(gameRoomId: {}, userIds: {}) received", gameRoomId, userIds);
+                    return complete(StatusCodes.OK, "Users(ids: " + String.join(", ", userIds) + ") left GameRoom(id: " + gameRoomId + ").");
+                } else if (message instanceof GameRoom.UsersAreNotInGameRoom) {
+                    Set<String> usersNotInGameRoom = ((GameRoom.UsersAreNotInGameRoom) message).getUserIds();
+                    log.debug("Main(leaveGameRoomWithUsersRoute) - UsersAreNotInGameRoom(gameRoomId: {}, userIds: {}) received", gameRoomId, usersNotInGameRoom);
+                    return complete(StatusCodes.CONFLICT, "The Users(ids: " + String.join(", ", usersNotInGameRoom) + ") are not in the GameRoom(id: " + gameRoomId + ").");
+                } else if (message instanceof GameRoomManager.UnknownGameRoom) {
+                    log.debug("Main(leaveGameRoomWithUsersRoute) - UnknownGameRoom(id: {}) received", gameRoomId);
+                    return complete(StatusCodes.CONFLICT, "Invalid GameRoom(id: " + gameRoomId + ").");
+                } else {
+                    log.warning("Main(leaveGameRoomWithUsersRoute) - Unknown message received: {}", message);
+                    return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
+                }
+            }));
         })));
     }
 
+    /**
+     * Distinct users of a comma separated list, in their order.
+     */
+    private static List<String> userIds(String userIds) {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String userId : userIds.split(",")) {
+            if (!userId.trim().isEmpty()) {
+                distinct.add(userId.trim());
+            }
+        }
+        return new ArrayList<>(distinct);
+    }
+
+    private Route findGameRoomRoute() {
+        return path(PathMatchers.segment("find").slash("gameRoom"), () -> parameter("userId", userId ->
+                parameterOptional("region", region -> parameterOptional("skill", skill -> {
+            log.debug("Main(findGameRoomRoute) - Processing find GameRoom for User(id: {})", userId);
+            Matchmaker.FindGameRoom findGameRoom;
+            try {
+                findGameRoom = new Matchmaker.FindGameRoom(userId, region.orElse(""), skill.map(Integer::parseInt).orElse(0));
+            } catch (NumberFormatException e) {
+                return complete(StatusCodes.BAD_REQUEST, "Invalid skill " + skill.get() + ".");
+            }
+            return admitted(Optional.of(userId), FIND_GAME_ROOM, timer -> askAndThen(timer, guardedMatchmaker, findGameRoom, message -> {
+                if (message instanceof Matchmaker.GameRoomFound) {
+                    String gameRoomId = ((Matchmaker.GameRoomFound) message).getGameRoomId();
+                    log.debug("Main(findGameRoomRoute) - GameRoomFound(id: {}, userId: {}) received", gameRoomId, userId);
+                    return complete(StatusCodes.OK, "User(id: " + userId + ") joined GameRoom(id: " + gameRoomId + ").");
+                } else if (message instanceof Matchmaker.UserIsAlreadyWaiting) {
+                    log.debug("Main(findGameRoomRoute) - UserIsAlreadyWaiting(userId: {}) received", userId);
+                    return complete(StatusCodes.CONFLICT, "User(id: " + userId + ") is already looking for a GameRoom.");
+                } else if (message instanceof Matchmaker.UserIsAlreadyInGame) {
+                    log.debug("Main(findGameRoomRoute) - UserIsAlreadyInGame(userId: {}) received", userId);
+                    return complete(StatusCodes.CONFLICT, "User(id: " + userId + ") is already in a GameRoom.");
+                } else {
+                    log.warning("Main(findGameRoomRoute) - Unknown message received");
+                    return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
+                }
+            }));
+        }))));
+    }
+
     private Route leaveGameRoomRoute() {
         return path(PathMatchers.segment("leave").slash("gameRoom"), () -> parameter("id", gameRoomId -> parameter("userId", userId -> {
-            System.out.println("---------------------------------------------");
-            System.out.println("Main(leaveGameRoomRoute) - Processing User(id: " + userId + ") leaving GameRoom(id: " + gameRoomId + ")");
-            try {
-                Object message = ask(gameRoomManager, new GameRoomManager.LeaveGameRoom(gameRoomId, userId), TIME_OUT).toCompletableFuture().get();
+            log.debug("Main(leaveGameRoomRoute) - Processing User(id: {}) leaving GameRoom(id: {})", userId, gameRoomId);
+            return admitted(Optional.of(userId), LEAVE_GAME_ROOM, timer -> askAndThen(timer, guardedGameRoomManager, new GameRoomManager.LeaveGameRoom(gameRoomId, userId), message -> {
                 if (message instanceof GameRoom.LeaveGameRoomSuccessfully) {
-                    System.out.println("Main(leaveGameRoomRoute) - LeaveGameRoomSuccessfully(gameRoomId: " + gameRoomId + ", userId: "+ userId + ") received");
+                    log.debug("Main(leaveGameRoomRoute) - LeaveGameRoomSuccessfully(gameRoomId: {}, userId: {}) received", gameRoomId, userId);
                     return complete(StatusCodes.OK, "User(id: " + userId + ") left GameRoom(id: " + gameRoomId + ").");
                 } else if (message instanceof GameRoom.UserIsNotInGameRoom) {
-                    System.out.println("Main(leaveGameRoomRoute) - UserIsNotInGameRoom(gameRoomId: " + gameRoomId + ", userId: "+ userId + ") received");
+                    log.debug("Main(leaveGameRoomRoute) - UserIsNotInGameRoom(gameRoomId: {}, userId: {}) received", gameRoomId, userId);
                     return complete(StatusCodes.CONFLICT, "The User(id: " + userId + ") is not in the GameRoom(id: " + gameRoomId + ").");
                 } else if (message instanceof GameRoomManager.UnknownGameRoom) {
-                    System.out.println("Main(leaveGameRoomRoute) - UnknownGameRoom(id: " + gameRoomId + ") received");
+                    log.debug("Main(leaveGameRoomRoute) - UnknownGameRoom(id: {}) received", gameRoomId);
                     return complete(StatusCodes.CONFLICT, "Invalid GameRoom(id: " + gameRoomId+ ").");
                 } else {
-                    System.out.println("Main(leaveGameRoomRoute) - Unknown message received");
+                    log.warning("Main(leaveGameRoomRoute) - Unknown message received");
                     return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                return complete(StatusCodes.CONFLICT, "Exception received. Operation failed.");
-            }
+            }));
         })));
     }
 
     private Route getSystemDataRoute() {
         return path(PathMatchers.segment("get").slash("system"), () -> {
-            System.out.println("---------------------------------------------");
-            System.out.println("Main(getSystemDataRoute) - Processing get system stats");
-            try {
-                Object message = ask(systemMonitor, new SystemMonitor.GetSystemInfo(), TIME_OUT).toCompletableFuture().get();
+            log.debug("Main(getSystemDataRoute) - Processing get system stats");
+            return timed(GET_SYSTEM, timer -> askAndThen(timer, guardedSystemMonitor, new SystemMonitor.GetSystemInfo(), message -> {
                 if (message instanceof SystemMonitor.SystemStats) {
                     SystemMonitor.SystemStats stats = (SystemMonitor.SystemStats) message;
-                    return complete(StatusCodes.OK, "System stats \n\nTotal memory (bytes): " + stats.getTotalMemory() + "\nMax memory (bytes): " + stats.getMaxMemory() + "\nFree memory (bytes): " + stats.getFreeMemory() + "\nCores: " + stats.getCores());
+                    String json = new Document("current", stats.getCurrent())
+                            .append("window", stats.getWindow())
+                            .toJson(JSON_SETTINGS);
+                    return complete(StatusCodes.OK, (ResponseEntity) HttpEntities.create(ContentTypes.APPLICATION_JSON, json));
                 } else {
-                    System.out.println("Main(getSystemDataRoute) - Unknown message received");
+                    log.warning("Main(getSystemDataRoute) - Unknown message received");
                     return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                return complete(StatusCodes.CONFLICT, "Exception received. Operation failed.");
+            }));
+        });
+    }
+
+    /**
+     * Stored samples of the SystemMonitor with a time in [from, to), in milliseconds since the epoch, streamed as
+     * JSON at the given resolution (raw, 1m or 1h) or the finest one that keeps the response short.
+     */
+    private Route getSystemHistoryRoute() {
+        return path(PathMatchers.segment("get").slash("system").slash("history"), () -> parameterOptional("from", fromParameter ->
+                parameterOptional("to", toParameter -> parameterOptional("resolution", resolutionParameter -> {
+            log.debug("Main(getSystemHistoryRoute) - Processing get system history from: {} to: {}", fromParameter, toParameter);
+            long to = time(toParameter, System.currentTimeMillis());
+            long from = time(fromParameter, to - SYSTEM_HISTORY_RANGE.toMillis());
+            if (from < 0 || to <= from) {
+                return complete(StatusCodes.BAD_REQUEST, "Invalid range from " + fromParameter.orElse("") + " to " + toParameter.orElse("") + ", they must be times in milliseconds and from must be before to.");
             }
+            SystemStatsHistory.Resolution resolution = resolutionParameter.map(SystemStatsHistory.Resolution::of).orElse(null);
+            if (resolutionParameter.isPresent() && resolution == null) {
+                return complete(StatusCodes.BAD_REQUEST, "Invalid resolution " + resolutionParameter.get() + ", it must be raw, 1m or 1h.");
+            }
+            return timed(GET_SYSTEM_HISTORY, timer -> askAndThen(timer, guardedSystemMonitor, new SystemStatsHistory.GetSystemHistory(from, to, resolution), message -> {
+                if (message instanceof SystemStatsHistory.SystemHistory) {
+                    SystemStatsHistory.SystemHistory history = (SystemStatsHistory.SystemHistory) message;
+                    String start = new Document("resolution", history.getResolution().getName())
+                            .append("from", history.getFrom())
+                            .append("to", history.getTo())
+                            .toJson(JSON_SETTINGS);
+                    Source<ByteString, NotUsed> chunks = history.getSamples()
+                            .map(sample -> sample.toJson(JSON_SETTINGS))
+                            .intersperse(start.substring(0, start.length() - 1) + ", \"samples\" : [", ",\n", "]}")
+                            .grouped(SYSTEM_HISTORY_CHUNK)
+                            .map(texts -> ByteString.fromString(String.join("", texts)));
+                    return complete(StatusCodes.OK, (ResponseEntity) HttpEntities.createChunked(ContentTypes.APPLICATION_JSON, chunks));
+                } else {
+                    log.warning("Main(getSystemHistoryRoute) - Unknown message received");
+                    return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
+                }
+            }));
+        }))));
+    }
+
+    /**
+     * Time in milliseconds given by the request, the default when there is none and -1 when it is not a number.
+     */
+    private static long time(Optional<String> time, long orElse) {
+        try {
+            return time.map(Long::parseLong).orElse(orElse);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Route getGameRoomUsersRoute() {
+        return path(PathMatchers.segment("users").slash("gameRoom"), () -> parameter("id", gameRoomId -> {
+            log.debug("Main(getGameRoomUsersRoute) - Processing get users of GameRoom(id: {})", gameRoomId);
+            return timed(GET_GAME_ROOM_USERS, timer -> askAndThen(timer, guardedGameRoomManager, new GameRoomManager.GetGameRoomUsers(gameRoomId), message -> {
+                if (message instanceof GameRoomManager.GameRoomUsers) {
+                    GameRoomManager.GameRoomUsers gameRoomUsers = (GameRoomManager.GameRoomUsers) message;
+                    StringBuilder text = new StringBuilder("GameRoom(id: " + gameRoomId + ") users (" + gameRoomUsers.getSize() + ")\n\n");
+                    for (String userId : gameRoomUsers.getUsers()) {
+                        text.append("User(id: ").append(userId).append(")\n");
+                    }
+                    return complete(StatusCodes.OK, text.toString());
+                } else if (message instanceof GameRoomManager.UnknownGameRoom) {
+                    log.debug("Main(getGameRoomUsersRoute) - UnknownGameRoom(id: {}) received", gameRoomId);
+                    return complete(StatusCodes.CONFLICT, "Invalid GameRoom(id: " + gameRoomId + ").");
+                } else {
+                    log.warning("Main(getGameRoomUsersRoute) - Unknown message received");
+                    return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
+                }
+            }));
+        }));
+    }
+
+    /**
+     * Address of a GameRoom from the directory, which only has the GameRooms of the shards of this node. Only the
+     * GameRooms of the shards of other cluster nodes are asked to their shard, which answers from its state.
+     */
+    private Route gameRoomAddressRoute() {
+        return path(PathMatchers.segment("gameRoom").slash(PathMatchers.segment()).slash("address"), gameRoomId -> {
+            log.debug("Main(gameRoomAddressRoute) - Processing address of GameRoom(id: {})", gameRoomId);
+            return timed(GAME_ROOM_ADDRESS, timer -> {
+                String address = gameRoomDirectory.address(gameRoomId);
+                if (address != null) {
+                    return complete(StatusCodes.OK, "GameRoom(id: " + gameRoomId + ") address: " + address);
+                }
+                if (!cluster || gameRoomDirectory.hostsShardOf(gameRoomId, CLUSTER_SHARDS)) {
+                    return complete(StatusCodes.CONFLICT, "Invalid GameRoom(id: " + gameRoomId + ").");
+                }
+                return askAndThen(timer, guardedGameRoomManager, new GameRoomManager.GetGameRoomAddress(gameRoomId), message -> {
+                    if (message instanceof GameRoomManager.GameRoomAddress) {
+                        return complete(StatusCodes.OK, "GameRoom(id: " + gameRoomId + ") address: " + ((GameRoomManager.GameRoomAddress) message).getAddress());
+                    } else if (message instanceof GameRoomManager.UnknownGameRoom) {
+                        return complete(StatusCodes.CONFLICT, "Invalid GameRoom(id: " + gameRoomId + ").");
+                    } else {
+                        log.warning("Main(gameRoomAddressRoute) - Unknown message received");
+                        return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
+                    }
+                });
+            });
         });
     }
 
     private Route getGameRoomAddressRoute() {
-        return path(PathMatchers.segment("list").slash("gameRoom"), () -> {
-            System.out.println("---------------------------------------------");
-            System.out.println("Main(getGameRoomAddressRoute) - Processing get system stats");
-            try {
-                Object message = ask(gameRoomManager, new GameRoomManager.GetGameRoomList(), TIME_OUT).toCompletableFuture().get();
-                if (message instanceof GameRoomManager.GameRoomList) {
-                    GameRoomManager.GameRoomList gameRoomList = (GameRoomManager.GameRoomList) message;
-                    String text = "Game rooms \n\n";
-                    for (String id: gameRoomList.getList()) {
-                        text += "GameRoom(id: " + id + ")\n";
-                    }
-                    return complete(StatusCodes.OK, text);
+        return path(PathMatchers.segment("list").slash("gameRoom"), () -> parameterOptional("after", after -> parameterOptional("limit", limitParameter ->
+                parameterOptional("open", open -> parameterOptional("owner", owner -> {
+            log.debug("Main(getGameRoomAddressRoute) - Processing list GameRooms after: {}", after);
+            int limit = limit(limitParameter);
+            if (limit < 1 || limit > MAX_GAME_ROOM_PAGE) {
+                return complete(StatusCodes.BAD_REQUEST, "Invalid limit " + limitParameter.get() + ", it must be between 1 and " + MAX_GAME_ROOM_PAGE + ".");
+            }
+            if (after.isPresent() && !after.get().matches("[1-9][0-9]*")) {
+                return complete(StatusCodes.BAD_REQUEST, "Invalid GameRoom(id: " + after.get() + ").");
+            }
+            GameRoomManager.GetGameRoomPage request = new GameRoomManager.GetGameRoomPage(after.orElse(null), limit, open.map(Boolean::parseBoolean).orElse(false), owner.orElse(null));
+            // The owner goes last, it is the only part that may contain the separator
+            String key = after.orElse("") + "/" + limit + "/" + request.isOpenSlots() + "/" + owner.map(id -> "=" + id).orElse("");
+            return timed(LIST_GAME_ROOM, timer -> onSuccess(() -> gameRoomListings.get(key, () -> listGameRooms(timer, request, key)),
+                    reply -> replyRoute(guardedGameRoomManager, reply, message -> {
+                if (message instanceof GameRoomListing) {
+                    Source<ByteString, NotUsed> chunks = Source.from(((GameRoomListing) message).getChunks());
+                    return complete(StatusCodes.OK, (ResponseEntity) HttpEntities.createChunked(ContentTypes.TEXT_PLAIN_UTF8, chunks));
                 } else {
-                    System.out.println("Main(getGameRoomAddressRoute) - Unknown message received");
+                    log.warning("Main(getGameRoomAddressRoute) - Unknown message received");
                     return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                return complete(StatusCodes.CONFLICT, "Exception received. Operation failed.");
+            })));
+        })))));
+    }
+
+    /**
+     * GameRooms per page requested, 0 when it is not a number.
+     */
+    private static int limit(Optional<String> limit) {
+        try {
+            return limit.map(Integer::parseInt).orElse(GAME_ROOM_PAGE);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Asks for a page of GameRooms and renders it once for every request served from the cache.
+     * Failures are dropped from the cache, so the next request asks again.
+     */
+    private CompletionStage<Object> listGameRooms(RouteTimer timer, GameRoomManager.GetGameRoomPage request, String key) {
+        CompletionStage<Object> listing = askReply(timer, guardedGameRoomManager, request)
+                .thenApply(reply -> reply instanceof GameRoomManager.GameRoomPage ? new GameRoomListing((GameRoomManager.GameRoomPage) reply) : reply);
+        listing.thenAcceptAsync(reply -> {
+            if (!(reply instanceof GameRoomListing) || ((GameRoomListing) reply).isPartial()) {
+                gameRoomListings.remove(key, listing);
+            }
+        }, actorSystem.dispatcher());
+        return listing;
+    }
+
+    /**
+     * Text of a page of GameRooms, in chunks of GAME_ROOM_LIST_CHUNK GameRooms, ending with the cursor of
+     * the next page if there is one and the shards whose GameRooms are missing if some did not answer.
+     */
+    static class GameRoomListing {
+
+        private final List<ByteString> chunks = new ArrayList<>();
+        private final boolean partial;
+
+        GameRoomListing(GameRoomManager.GameRoomPage page) {
+            partial = !page.getMissingShards().isEmpty();
+            StringBuilder text = new StringBuilder("Game rooms \n\n");
+            List<GameRoomManager.GameRoomSummary> gameRooms = page.getGameRooms();
+            for (int i = 0; i < gameRooms.size(); i++) {
+                GameRoomManager.GameRoomSummary gameRoom = gameRooms.get(i);
+                text.append("GameRoom(id: ").append(gameRoom.getGameRoomId())
+                        .append(") owner User(id: ").append(gameRoom.getOwnerId())
+                        .append(") users ").append(gameRoom.getUsers()).append("/").append(gameRoom.getCapacity()).append("\n");
+                if ((i + 1) % GAME_ROOM_LIST_CHUNK == 0) {
+                    chunks.add(ByteString.fromString(text.toString()));
+                    text.setLength(0);
+                }
+            }
+            if (page.getNext() != null) {
+                text.append("\nNext page after GameRoom(id: ").append(page.getNext()).append(")\n");
+            }
+            if (partial) {
+                text.append("\nMissing the GameRooms of shards ").append(page.getMissingShards()).append(", they did not answer in time.\n");
+            }
+            if (text.length() > 0) {
+                chunks.add(ByteString.fromString(text.toString()));
+            }
+        }
+
+        List<ByteString> getChunks() {
+            return chunks;
+        }
+
+        boolean isPartial() {
+            return partial;
+        }
+    }
+
+    private Route gameRoomWebSocketRoute() {
+        return path(PathMatchers.segment("ws").slash("gameRoom"), () -> parameter("id", gameRoomId -> parameter("userId", userId -> {
+            log.debug("Main(gameRoomWebSocketRoute) - Processing User(id: {}) connecting to GameRoom(id: {})", userId, gameRoomId);
+            return timed(WS_GAME_ROOM, timer -> askAndThen(timer, guardedGameRoomManager, new GameRoomManager.GetGameRoom(gameRoomId), message -> {
+                if (message instanceof GameRoomManager.GameRoomRef) {
+                    ActorRef gameRoom = ((GameRoomManager.GameRoomRef) message).getGameRoom();
+                    return handleWebSocketMessages(gameRoomFlow(gameRoom, userId));
+                } else if (message instanceof GameRoomManager.UnknownGameRoom) {
+                    log.debug("Main(gameRoomWebSocketRoute) - UnknownGameRoom(id: {}) received", gameRoomId);
+                    return complete(StatusCodes.CONFLICT, "Invalid GameRoom(id: " + gameRoomId + ").");
+                } else {
+                    log.warning("Main(gameRoomWebSocketRoute) - Unknown message received");
+                    return complete(StatusCodes.CONFLICT, "Unknown message received. Operation failed.");
+                }
+            }));
+        })));
+    }
+
+    /**
+     * Text frames of the client are relayed by the GameRoom to all its connections, except for "/move dx dy"
+     * which are inputs of the simulation. What the GameRoom sends to this connection is written back through
+     * a buffer of WEB_SOCKET_BUFFER messages.
+     */
+    private static Flow<Message, Message, NotUsed> gameRoomFlow(ActorRef gameRoom, String userId) {
+        // Messages are sent on behalf of the connection, so that it gets the rejections of a busy GameRoom
+        AtomicReference<ActorRef> connectionRef = new AtomicReference<>(ActorRef.noSender());
+        Sink<Message, NotUsed> in = Flow.<Message>create()
+                .flatMapConcat(Main::text)
+                .map(text -> gameRoomMessage(userId, text))
+                .to(Sink.foreach(message -> gameRoom.tell(message, connectionRef.get())));
+        Source<Message, NotUsed> out = Source.actorRef(WEB_SOCKET_BUFFER, OverflowStrategy.dropHead())
+                .mapMaterializedValue(connection -> {
+                    connectionRef.set(connection);
+                    gameRoom.tell(new GameRoom.Connect(userId, connection), ActorRef.noSender());
+                    return NotUsed.getInstance();
+                })
+                .map(message -> (Message) TextMessage.create(message instanceof GameRoom.GameRoomIsBusy
+                        ? "GameRoom is busy, message dropped."
+                        : (String) message));
+        return Flow.fromSinkAndSource(in, out);
+    }
+
+    private static Object gameRoomMessage(String userId, String text) {
+        String[] move = text.split(" ");
+        if (move.length == 3 && move[0].equals("/move")) {
+            try {
+                return new GameRoom.PlayerInput(userId, Integer.parseInt(move[1]), Integer.parseInt(move[2]));
+            } catch (NumberFormatException e) {
+                // Not a valid move, sent as a message
+            }
+        }
+        return new GameRoom.SendMessage(userId, text);
+    }
+
+    /**
+     * Whole text of a frame, binary frames are drained and ignored.
+     */
+    private static Source<String, ?> text(Message message) {
+        if (message.isText()) {
+            return message.asTextMessage().getStreamedText().fold("", String::concat);
+        }
+        return message.asBinaryMessage().getStreamedData().filter(data -> false).map(data -> "");
+    }
+
+    /**
+     * Records the latency of the request built by inner under the given route and the outcome of its response.
+     */
+    private Route timed(Metrics.RouteMetrics route, Function<RouteTimer, Route> inner) {
+        RouteTimer timer = new RouteTimer(route);
+        return mapResponse(response -> {
+            timer.completed(response.status().intValue());
+            return response;
+        }, () -> inner.apply(timer));
+    }
+
+    /**
+     * Timed route that is built by inner only when the request is admitted: it is answered with SERVICE_UNAVAILABLE
+     * while the GameRoomManager is overloaded, and with TOO_MANY_REQUESTS when the server or the given user ran out
+     * of tokens. Both carry a Retry-After header with the seconds to wait.
+     */
+    private Route admitted(Optional<String> userId, Metrics.RouteMetrics route, Function<RouteTimer, Route> inner) {
+        return timed(route, timer -> {
+            Admission.Verdict verdict = admission.admit(userId.orElse(null));
+            switch (verdict.getOutcome()) {
+                case OVERLOADED:
+                    log.debug("Main(admitted) - Request shed, the GameRoomManager is overloaded");
+                    return rejected(StatusCodes.SERVICE_UNAVAILABLE, verdict.getWaitNanos(), "Server overloaded, try again later.");
+                case USER_RATE_EXCEEDED:
+                    log.debug("Main(admitted) - User(id: {}) exceeded its rate", userId.get());
+                    return rejected(StatusCodes.TOO_MANY_REQUESTS, verdict.getWaitNanos(), "User(id: " + userId.get() + ") sent too many requests.");
+                case RATE_EXCEEDED:
+                    log.debug("Main(admitted) - Server rate exceeded");
+                    return rejected(StatusCodes.TOO_MANY_REQUESTS, verdict.getWaitNanos(), "Too many requests, try again later.");
+                default:
+                    return inner.apply(timer);
             }
         });
     }
 
+    private Route rejected(StatusCode status, long waitNanos, String reason) {
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        return respondWithHeader(RawHeader.create("Retry-After", String.valueOf(seconds)), () -> complete(status, reason));
+    }
+
+    /**
+     * Asks the given actor without blocking the HTTP dispatcher and builds the route from its reply.
+     * A failed ask is answered with SERVICE_UNAVAILABLE when it timed out or its circuit breaker is open, and with
+     * CONFLICT otherwise, as the blocking version used to do.
+     */
+    private Route askAndThen(RouteTimer timer, GuardedActor actor, Object request, Function<Object, Route> onReply) {
+        return onSuccess(() -> askReply(timer, actor, request), reply -> replyRoute(actor, reply, onReply));
+    }
+
+    /**
+     * Reply of the given actor within the ask timeout of the route, or the exception of the ask when it failed.
+     */
+    private static CompletionStage<Object> askReply(RouteTimer timer, GuardedActor actor, Object request) {
+        long start = System.nanoTime();
+        return actor.ask(request, askTimeout(timer.getRoute().getName())).handle((reply, exception) -> {
+            if (actor == guardedGameRoomManager && !(exception instanceof CircuitBreakerOpenException)) {
+                admission.getControl().recordLatency(System.nanoTime() - start);
+            }
+            if (exception instanceof CompletionException) {
+                exception = exception.getCause();
+            }
+            if (exception instanceof AskTimeoutException) {
+                timer.timedOut();
+            }
+            return exception == null ? reply : exception;
+        });
+    }
+
+    /**
+     * Milliseconds to wait for the reply to a request of the given route ("ask-timeout" in application.conf).
+     */
+    private static long askTimeout(String route) {
+        return askTimeouts.computeIfAbsent(route, key -> {
+            Config timeouts = actorSystem.settings().config().getConfig("ask-timeout");
+            return timeouts.getDuration(timeouts.hasPath(key) ? key : "default", TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private Route replyRoute(GuardedActor actor, Object reply, Function<Object, Route> onReply) {
+        if (reply instanceof CircuitBreakerOpenException) {
+            long wait = ((CircuitBreakerOpenException) reply).remainingDuration().toNanos();
+            log.debug("Main(askAndThen) - Circuit breaker of {} is open", actor.getActor());
+            return rejected(StatusCodes.SERVICE_UNAVAILABLE, wait, "Service unavailable, try again later.");
+        } else if (reply instanceof AskTimeoutException) {
+            log.warning("Main(askAndThen) - Ask to {} timed out", actor.getActor());
+            return complete(StatusCodes.SERVICE_UNAVAILABLE, "Timed out. Operation failed.");
+        } else if (reply instanceof Throwable) {
+            log.error((Throwable) reply, "Main(askAndThen) - Ask to {} failed", actor.getActor());
+            return complete(StatusCodes.CONFLICT, "Exception received. Operation failed.");
+        }
+        return onReply.apply(reply);
+    }
+
 }
@@ -0,0 +1,71 @@
+package ar.com.itba.main;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Values loaded on demand and kept for ttlNanos, shared by the concurrent requests of a route. When maxEntries
+ * are cached the expired ones are dropped, and everything if none had expired.
+ */
+public class TtlCache<K, V> {
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    public TtlCache(long ttlNanos, int maxEntries) {
+        this(ttlNanos, maxEntries, System::nanoTime);
+    }
+
+    TtlCache(long ttlNanos, int maxEntries, LongSupplier clock) {
+        this.ttlNanos = ttlNanos;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    /**
+     * Cached value of the key, loaded again when it is missing or expired. Concurrent callers get the same value.
+     */
+    public V get(K key, Supplier<V> loader) {
+        long now = clock.getAsLong();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && now - entry.loadedAt < ttlNanos) {
+            return entry.value;
+        }
+        if (entries.size() >= maxEntries) {
+            entries.values().removeIf(cached -> now - cached.loadedAt >= ttlNanos);
+            if (entries.size() >= maxEntries) {
+                entries.clear();
+            }
+        }
+        return entries.compute(key, (cachedKey, cached) -> cached != null && now - cached.loadedAt < ttlNanos
+                ? cached
+                : new Entry<>(loader.get(), now)).value;
+    }
+
+    /**
+     * Drops the value of the key if it is still the given one, e.g. a failed load that should not be served again.
+     */
+    public void remove(K key, V value) {
+        entries.computeIfPresent(key, (cachedKey, cached) -> cached.value == value ? null : cached);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    static private class Entry<V> {
+
+        private final V value;
+        private final long loadedAt;
+
+        private Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package ar.com.itba.main;
+
+import akka.dispatch.DispatcherPrerequisites;
+import akka.dispatch.ExecutorServiceConfigurator;
+import akka.dispatch.ExecutorServiceFactory;
+import com.typesafe.config.Config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor of a dispatcher that runs every task on a new virtual thread, so that calls blocked on I/O do not hold
+ * platform threads. Used as the executor of the blocking-io-dispatcher by the java21 Maven profile.
+ *
+ * The build targets Java 8, so the Java 21 API is found by reflection; on an older JVM the dispatcher fails when
+ * it is first looked up.
+ */
+public class VirtualThreadExecutor extends ExecutorServiceConfigurator {
+
+    public final static String EXECUTOR = VirtualThreadExecutor.class.getName();
+
+    public VirtualThreadExecutor(Config config, DispatcherPrerequisites prerequisites) {
+        super(config, prerequisites);
+    }
+
+    /**
+     * Whether this JVM has virtual threads.
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public ExecutorServiceFactory createExecutorServiceFactory(String id, ThreadFactory threadFactory) {
+        try {
+            // Threads are named after the dispatcher like the ones of the other executors
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, id + "-", 0L);
+            ThreadFactory virtualThreads = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method threadPerTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return () -> {
+                try {
+                    return (ExecutorService) threadPerTask.invoke(null, virtualThreads);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Executor of " + id + " not created", e);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21, running on " + System.getProperty("java.version"), e);
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package ar.com.itba.metrics;
+
+import org.HdrHistogram.ConcurrentHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency recorder in microseconds. Recording is wait free and does not allocate, so it can be used on every request.
+ */
+public class LatencyHistogram {
+
+    private final static long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toMicros(1);
+    private final static double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final ConcurrentHistogram histogram = new ConcurrentHistogram(HIGHEST_TRACKABLE, 2);
+    private final LongAdder sum = new LongAdder();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), HIGHEST_TRACKABLE);
+        histogram.recordValue(micros);
+        sum.add(micros);
+    }
+
+    public long getCount() {
+        return histogram.getTotalCount();
+    }
+
+    public long getValueAtQuantile(double quantile) {
+        return histogram.getValueAtPercentile(quantile * 100);
+    }
+
+    /**
+     * Appends this histogram as a Prometheus summary, in seconds, with the given metric name and labels.
+     */
+    void writePrometheus(StringBuilder text, String name, String labels) {
+        for (double quantile : QUANTILES) {
+            text.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(getValueAtQuantile(quantile) / 1e6).append('\n');
+        }
+        text.append(name).append("_sum{").append(labels).append("} ").append(sum.sum() / 1e6).append('\n');
+        text.append(name).append("_count{").append(labels).append("} ").append(getCount()).append('\n');
+    }
+
+}
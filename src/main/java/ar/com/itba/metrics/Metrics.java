@@ -0,0 +1,118 @@
+package ar.com.itba.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms of the HTTP routes and of the actor round-trips, exported in the Prometheus text format.
+ * Histograms are created once per route, outcome and target; recording never looks up a map. The state changes of
+ * the circuit breakers around the asks are counted as well.
+ */
+public class Metrics {
+
+    public enum Outcome { OK, CONFLICT, TIMEOUT, UNAVAILABLE, OTHER }
+
+    public enum BreakerState { CLOSED, OPEN, HALF_OPEN }
+
+    private final static Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+    private final static Map<String, LatencyHistogram> asks = new ConcurrentHashMap<>();
+    private final static Map<String, BreakerMetrics> breakers = new ConcurrentHashMap<>();
+
+    public static RouteMetrics route(String name) {
+        return routes.computeIfAbsent(name, RouteMetrics::new);
+    }
+
+    /**
+     * Round-trip from sending a message to an actor until its reply, by target actor.
+     */
+    public static LatencyHistogram ask(String target) {
+        return asks.computeIfAbsent(target, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Transitions of the circuit breaker around the asks to a target actor.
+     */
+    public static BreakerMetrics breaker(String target) {
+        return breakers.computeIfAbsent(target, key -> new BreakerMetrics());
+    }
+
+    public static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# TYPE http_request_duration_seconds summary\n");
+        for (RouteMetrics route : routes.values()) {
+            for (Outcome outcome : Outcome.values()) {
+                LatencyHistogram histogram = route.outcome(outcome);
+                if (histogram.getCount() > 0) {
+                    histogram.writePrometheus(text, "http_request_duration_seconds",
+                            "route=\"" + route.name + "\",outcome=\"" + outcome.name().toLowerCase() + "\"");
+                }
+            }
+        }
+        text.append("# TYPE actor_ask_duration_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> ask : asks.entrySet()) {
+            ask.getValue().writePrometheus(text, "actor_ask_duration_seconds", "target=\"" + ask.getKey() + "\"");
+        }
+        text.append("# TYPE circuit_breaker_transitions_total counter\n");
+        for (Map.Entry<String, BreakerMetrics> breaker : breakers.entrySet()) {
+            for (BreakerState state : BreakerState.values()) {
+                text.append("circuit_breaker_transitions_total{target=\"").append(breaker.getKey())
+                        .append("\",state=\"").append(state.name().toLowerCase()).append("\"} ")
+                        .append(breaker.getValue().getTransitions(state)).append('\n');
+            }
+        }
+        text.append("# TYPE circuit_breaker_open gauge\n");
+        for (Map.Entry<String, BreakerMetrics> breaker : breakers.entrySet()) {
+            text.append("circuit_breaker_open{target=\"").append(breaker.getKey()).append("\"} ")
+                    .append(breaker.getValue().getState() == BreakerState.CLOSED ? 0 : 1).append('\n');
+        }
+        return text.toString();
+    }
+
+    public static class BreakerMetrics {
+
+        private final AtomicLong[] transitions = new AtomicLong[BreakerState.values().length];
+        private volatile BreakerState state = BreakerState.CLOSED;
+
+        private BreakerMetrics() {
+            for (int i = 0; i < transitions.length; i++) {
+                transitions[i] = new AtomicLong();
+            }
+        }
+
+        public void transitioned(BreakerState state) {
+            this.state = state;
+            transitions[state.ordinal()].incrementAndGet();
+        }
+
+        public long getTransitions(BreakerState state) {
+            return transitions[state.ordinal()].get();
+        }
+
+        public BreakerState getState() {
+            return state;
+        }
+    }
+
+    public static class RouteMetrics {
+
+        private final String name;
+        private final LatencyHistogram[] outcomes = new LatencyHistogram[Outcome.values().length];
+
+        private RouteMetrics(String name) {
+            this.name = name;
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] = new LatencyHistogram();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LatencyHistogram outcome(Outcome outcome) {
+            return outcomes[outcome.ordinal()];
+        }
+    }
+
+}
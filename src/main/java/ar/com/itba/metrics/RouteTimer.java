@@ -0,0 +1,40 @@
+package ar.com.itba.metrics;
+
+/**
+ * Times one HTTP request and records it under the outcome of its response.
+ */
+public class RouteTimer {
+
+    private final Metrics.RouteMetrics route;
+    private final long start = System.nanoTime();
+    private volatile boolean timedOut = false;
+
+    public RouteTimer(Metrics.RouteMetrics route) {
+        this.route = route;
+    }
+
+    public Metrics.RouteMetrics getRoute() {
+        return route;
+    }
+
+    public void timedOut() {
+        timedOut = true;
+    }
+
+    public void completed(int status) {
+        Metrics.Outcome outcome;
+        if (timedOut) {
+            outcome = Metrics.Outcome.TIMEOUT;
+        } else if (status == 200) {
+            outcome = Metrics.Outcome.OK;
+        } else if (status == 409) {
+            outcome = Metrics.Outcome.CONFLICT;
+        } else if (status == 503) {
+            outcome = Metrics.Outcome.UNAVAILABLE;
+        } else {
+            outcome = Metrics.Outcome.OTHER;
+        }
+        route.outcome(outcome).recordNanos(System.nanoTime() - start);
+    }
+
+}
@@ -0,0 +1,288 @@
+package ar.com.itba.tcp;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import ar.com.itba.actors.GameRoom;
+import ar.com.itba.actors.GameRoomManager;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary encoding of the GameRoom operations, carried in frames with a 4 byte length prefix.
+ *
+ * A request is the request id (int), the operation (byte) and its arguments, where strings are written as by
+ * DataOutput.writeUTF and the capacity as a short:
+ * CREATE userId capacity, DELETE gameRoomId, JOIN gameRoomId userId, LEAVE gameRoomId userId, USERS gameRoomId.
+ *
+ * A response is the request id (int), the operation (byte), the status (byte) and its values: the id of the created
+ * GameRoom for CREATE, the count (short) and ids of the users for USERS, the GameRoom of the user for
+ * USER_IS_ALREADY_IN_GAME, and the milliseconds to wait before sending it again (int) for BUSY, the answer to a
+ * request the server did not admit.
+ * Responses of a connection are written as soon as they are ready, so they may not follow the order of the requests.
+ */
+public class BinaryProtocol {
+
+    public final static byte CREATE = 1;
+    public final static byte DELETE = 2;
+    public final static byte JOIN = 3;
+    public final static byte LEAVE = 4;
+    public final static byte USERS = 5;
+
+    public final static byte OK = 0;
+    public final static byte USER_IS_ALREADY_IN_GAME = 1;
+    public final static byte UNKNOWN_GAME_ROOM = 2;
+    public final static byte GAME_ROOM_IS_FULL = 3;
+    public final static byte USER_IS_NOT_IN_GAME_ROOM = 4;
+    public final static byte USER_ALREADY_IN_GAME_ROOM = 5;
+    public final static byte BAD_REQUEST = 6;
+    public final static byte ERROR = 7;
+    public final static byte BUSY = 8;
+
+    public static ByteString createGameRoom(int requestId, String userId, int capacity) {
+        return write(out -> {
+            out.writeInt(requestId);
+            out.writeByte(CREATE);
+            out.writeUTF(userId);
+            out.writeShort(capacity);
+        });
+    }
+
+    public static ByteString deleteGameRoom(int requestId, String gameRoomId) {
+        return gameRoomRequest(requestId, DELETE, gameRoomId);
+    }
+
+    public static ByteString joinGameRoom(int requestId, String gameRoomId, String userId) {
+        return userRequest(requestId, JOIN, gameRoomId, userId);
+    }
+
+    public static ByteString leaveGameRoom(int requestId, String gameRoomId, String userId) {
+        return userRequest(requestId, LEAVE, gameRoomId, userId);
+    }
+
+    public static ByteString getGameRoomUsers(int requestId, String gameRoomId) {
+        return gameRoomRequest(requestId, USERS, gameRoomId);
+    }
+
+    /**
+     * Reads a request frame. A frame whose operation is unknown or whose arguments are malformed gives a request
+     * without message, answered with BAD_REQUEST.
+     */
+    public static Request readRequest(ByteString frame) {
+        DataInputStream in = new DataInputStream(frame.iterator().asInputStream());
+        int requestId;
+        byte operation;
+        try {
+            requestId = in.readInt();
+            operation = in.readByte();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Frame of " + frame.size() + " bytes without request id and operation");
+        }
+        try {
+            switch (operation) {
+                case CREATE:
+                    String userId = in.readUTF();
+                    int capacity = in.readShort();
+                    return new Request(requestId, operation, userId, capacity < 1 || capacity > GameRoom.MAX_CAPACITY
+                            ? null
+                            : new GameRoomManager.CreateGameRoom(userId, capacity));
+                case DELETE:
+                    return new Request(requestId, operation, null, new GameRoomManager.DeleteGameRoom(in.readUTF()));
+                case JOIN:
+                    GameRoomManager.JoinGameRoom join = new GameRoomManager.JoinGameRoom(in.readUTF(), in.readUTF());
+                    return new Request(requestId, operation, join.getUserId(), join);
+                case LEAVE:
+                    GameRoomManager.LeaveGameRoom leave = new GameRoomManager.LeaveGameRoom(in.readUTF(), in.readUTF());
+                    return new Request(requestId, operation, leave.getUserId(), leave);
+                case USERS:
+                    return new Request(requestId, operation, null, new GameRoomManager.GetGameRoomUsers(in.readUTF()));
+                default:
+                    return new Request(requestId, operation, null, null);
+            }
+        } catch (IOException e) {
+            return new Request(requestId, operation, null, null);
+        }
+    }
+
+    /**
+     * Response frame for the reply of the GameRoomManager to the given request.
+     */
+    public static ByteString writeResponse(Request request, Object reply) {
+        return write(out -> {
+            out.writeInt(request.requestId);
+            out.writeByte(request.operation);
+            if (reply instanceof GameRoomManager.GameRoomCreated) {
+                out.writeByte(OK);
+                out.writeUTF(((GameRoomManager.GameRoomCreated) reply).getGameRoomId());
+            } else if (reply instanceof GameRoomManager.GameRoomUsers) {
+                out.writeByte(OK);
+                GameRoomManager.GameRoomUsers users = (GameRoomManager.GameRoomUsers) reply;
+                out.writeShort(users.getSize());
+                for (String userId : users.getUsers()) {
+                    out.writeUTF(userId);
+                }
+            } else if (reply instanceof GameRoomManager.GameRoomDeleted
+                    || reply instanceof GameRoom.JoinGameRoomSuccessfully
+                    || reply instanceof GameRoom.LeaveGameRoomSuccessfully) {
+                out.writeByte(OK);
+            } else if (reply instanceof GameRoomManager.UserIsAlreadyInGame) {
+                out.writeByte(USER_IS_ALREADY_IN_GAME);
+                out.writeUTF(((GameRoomManager.UserIsAlreadyInGame) reply).getGameRoomId());
+            } else {
+                out.writeByte(request.message == null ? BAD_REQUEST : status(reply));
+            }
+        });
+    }
+
+    private static byte status(Object reply) {
+        if (reply instanceof GameRoomManager.UnknownGameRoom) {
+            return UNKNOWN_GAME_ROOM;
+        } else if (reply instanceof GameRoom.GameRoomIsFull) {
+            return GAME_ROOM_IS_FULL;
+        } else if (reply instanceof GameRoom.UserIsNotInGameRoom) {
+            return USER_IS_NOT_IN_GAME_ROOM;
+        } else if (reply instanceof GameRoom.UserAlreadyJoinToGameRoom) {
+            return USER_ALREADY_IN_GAME_ROOM;
+        }
+        return ERROR;
+    }
+
+    /**
+     * BUSY response frame for a request that was not admitted, or that found the GameRoomManager unavailable.
+     */
+    public static ByteString writeBusy(Request request, long waitMillis) {
+        return write(out -> {
+            out.writeInt(request.requestId);
+            out.writeByte(request.operation);
+            out.writeByte(BUSY);
+            out.writeInt((int) Math.min(Integer.MAX_VALUE, waitMillis));
+        });
+    }
+
+    /**
+     * Reads a response frame on the client side.
+     */
+    public static Response readResponse(ByteString frame) {
+        DataInputStream in = new DataInputStream(frame.iterator().asInputStream());
+        try {
+            int requestId = in.readInt();
+            byte operation = in.readByte();
+            byte status = in.readByte();
+            List<String> values = new ArrayList<>();
+            if (status == USER_IS_ALREADY_IN_GAME || (status == OK && operation == CREATE)) {
+                values.add(in.readUTF());
+            } else if (status == OK && operation == USERS) {
+                int count = in.readShort();
+                for (int i = 0; i < count; i++) {
+                    values.add(in.readUTF());
+                }
+            } else if (status == BUSY) {
+                values.add(String.valueOf(in.readInt()));
+            }
+            return new Response(requestId, operation, status, values);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed response of " + frame.size() + " bytes");
+        }
+    }
+
+    private static ByteString gameRoomRequest(int requestId, byte operation, String gameRoomId) {
+        return write(out -> {
+            out.writeInt(requestId);
+            out.writeByte(operation);
+            out.writeUTF(gameRoomId);
+        });
+    }
+
+    private static ByteString userRequest(int requestId, byte operation, String gameRoomId, String userId) {
+        return write(out -> {
+            out.writeInt(requestId);
+            out.writeByte(operation);
+            out.writeUTF(gameRoomId);
+            out.writeUTF(userId);
+        });
+    }
+
+    private static ByteString write(Writer writer) {
+        ByteStringBuilder builder = new ByteStringBuilder();
+        try (DataOutputStream out = new DataOutputStream(builder.asOutputStream())) {
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return builder.result();
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public static class Request {
+
+        private final int requestId;
+        private final byte operation;
+        // User the request is made for, whose rate it counts against, null when there is none
+        private final String userId;
+        // GameRoomManager message, null for a malformed request
+        private final Object message;
+
+        Request(int requestId, byte operation, String userId, Object message) {
+            this.requestId = requestId;
+            this.operation = operation;
+            this.userId = userId;
+            this.message = message;
+        }
+
+        public int getRequestId() {
+            return requestId;
+        }
+
+        public byte getOperation() {
+            return operation;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public Object getMessage() {
+            return message;
+        }
+    }
+
+    public static class Response {
+
+        private final int requestId;
+        private final byte operation;
+        private final byte status;
+        private final List<String> values;
+
+        Response(int requestId, byte operation, byte status, List<String> values) {
+            this.requestId = requestId;
+            this.operation = operation;
+            this.status = status;
+            this.values = Collections.unmodifiableList(values);
+        }
+
+        public int getRequestId() {
+            return requestId;
+        }
+
+        public byte getOperation() {
+            return operation;
+        }
+
+        public byte getStatus() {
+            return status;
+        }
+
+        public List<String> getValues() {
+            return values;
+        }
+    }
+
+}
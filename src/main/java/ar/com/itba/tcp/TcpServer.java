@@ -0,0 +1,104 @@
+package ar.com.itba.tcp;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.pattern.AskTimeoutException;
+import akka.pattern.CircuitBreakerOpenException;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Tcp;
+import akka.stream.javadsl.Tcp$;
+import akka.util.ByteString;
+import ar.com.itba.admission.Admission;
+import ar.com.itba.main.GuardedActor;
+import ar.com.itba.metrics.Metrics;
+import ar.com.itba.metrics.RouteTimer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the GameRoom operations in the BinaryProtocol over raw TCP. Up to pipelining requests of a connection
+ * are asked to the GameRoomManager at once, and each response is written as soon as its reply arrives.
+ * Requests go through the same admission as the HTTP routes and the same circuit breaker of the GameRoomManager;
+ * the ones shed, rate limited or refused by the open breaker are answered with BUSY.
+ */
+public class TcpServer {
+
+    public final static int MAX_FRAME = 64 * 1024;
+    public final static Metrics.RouteMetrics TCP_REQUEST = Metrics.route("tcp_request");
+
+    private final GuardedActor gameRoomManager;
+    private final Admission admission;
+    private final long timeOut;
+    private final int pipelining;
+
+    public TcpServer(GuardedActor gameRoomManager, Admission admission, long timeOut, int pipelining) {
+        this.gameRoomManager = gameRoomManager;
+        this.admission = admission;
+        this.timeOut = timeOut;
+        this.pipelining = pipelining;
+    }
+
+    public CompletionStage<Tcp.ServerBinding> bind(ActorSystem system, Materializer materializer, String host, int port) {
+        LoggingAdapter log = Logging.getLogger(system, TcpServer.class);
+        Flow<ByteString, ByteString, NotUsed> protocol = flow();
+        return Tcp$.MODULE$.get(system).bind(host, port)
+                .to(Sink.foreach(connection -> {
+                    log.debug("TcpServer(bind) - Connection from {}", connection.remoteAddress());
+                    connection.handleWith(protocol, materializer);
+                }))
+                .run(materializer);
+    }
+
+    /**
+     * Frames in, frames out. A frame too short to have a request id fails the connection.
+     */
+    public Flow<ByteString, ByteString, NotUsed> flow() {
+        Flow<ByteString, ByteString, NotUsed> frames = Flow.of(ByteString.class)
+                .map(BinaryProtocol::readRequest)
+                .mapAsyncUnordered(pipelining, this::handle);
+        return Framing.simpleFramingProtocol(MAX_FRAME).reversed().join(frames);
+    }
+
+    private CompletionStage<ByteString> handle(BinaryProtocol.Request request) {
+        RouteTimer timer = new RouteTimer(TCP_REQUEST);
+        if (request.getMessage() == null) {
+            return CompletableFuture.completedFuture(response(timer, request, null));
+        }
+        Admission.Verdict verdict = admission.admit(request.getUserId());
+        if (!verdict.isAdmitted()) {
+            timer.completed(verdict.getOutcome() == Admission.Outcome.OVERLOADED ? 503 : 429);
+            return CompletableFuture.completedFuture(BinaryProtocol.writeBusy(request, TimeUnit.NANOSECONDS.toMillis(verdict.getWaitNanos())));
+        }
+        long start = System.nanoTime();
+        return gameRoomManager.ask(request.getMessage(), timeOut).handle((reply, exception) -> {
+            if (exception instanceof CompletionException) {
+                exception = exception.getCause();
+            }
+            if (exception instanceof CircuitBreakerOpenException) {
+                timer.completed(503);
+                return BinaryProtocol.writeBusy(request, ((CircuitBreakerOpenException) exception).remainingDuration().toMillis());
+            }
+            admission.getControl().recordLatency(System.nanoTime() - start);
+            if (exception instanceof AskTimeoutException) {
+                timer.timedOut();
+            }
+            return response(timer, request, exception == null ? reply : exception);
+        });
+    }
+
+    private static ByteString response(RouteTimer timer, BinaryProtocol.Request request, Object reply) {
+        ByteString response = BinaryProtocol.writeResponse(request, reply);
+        byte status = response.apply(5);
+        timer.completed(status == BinaryProtocol.OK ? 200 : status == BinaryProtocol.BAD_REQUEST ? 400 : status == BinaryProtocol.ERROR ? 500 : 409);
+        return response;
+    }
+
+}
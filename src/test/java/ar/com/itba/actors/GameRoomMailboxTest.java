@@ -0,0 +1,58 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MessageQueue;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+import scala.Option;
+
+/**
+ * Unit test for the bounded, control aware mailbox of the GameRooms.
+ */
+public class GameRoomMailboxTest extends TestCase {
+
+    private ActorSystem system;
+    private MessageQueue queue;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("GameRoomMailboxTest");
+        queue = new GameRoomMailbox(system.settings(), ConfigFactory.parseString("mailbox-capacity = 10"))
+                .create(Option.apply(null), Option.apply(system));
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    public void testRejectsGameplayMessagesBeyondItsCapacity() {
+        TestKit connection = new TestKit(system);
+
+        for (int i = 0; i < 10000; i++) {
+            queue.enqueue(ActorRef.noSender(), Envelope.apply(new GameRoom.SendMessage("user", "flood " + i), connection.getRef(), system));
+        }
+
+        assertEquals(10, queue.numberOfMessages());
+        connection.receiveN(9990);
+        connection.expectNoMsg();
+    }
+
+    public void testDeliversControlMessagesFirstEvenWhenFull() {
+        TestKit connection = new TestKit(system);
+        for (int i = 0; i < 20; i++) {
+            queue.enqueue(ActorRef.noSender(), Envelope.apply(new GameRoom.SendMessage("user", "flood " + i), connection.getRef(), system));
+        }
+        GameRoom.LeaveGameRoom leave = new GameRoom.LeaveGameRoom("user", connection.getRef());
+
+        queue.enqueue(ActorRef.noSender(), Envelope.apply(leave, connection.getRef(), system));
+
+        assertEquals(11, queue.numberOfMessages());
+        assertSame(leave, queue.dequeue().message());
+        assertTrue(queue.dequeue().message() instanceof GameRoom.SendMessage);
+    }
+
+}
@@ -0,0 +1,145 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.cluster.Cluster$;
+import akka.cluster.Member;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test of the GameRoomManager shards spread over a cluster of two nodes, each one an ActorSystem of its own.
+ */
+public class GameRoomManagerClusterTest extends TestCase {
+
+    private final static int SHARDS = 10;
+    private final static FiniteDuration FORMATION = Duration.create(20, TimeUnit.SECONDS);
+
+    private ActorSystem first;
+    private ActorSystem second;
+
+    @Override
+    protected void setUp() {
+        first = node();
+        second = node();
+        Cluster cluster = Cluster$.MODULE$.get(first);
+        cluster.join(cluster.selfAddress());
+        Cluster$.MODULE$.get(second).join(cluster.selfAddress());
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(second);
+        TestKit.shutdownActorSystem(first);
+    }
+
+    private static ActorSystem node() {
+        Config config = ConfigFactory.parseString("akka.actor.provider = cluster\n"
+                + "akka.remote.netty.tcp.hostname = \"127.0.0.1\"\n"
+                + "akka.remote.netty.tcp.port = 0\n"
+                + "akka.persistence.snapshot-store.local.dir = \"target/snapshots/" + UUID.randomUUID() + "\"")
+                .withFallback(ConfigFactory.load("test"));
+        return ActorSystem.create("GameRoomManagerClusterTest", config);
+    }
+
+    /**
+     * Router of the given node, over the shards of the whole cluster.
+     */
+    private ActorRef router(ActorSystem system, ActorRef region) {
+        return system.actorOf(GameRoomManagerRouter.props(SHARDS, region));
+    }
+
+    private String create(ActorRef router, TestKit probe, String userId) {
+        router.tell(new GameRoomManager.CreateGameRoom(userId), probe.getRef());
+        return probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+    }
+
+    private boolean hostedByFirst(ActorRef router, TestKit probe, String gameRoomId) {
+        router.tell(new GameRoomManager.GetGameRoom(gameRoomId), probe.getRef());
+        return probe.expectMsgClass(GameRoomManager.GameRoomRef.class).getGameRoom().path().address().hasLocalScope();
+    }
+
+    public void testUserIsInOneGameRoomAcrossNodes() {
+        TestKit probe = new TestKit(first);
+        probe.awaitAssert(FORMATION, () -> {
+            for (ActorSystem system : Arrays.asList(first, second)) {
+                int up = 0;
+                for (Member member : Cluster$.MODULE$.get(system).state().getMembers()) {
+                    up += member.status() == MemberStatus.up() ? 1 : 0;
+                }
+                assertEquals(2, up);
+            }
+            return null;
+        });
+        ActorRef firstRegion = GameRoomManagerRouter.startRegion(first, SHARDS, new GameRoomDirectory());
+        ActorRef secondRegion = GameRoomManagerRouter.startRegion(second, SHARDS, new GameRoomDirectory());
+        // Shards are allocated to the region with the fewest of them, so to both once both are registered
+        probe.awaitAssert(FORMATION, () -> {
+            firstRegion.tell(ShardRegion.getCurrentRegionsInstance(), probe.getRef());
+            assertEquals(2, probe.expectMsgClass(ShardRegion.CurrentRegions.class).getRegions().size());
+            return null;
+        });
+        ActorRef firstRouter = router(first, firstRegion);
+        ActorRef secondRouter = router(second, secondRegion);
+
+        // A GameRoom owned by a user on each node
+        List<String> firstGameRooms = new ArrayList<>();
+        List<String> secondGameRooms = new ArrayList<>();
+        List<String> secondOwners = new ArrayList<>();
+        for (int i = 0; i < 2 * SHARDS && (firstGameRooms.isEmpty() || secondGameRooms.isEmpty()); i++) {
+            String gameRoomId = create(firstRouter, probe, "owner" + i);
+            if (hostedByFirst(firstRouter, probe, gameRoomId)) {
+                firstGameRooms.add(gameRoomId);
+            } else {
+                secondGameRooms.add(gameRoomId);
+                secondOwners.add("owner" + i);
+            }
+        }
+        assertFalse("No GameRoom on the first node", firstGameRooms.isEmpty());
+        assertFalse("No GameRoom on the second node", secondGameRooms.isEmpty());
+        String user = secondOwners.get(0);
+        String userGameRoomId = secondGameRooms.get(0);
+        String otherGameRoomId = firstGameRooms.get(0);
+
+        // Whichever node is asked, the user can not join a GameRoom hosted by the other one. The probe of each
+        // node is local to its ActorSystem, since both have the same name
+        TestKit secondProbe = new TestKit(second);
+        firstRouter.tell(new GameRoomManager.JoinGameRoom(otherGameRoomId, user), probe.getRef());
+        assertEquals(userGameRoomId, probe.expectMsgClass(GameRoomManager.UserIsAlreadyInGame.class).getGameRoomId());
+        secondRouter.tell(new GameRoomManager.JoinGameRoom(otherGameRoomId, user), secondProbe.getRef());
+        assertEquals(userGameRoomId, secondProbe.expectMsgClass(GameRoomManager.UserIsAlreadyInGame.class).getGameRoomId());
+        // Nor be in a GameRoom created on the other node with other users
+        String newcomer = null;
+        for (int i = 0; newcomer == null; i++) {
+            if (GameRoomManagerRouter.shardOf(otherGameRoomId, SHARDS) == Math.floorMod(("newcomer" + i).hashCode(), SHARDS)) {
+                newcomer = "newcomer" + i;
+            }
+        }
+        secondRouter.tell(new GameRoomManager.CreateGameRoomWithUsers(Arrays.asList(newcomer, user), GameRoom.DEFAULT_CAPACITY), secondProbe.getRef());
+        assertEquals(Collections.singleton(user), secondProbe.expectMsgClass(GameRoomManager.UsersAreAlreadyInGame.class).getUserIds());
+
+        // Once it leaves its GameRoom it can join the other one
+        secondRouter.tell(new GameRoomManager.LeaveGameRoom(userGameRoomId, user), secondProbe.getRef());
+        secondProbe.expectMsgClass(GameRoom.LeaveGameRoomSuccessfully.class);
+        probe.awaitAssert(() -> {
+            firstRouter.tell(new GameRoomManager.JoinGameRoom(otherGameRoomId, user), probe.getRef());
+            probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+            return null;
+        });
+    }
+
+}
@@ -0,0 +1,169 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many clients joining, leaving, creating and deleting GameRooms at once, checking that a user is never in two
+ * GameRooms and that the index of the users agrees with the members of the GameRooms.
+ */
+public class GameRoomManagerConcurrencyTest extends TestCase {
+
+    private final static int CLIENTS = 8;
+
+    private ActorSystem system;
+    private ExecutorService clients;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("GameRoomManagerConcurrencyTest", ConfigFactory
+                .parseString("akka.persistence.snapshot-store.local.dir = \"target/snapshots/" + UUID.randomUUID() + "\"")
+                .withFallback(ConfigFactory.load("test")));
+        clients = Executors.newFixedThreadPool(CLIENTS);
+    }
+
+    @Override
+    protected void tearDown() {
+        clients.shutdownNow();
+        TestKit.shutdownActorSystem(system);
+    }
+
+    private void runClients(Callable<Void> client) throws Exception {
+        List<Future<Void>> running = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            running.add(clients.submit(client));
+        }
+        for (Future<Void> future : running) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private List<String> createGameRooms(ActorRef manager, int count, int capacity) {
+        TestKit probe = new TestKit(system);
+        List<String> gameRoomIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            manager.tell(new GameRoomManager.CreateGameRoom("owner" + i, capacity), probe.getRef());
+            gameRoomIds.add(probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId());
+        }
+        return gameRoomIds;
+    }
+
+    /**
+     * Every user is in at most one GameRoom, and only a user in none of them can create one.
+     */
+    private void assertConsistent(ActorRef manager, List<String> gameRoomIds, List<String> userIds) {
+        TestKit probe = new TestKit(system);
+        Map<String, String> members = new HashMap<>();
+        for (String gameRoomId : gameRoomIds) {
+            manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+            Object reply = probe.expectMsgAnyClassOf(GameRoomManager.GameRoomUsers.class, GameRoomManager.UnknownGameRoom.class);
+            if (reply instanceof GameRoomManager.GameRoomUsers) {
+                for (String userId : ((GameRoomManager.GameRoomUsers) reply).getUsers()) {
+                    assertNull("User(id: " + userId + ") is in two GameRooms", members.put(userId, gameRoomId));
+                }
+            }
+        }
+        for (String userId : userIds) {
+            manager.tell(new GameRoomManager.CreateGameRoom(userId), probe.getRef());
+            Object reply = probe.expectMsgAnyClassOf(GameRoomManager.GameRoomCreated.class, GameRoomManager.UserIsAlreadyInGame.class);
+            if (members.containsKey(userId)) {
+                assertEquals(members.get(userId), ((GameRoomManager.UserIsAlreadyInGame) reply).getGameRoomId());
+            } else {
+                assertTrue("User(id: " + userId + ") is held by no GameRoom", reply instanceof GameRoomManager.GameRoomCreated);
+            }
+        }
+    }
+
+    public void testUserJoinsOnlyOneOfManyGameRooms() throws Exception {
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(4));
+        List<String> gameRoomIds = createGameRooms(manager, CLIENTS, 100);
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            userIds.add("user" + i);
+        }
+
+        // Each client tries to put every user in its own GameRoom
+        AtomicInteger nextGameRoom = new AtomicInteger();
+        AtomicInteger joins = new AtomicInteger();
+        runClients(() -> {
+            String gameRoomId = gameRoomIds.get(nextGameRoom.getAndIncrement());
+            TestKit probe = new TestKit(system);
+            for (String userId : userIds) {
+                manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, userId), probe.getRef());
+            }
+            for (int i = 0; i < userIds.size(); i++) {
+                Object reply = probe.expectMsgAnyClassOf(GameRoom.JoinGameRoomSuccessfully.class, GameRoomManager.UserIsAlreadyInGame.class);
+                if (reply instanceof GameRoom.JoinGameRoomSuccessfully) {
+                    joins.incrementAndGet();
+                }
+            }
+            return null;
+        });
+
+        // Exactly one join per user succeeded
+        assertEquals(userIds.size(), joins.get());
+        TestKit probe = new TestKit(system);
+        probe.awaitAssert(() -> {
+            assertConsistent(manager, gameRoomIds, new ArrayList<>());
+            return null;
+        });
+        assertConsistent(manager, gameRoomIds, userIds);
+    }
+
+    public void testRandomOperationsKeepUsersConsistent() throws Exception {
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(4));
+        List<String> gameRoomIds = createGameRooms(manager, 6, 3);
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            userIds.add("player" + i);
+        }
+
+        runClients(() -> {
+            Random random = new Random();
+            TestKit probe = new TestKit(system);
+            for (int i = 0; i < 300; i++) {
+                String gameRoomId = gameRoomIds.get(random.nextInt(gameRoomIds.size()));
+                String userId = userIds.get(random.nextInt(userIds.size()));
+                int operation = random.nextInt(20);
+                if (operation == 0) {
+                    manager.tell(new GameRoomManager.DeleteGameRoom(gameRoomId), probe.getRef());
+                } else if (operation < 10) {
+                    manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, userId), probe.getRef());
+                } else if (operation < 13) {
+                    List<String> party = new ArrayList<>();
+                    party.add(userId);
+                    party.add(userIds.get(random.nextInt(userIds.size())));
+                    manager.tell(new GameRoomManager.JoinGameRoomWithUsers(gameRoomId, party), probe.getRef());
+                } else {
+                    manager.tell(new GameRoomManager.LeaveGameRoom(gameRoomId, userId), probe.getRef());
+                }
+                probe.expectMsgClass(Object.class);
+            }
+            return null;
+        });
+
+        TestKit probe = new TestKit(system);
+        probe.awaitAssert(() -> {
+            assertConsistent(manager, gameRoomIds, new ArrayList<>());
+            return null;
+        });
+        assertConsistent(manager, gameRoomIds, userIds);
+    }
+
+}
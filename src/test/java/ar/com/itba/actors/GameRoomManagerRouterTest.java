@@ -0,0 +1,216 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the sharded GameRoomManager.
+ */
+public class GameRoomManagerRouterTest extends TestCase {
+
+    private ActorSystem system;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("GameRoomManagerRouterTest", ConfigFactory
+                .parseString("akka.persistence.snapshot-store.local.dir = \"target/snapshots/" + UUID.randomUUID() + "\"")
+                .withFallback(ConfigFactory.load("test")));
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    public void testShardOfFollowsInterleavedIds() {
+        assertEquals(0, GameRoomManagerRouter.shardOf("1", 4));
+        assertEquals(3, GameRoomManagerRouter.shardOf("4", 4));
+        assertEquals(0, GameRoomManagerRouter.shardOf("5", 4));
+        assertEquals(0, GameRoomManagerRouter.shardOf("unknown", 4));
+    }
+
+    public void testUserCanOnlyBeInOneGameRoomAcrossShards() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(4));
+
+        String[] gameRoomIds = new String[8];
+        for (int i = 0; i < gameRoomIds.length; i++) {
+            manager.tell(new GameRoomManager.CreateGameRoom("owner" + i), probe.getRef());
+            gameRoomIds[i] = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        }
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner0"), probe.getRef());
+        assertEquals(gameRoomIds[0], probe.expectMsgClass(GameRoomManager.UserIsAlreadyInGame.class).getGameRoomId());
+
+        for (String gameRoomId : gameRoomIds) {
+            if (!gameRoomId.equals(gameRoomIds[0])) {
+                manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "owner0"), probe.getRef());
+                probe.expectMsgClass(GameRoomManager.UserIsAlreadyInGame.class);
+            }
+        }
+
+        manager.tell(new GameRoomManager.JoinGameRoom(gameRoomIds[5], "guest"), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+
+        manager.tell(new GameRoomManager.GetGameRoomList(), probe.getRef());
+        assertEquals(gameRoomIds.length, probe.expectMsgClass(GameRoomManager.GameRoomList.class).getList().size());
+    }
+
+    public void testDeleteGameRoomReleasesItsUsers() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(2));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner"), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "guest"), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+
+        manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+        assertEquals(2, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+
+        manager.tell(new GameRoomManager.DeleteGameRoom(gameRoomId), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.GameRoomDeleted.class);
+        manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.UnknownGameRoom.class);
+
+        manager.tell(new GameRoomManager.CreateGameRoom("guest"), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.GameRoomCreated.class);
+    }
+
+    public void testPagesGameRoomsAcrossShards() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(3));
+
+        for (int i = 0; i < 12; i++) {
+            manager.tell(new GameRoomManager.CreateGameRoom("owner" + i, i % 2 == 0 ? 1 : 3), probe.getRef());
+            probe.expectMsgClass(GameRoomManager.GameRoomCreated.class);
+        }
+
+        List<String> gameRoomIds = new ArrayList<>();
+        String after = null;
+        do {
+            manager.tell(new GameRoomManager.GetGameRoomPage(after, 5, false, null), probe.getRef());
+            GameRoomManager.GameRoomPage page = probe.expectMsgClass(GameRoomManager.GameRoomPage.class);
+            assertTrue(page.getGameRooms().size() <= 5);
+            for (GameRoomManager.GameRoomSummary gameRoom : page.getGameRooms()) {
+                gameRoomIds.add(gameRoom.getGameRoomId());
+            }
+            after = page.getNext();
+        } while (after != null);
+        List<String> sorted = new ArrayList<>(gameRoomIds);
+        sorted.sort(GameRoomManager.GAME_ROOM_ORDER);
+        assertEquals(12, new HashSet<>(gameRoomIds).size());
+        assertEquals(sorted, gameRoomIds);
+
+        // Only the GameRooms of capacity 3 have free places
+        manager.tell(new GameRoomManager.GetGameRoomPage(null, 100, true, null), probe.getRef());
+        GameRoomManager.GameRoomPage open = probe.expectMsgClass(GameRoomManager.GameRoomPage.class);
+        assertEquals(6, open.getGameRooms().size());
+        assertNull(open.getNext());
+
+        manager.tell(new GameRoomManager.GetGameRoomPage(null, 100, false, "owner7"), probe.getRef());
+        List<GameRoomManager.GameRoomSummary> owned = probe.expectMsgClass(GameRoomManager.GameRoomPage.class).getGameRooms();
+        assertEquals(1, owned.size());
+        assertEquals("owner7", owned.get(0).getOwnerId());
+        assertEquals(1, owned.get(0).getUsers());
+        assertEquals(3, owned.get(0).getCapacity());
+    }
+
+    public void testJoinsAndLeavesUsersAllOrNothing() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(2));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner", 4), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.CreateGameRoom("busy"), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.GameRoomCreated.class);
+
+        // Nobody joins when one of the users is already playing or they do not fit
+        manager.tell(new GameRoomManager.JoinGameRoomWithUsers(gameRoomId, Arrays.asList("a", "busy")), probe.getRef());
+        assertEquals(Collections.singleton("busy"), probe.expectMsgClass(GameRoomManager.UsersAreAlreadyInGame.class).getUserIds());
+        manager.tell(new GameRoomManager.JoinGameRoomWithUsers(gameRoomId, Arrays.asList("a", "b", "c", "d")), probe.getRef());
+        probe.expectMsgClass(GameRoom.GameRoomIsFull.class);
+
+        manager.tell(new GameRoomManager.JoinGameRoomWithUsers(gameRoomId, Arrays.asList("a", "b", "c")), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        probe.awaitAssert(() -> {
+            manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+            assertEquals(4, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+            return null;
+        });
+        manager.tell(new GameRoomManager.CreateGameRoom("c"), probe.getRef());
+        assertEquals(gameRoomId, probe.expectMsgClass(GameRoomManager.UserIsAlreadyInGame.class).getGameRoomId());
+
+        manager.tell(new GameRoomManager.LeaveGameRoomWithUsers(gameRoomId, Arrays.asList("a", "stranger")), probe.getRef());
+        assertEquals(Collections.singleton("stranger"), probe.expectMsgClass(GameRoom.UsersAreNotInGameRoom.class).getUserIds());
+        manager.tell(new GameRoomManager.LeaveGameRoomWithUsers(gameRoomId, Arrays.asList("a", "b")), probe.getRef());
+        probe.expectMsgClass(GameRoom.LeaveGameRoomSuccessfully.class);
+        probe.awaitAssert(() -> {
+            manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+            assertEquals(2, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+            return null;
+        });
+        manager.tell(new GameRoomManager.CreateGameRoom("a"), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.GameRoomCreated.class);
+    }
+
+    /**
+     * The shards are played by a probe standing for the Cluster Sharding region, that leaves one of them unanswered.
+     */
+    public void testCountsWithoutShardsThatDoNotAnswer() {
+        TestKit probe = new TestKit(system);
+        TestKit region = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(3, region.getRef()));
+
+        manager.tell(new GameRoomManager.GetGameRoomCount(), probe.getRef());
+        for (int i = 0; i < 3; i++) {
+            GameRoomManager.ShardEnvelope envelope = region.expectMsgClass(GameRoomManager.ShardEnvelope.class);
+            if (envelope.getShardId() != 1) {
+                region.reply(new GameRoomManager.GameRoomCount(2, 5));
+            }
+        }
+        GameRoomManager.GameRoomCount count = probe.expectMsgClass(Duration.create(10, TimeUnit.SECONDS), GameRoomManager.GameRoomCount.class);
+        assertEquals(4, count.getGameRooms());
+        assertEquals(10, count.getUsers());
+        assertEquals(Collections.singletonList(1), count.getMissingShards());
+    }
+
+    public void testStartsStoppedShardsAgain() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(2));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner"), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.GetGameRoom(gameRoomId), probe.getRef());
+        ActorRef gameRoom = probe.expectMsgClass(GameRoomManager.GameRoomRef.class).getGameRoom();
+        system.actorSelection(gameRoom.path().parent()).tell(new Identify(gameRoomId), probe.getRef());
+        ActorRef shard = probe.expectMsgClass(ActorIdentity.class).getActorRef().get();
+        probe.watch(shard);
+        system.stop(shard);
+        probe.expectTerminated(shard);
+
+        // Once started again the shard has recovered its GameRoom and its users
+        probe.awaitAssert(GameRoomManagerRouter.SHARD_MIN_BACKOFF.mul(5), () -> {
+            manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+            assertEquals(1, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+            return null;
+        });
+        manager.tell(new GameRoomManager.CreateGameRoom("owner"), probe.getRef());
+        assertEquals(gameRoomId, probe.expectMsgClass(GameRoomManager.UserIsAlreadyInGame.class).getGameRoomId());
+    }
+
+}
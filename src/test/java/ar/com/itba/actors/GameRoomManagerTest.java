@@ -0,0 +1,239 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+import scala.concurrent.duration.Duration;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the recovery of the event sourced GameRoomManager shards and the passivation of idle GameRooms.
+ */
+public class GameRoomManagerTest extends TestCase {
+
+    private ActorSystem system;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("GameRoomManagerTest", ConfigFactory
+                .parseString("akka.persistence.snapshot-store.local.dir = \"target/snapshots/" + UUID.randomUUID() + "\"\n"
+                        + "game-room.idle-timeout = 300ms")
+                .withFallback(ConfigFactory.load("test")));
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    private void restart(TestKit probe, ActorRef manager) {
+        probe.watch(manager);
+        system.stop(manager);
+        probe.expectTerminated(manager);
+    }
+
+    public void testRecoversGameRoomsAndUsers() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(2));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner"), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "guest"), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        manager.tell(new GameRoomManager.CreateGameRoom("deleted"), probe.getRef());
+        String deletedGameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.DeleteGameRoom(deletedGameRoomId), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.GameRoomDeleted.class);
+        // The join is journaled once the GameRoom reports it, wait for it before stopping
+        probe.awaitAssert(() -> {
+            manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+            assertEquals(2, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+            return null;
+        });
+
+        restart(probe, manager);
+        ActorRef recovered = system.actorOf(GameRoomManagerRouter.props(2));
+
+        recovered.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+        assertEquals(2, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+        recovered.tell(new GameRoomManager.GetGameRoomUsers(deletedGameRoomId), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.UnknownGameRoom.class);
+        recovered.tell(new GameRoomManager.CreateGameRoom("guest"), probe.getRef());
+        assertEquals(gameRoomId, probe.expectMsgClass(GameRoomManager.UserIsAlreadyInGame.class).getGameRoomId());
+
+        // The recovered GameRoom still counts its users against the limit
+        recovered.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "third"), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        recovered.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "fourth"), probe.getRef());
+        probe.expectMsgClass(GameRoom.GameRoomIsFull.class);
+
+        // Ids are not reused after a restart
+        Set<String> gameRoomIds = new HashSet<>();
+        gameRoomIds.add(gameRoomId);
+        gameRoomIds.add(deletedGameRoomId);
+        for (int i = 0; i < 4; i++) {
+            recovered.tell(new GameRoomManager.CreateGameRoom("owner" + i), probe.getRef());
+            assertTrue(gameRoomIds.add(probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId()));
+        }
+    }
+
+    public void testRecoversFromSnapshot() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(1));
+
+        int gameRooms = GameRoomManager.SNAPSHOT_INTERVAL + 10;
+        for (int i = 0; i < gameRooms; i++) {
+            manager.tell(new GameRoomManager.CreateGameRoom("owner" + i), probe.getRef());
+        }
+        for (int i = 0; i < gameRooms; i++) {
+            probe.expectMsgClass(GameRoomManager.GameRoomCreated.class);
+        }
+
+        restart(probe, manager);
+        ActorRef recovered = system.actorOf(GameRoomManagerRouter.props(1));
+
+        recovered.tell(new GameRoomManager.GetGameRoomCount(), probe.getRef());
+        GameRoomManager.GameRoomCount count = probe.expectMsgClass(GameRoomManager.GameRoomCount.class);
+        assertEquals(gameRooms, count.getGameRooms());
+        assertEquals(gameRooms, count.getUsers());
+        recovered.tell(new GameRoomManager.CreateGameRoom("last"), probe.getRef());
+        assertEquals(String.valueOf(gameRooms + 1), probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId());
+    }
+
+    public void testDeletesIdleEmptyGameRooms() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(1));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner"), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.LeaveGameRoom(gameRoomId, "owner"), probe.getRef());
+        probe.expectMsgClass(GameRoom.LeaveGameRoomSuccessfully.class);
+
+        probe.awaitAssert(Duration.create(5, TimeUnit.SECONDS), () -> {
+            manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+            probe.expectMsgClass(GameRoomManager.UnknownGameRoom.class);
+            return null;
+        });
+        manager.tell(new GameRoomManager.GetGameRoomCount(), probe.getRef());
+        assertEquals(0, probe.expectMsgClass(GameRoomManager.GameRoomCount.class).getGameRooms());
+    }
+
+    public void testKeepsIdleEmptyGameRoomsWithPendingJoins() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(1));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner"), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.LeaveGameRoom(gameRoomId, "owner"), probe.getRef());
+        probe.expectMsgClass(GameRoom.LeaveGameRoomSuccessfully.class);
+        manager.tell(new GameRoomManager.GetGameRoom(gameRoomId), probe.getRef());
+        ActorRef gameRoom = probe.expectMsgClass(GameRoomManager.GameRoomRef.class).getGameRoom();
+
+        // The GameRoom reports itself idle while a join to it is reserved
+        ActorSelection shard = system.actorSelection(gameRoom.path().parent());
+        shard.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "guest"), probe.getRef());
+        shard.tell(new GameRoomManager.GameRoomIdle(gameRoomId), gameRoom);
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+
+        probe.awaitAssert(() -> {
+            manager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+            assertEquals(1, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+            return null;
+        });
+    }
+
+    public void testPassivatesIdleGameRoomsWithUsers() {
+        TestKit probe = new TestKit(system);
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(1));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner", 3), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "guest"), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        manager.tell(new GameRoomManager.GetGameRoom(gameRoomId), probe.getRef());
+        ActorRef gameRoom = probe.expectMsgClass(GameRoomManager.GameRoomRef.class).getGameRoom();
+
+        probe.watch(gameRoom);
+        probe.expectTerminated(Duration.create(5, TimeUnit.SECONDS), gameRoom);
+
+        // The next message starts it again with the users it had
+        manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "third"), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "fourth"), probe.getRef());
+        probe.expectMsgClass(GameRoom.GameRoomIsFull.class);
+        manager.tell(new GameRoomManager.GetGameRoom(gameRoomId), probe.getRef());
+        assertNotSame(gameRoom, probe.expectMsgClass(GameRoomManager.GameRoomRef.class).getGameRoom());
+        manager.tell(new GameRoomManager.CreateGameRoom("guest"), probe.getRef());
+        assertEquals(gameRoomId, probe.expectMsgClass(GameRoomManager.UserIsAlreadyInGame.class).getGameRoomId());
+    }
+
+    public void testDirectoryFollowsGameRooms() {
+        TestKit probe = new TestKit(system);
+        GameRoomDirectory directory = new GameRoomDirectory();
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(2, directory));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner"), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.CreateGameRoom("deleted"), probe.getRef());
+        String deletedGameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.GetGameRoom(gameRoomId), probe.getRef());
+        ActorRef gameRoom = probe.expectMsgClass(GameRoomManager.GameRoomRef.class).getGameRoom();
+        assertEquals(gameRoom.path().toString(), directory.address(gameRoomId));
+
+        manager.tell(new GameRoomManager.DeleteGameRoom(deletedGameRoomId), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.GameRoomDeleted.class);
+        assertNull(directory.address(deletedGameRoomId));
+        assertEquals(1, directory.size());
+        manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "guest"), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        probe.awaitAssert(() -> {
+            assertEquals(2, directory.users());
+            return null;
+        });
+
+        // Stopped shards take their GameRooms out, recovered ones put them back
+        restart(probe, manager);
+        assertEquals(0, directory.size());
+        assertEquals(0, directory.users());
+        ActorRef recovered = system.actorOf(GameRoomManagerRouter.props(2, directory));
+        recovered.tell(new GameRoomManager.GetGameRoom(gameRoomId), probe.getRef());
+        ActorRef recoveredGameRoom = probe.expectMsgClass(GameRoomManager.GameRoomRef.class).getGameRoom();
+        assertEquals(recoveredGameRoom.path().toString(), directory.address(gameRoomId));
+        assertNull(directory.address(deletedGameRoomId));
+        assertEquals(2, directory.users());
+        assertTrue(directory.hostsShardOf(deletedGameRoomId, 2));
+    }
+
+    public void testAnswersAddressWithoutStartingGameRoom() {
+        TestKit probe = new TestKit(system);
+        GameRoomDirectory directory = new GameRoomDirectory();
+        ActorRef manager = system.actorOf(GameRoomManagerRouter.props(1, directory));
+
+        manager.tell(new GameRoomManager.CreateGameRoom("owner"), probe.getRef());
+        String gameRoomId = probe.expectMsgClass(GameRoomManager.GameRoomCreated.class).getGameRoomId();
+        manager.tell(new GameRoomManager.JoinGameRoom(gameRoomId, "guest"), probe.getRef());
+        probe.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        manager.tell(new GameRoomManager.GetGameRoom(gameRoomId), probe.getRef());
+        ActorRef gameRoom = probe.expectMsgClass(GameRoomManager.GameRoomRef.class).getGameRoom();
+        probe.watch(gameRoom);
+        probe.expectTerminated(Duration.create(5, TimeUnit.SECONDS), gameRoom);
+
+        manager.tell(new GameRoomManager.GetGameRoomAddress(gameRoomId), probe.getRef());
+        assertEquals(directory.address(gameRoomId), probe.expectMsgClass(GameRoomManager.GameRoomAddress.class).getAddress());
+        ActorSelection passivated = system.actorSelection(gameRoom.path());
+        passivated.tell(new Identify(gameRoomId), probe.getRef());
+        assertNull(probe.expectMsgClass(ActorIdentity.class).getActorRef().orElse(null));
+        manager.tell(new GameRoomManager.GetGameRoomAddress("unknown"), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.UnknownGameRoom.class);
+    }
+
+}
@@ -0,0 +1,115 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Status;
+import akka.testkit.javadsl.TestKit;
+import junit.framework.TestCase;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the WebSocket connections of a GameRoom, with probes standing for the connections.
+ */
+public class GameRoomTest extends TestCase {
+
+    private ActorSystem system;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("GameRoomTest");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    public void testBroadcastsMembershipChangesAndMessages() {
+        TestKit manager = new TestKit(system);
+        TestKit http = new TestKit(system);
+        TestKit owner = new TestKit(system);
+        ActorRef gameRoom = system.actorOf(GameRoom.props("1", "owner", 3));
+
+        gameRoom.tell(new GameRoom.Connect("owner", owner.getRef()), ActorRef.noSender());
+        assertEquals("GameRoom(id: 1) users: owner", owner.expectMsgClass(String.class));
+        assertEquals("Tick(0) User(id: owner) at (0, 0)", owner.expectMsgClass(String.class));
+
+        gameRoom.tell(new GameRoom.JoinGameRoom("guest", http.getRef()), manager.getRef());
+        http.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        assertEquals("User(id: guest) joined GameRoom(id: 1).", owner.expectMsgClass(String.class));
+
+        TestKit guest = new TestKit(system);
+        gameRoom.tell(new GameRoom.Connect("guest", guest.getRef()), ActorRef.noSender());
+        guest.expectMsgClass(String.class);
+        guest.expectMsgClass(String.class);
+        gameRoom.tell(new GameRoom.SendMessage("guest", "hello"), ActorRef.noSender());
+        assertEquals("User(id: guest): hello", owner.expectMsgClass(String.class));
+        assertEquals("User(id: guest): hello", guest.expectMsgClass(String.class));
+
+        gameRoom.tell(new GameRoom.LeaveGameRoom("guest", http.getRef()), manager.getRef());
+        http.expectMsgClass(GameRoom.LeaveGameRoomSuccessfully.class);
+        assertEquals("User(id: guest) left GameRoom(id: 1).", owner.expectMsgClass(String.class));
+        assertEquals("User(id: guest) left GameRoom(id: 1).", guest.expectMsgClass(String.class));
+        guest.expectMsgClass(Status.Success.class);
+
+        gameRoom.tell(new GameRoom.SendMessage("guest", "ignored"), ActorRef.noSender());
+        owner.expectNoMsg();
+    }
+
+    public void testTicksSendTheMovedPlayers() {
+        TestKit connection = new TestKit(system);
+        ActorRef gameRoom = system.actorOf(GameRoom.props("1", "owner", 3));
+
+        gameRoom.tell(new GameRoom.Connect("owner", connection.getRef()), ActorRef.noSender());
+        connection.expectMsgClass(String.class);
+        connection.expectMsgClass(String.class);
+        gameRoom.tell(new GameRoom.PlayerInput("owner", 5, 0), ActorRef.noSender());
+
+        String delta = connection.expectMsgClass(String.class);
+        assertTrue(delta, delta.endsWith("User(id: owner) at (5, 0)"));
+    }
+
+    public void testJoinsUpToTheCapacity() {
+        TestKit manager = new TestKit(system);
+        TestKit http = new TestKit(system);
+        ActorRef gameRoom = system.actorOf(GameRoom.props("1", "owner", 2));
+
+        gameRoom.tell(new GameRoom.JoinGameRoom("guest", http.getRef()), manager.getRef());
+        http.expectMsgClass(GameRoom.JoinGameRoomSuccessfully.class);
+        gameRoom.tell(new GameRoom.JoinGameRoom("other", http.getRef()), manager.getRef());
+        http.expectMsgClass(GameRoom.GameRoomIsFull.class);
+    }
+
+    public void testRejectsConnectionsOfOtherUsers() {
+        TestKit connection = new TestKit(system);
+        ActorRef gameRoom = system.actorOf(GameRoom.props("1", "owner", 3));
+
+        gameRoom.tell(new GameRoom.Connect("stranger", connection.getRef()), ActorRef.noSender());
+        assertEquals("The User(id: stranger) is not in the GameRoom(id: 1).", connection.expectMsgClass(String.class));
+        connection.expectMsgClass(Status.Success.class);
+    }
+
+    public void testOnlyBroadcastsExplicitDeletes() {
+        ActorRef passivated = system.actorOf(GameRoom.props("1", "owner", 3));
+        TestKit connection = new TestKit(system);
+        passivated.tell(new GameRoom.Connect("owner", connection.getRef()), ActorRef.noSender());
+        connection.expectMsgClass(String.class);
+        passivated.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        connection.fishForMessage(Duration.create(3, TimeUnit.SECONDS), "Closed", message -> {
+            assertFalse("GameRoom(id: 1) deleted.".equals(message));
+            return message instanceof Status.Success;
+        });
+
+        ActorRef deleted = system.actorOf(GameRoom.props("2", "owner", 3));
+        TestKit other = new TestKit(system);
+        deleted.tell(new GameRoom.Connect("owner", other.getRef()), ActorRef.noSender());
+        other.expectMsgClass(String.class);
+        deleted.tell(new GameRoom.Delete(), ActorRef.noSender());
+        other.fishForMessage(Duration.create(3, TimeUnit.SECONDS), "Deleted", message -> "GameRoom(id: 2) deleted.".equals(message));
+        other.fishForMessage(Duration.create(3, TimeUnit.SECONDS), "Closed", message -> message instanceof Status.Success);
+    }
+
+}
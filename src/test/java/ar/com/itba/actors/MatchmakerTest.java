@@ -0,0 +1,112 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+import scala.concurrent.duration.Duration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the Matchmaker, against a sharded GameRoomManager.
+ */
+public class MatchmakerTest extends TestCase {
+
+    private ActorSystem system;
+    private ActorRef gameRoomManager;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("MatchmakerTest", ConfigFactory
+                .parseString("akka.persistence.snapshot-store.local.dir = \"target/snapshots/" + UUID.randomUUID() + "\"")
+                .withFallback(ConfigFactory.load("test")));
+        gameRoomManager = system.actorOf(GameRoomManagerRouter.props(2));
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    public void testMatchesFullGroupsTogether() {
+        ActorRef matchmaker = system.actorOf(Matchmaker.props(gameRoomManager, 3, Duration.create(1, TimeUnit.HOURS)));
+        TestKit[] users = new TestKit[4];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new TestKit(system);
+        }
+
+        matchmaker.tell(new Matchmaker.FindGameRoom("a", "eu", 1000), users[0].getRef());
+        matchmaker.tell(new Matchmaker.FindGameRoom("b", "us", 1000), users[1].getRef());
+        matchmaker.tell(new Matchmaker.FindGameRoom("c", "eu", 1050), users[2].getRef());
+        matchmaker.tell(new Matchmaker.FindGameRoom("d", "eu", 1010), users[3].getRef());
+
+        String gameRoomId = users[0].expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId();
+        assertEquals(gameRoomId, users[2].expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId());
+        assertEquals(gameRoomId, users[3].expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId());
+        users[1].expectNoMsg();
+
+        TestKit probe = new TestKit(system);
+        gameRoomManager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+        assertEquals(3, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+    }
+
+    public void testMatchesPartialGroupsAfterMaxWait() {
+        ActorRef matchmaker = system.actorOf(Matchmaker.props(gameRoomManager, 3, Duration.create(200, TimeUnit.MILLISECONDS)));
+        TestKit first = new TestKit(system);
+        TestKit second = new TestKit(system);
+
+        matchmaker.tell(new Matchmaker.FindGameRoom("a", "eu", 0), first.getRef());
+        matchmaker.tell(new Matchmaker.FindGameRoom("a", "eu", 0), second.getRef());
+        second.expectMsgClass(Matchmaker.UserIsAlreadyWaiting.class);
+        matchmaker.tell(new Matchmaker.FindGameRoom("b", "eu", 0), second.getRef());
+
+        String gameRoomId = first.expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId();
+        assertEquals(gameRoomId, second.expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId());
+    }
+
+    public void testUsersAlreadyInGameAreNotMatched() {
+        TestKit probe = new TestKit(system);
+        gameRoomManager.tell(new GameRoomManager.CreateGameRoom("a"), probe.getRef());
+        probe.expectMsgClass(GameRoomManager.GameRoomCreated.class);
+        ActorRef matchmaker = system.actorOf(Matchmaker.props(gameRoomManager, 2, Duration.create(1, TimeUnit.HOURS)));
+        TestKit first = new TestKit(system);
+        TestKit second = new TestKit(system);
+        TestKit third = new TestKit(system);
+
+        matchmaker.tell(new Matchmaker.FindGameRoom("a", "eu", 0), first.getRef());
+        matchmaker.tell(new Matchmaker.FindGameRoom("b", "eu", 0), second.getRef());
+        first.expectMsgClass(Matchmaker.UserIsAlreadyInGame.class);
+        matchmaker.tell(new Matchmaker.FindGameRoom("c", "eu", 0), third.getRef());
+
+        String gameRoomId = second.expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId();
+        assertEquals(gameRoomId, third.expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId());
+    }
+
+    public void testFillsTheOpenSeatsOfPartialGameRooms() {
+        ActorRef matchmaker = system.actorOf(Matchmaker.props(gameRoomManager, 3, Duration.create(200, TimeUnit.MILLISECONDS)));
+        TestKit[] users = new TestKit[4];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new TestKit(system);
+        }
+
+        matchmaker.tell(new Matchmaker.FindGameRoom("a", "eu", 0), users[0].getRef());
+        matchmaker.tell(new Matchmaker.FindGameRoom("b", "eu", 0), users[1].getRef());
+        String gameRoomId = users[0].expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId();
+        users[1].expectMsgClass(Matchmaker.GameRoomFound.class);
+
+        // Seated at once in the free seat, without waiting for others
+        matchmaker.tell(new Matchmaker.FindGameRoom("c", "eu", 50), users[2].getRef());
+        assertEquals(gameRoomId, users[2].expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId());
+        TestKit probe = new TestKit(system);
+        gameRoomManager.tell(new GameRoomManager.GetGameRoomUsers(gameRoomId), probe.getRef());
+        assertEquals(3, probe.expectMsgClass(GameRoomManager.GameRoomUsers.class).getSize());
+
+        // The GameRoom is full now, the next user gets a GameRoom of its own
+        matchmaker.tell(new Matchmaker.FindGameRoom("d", "eu", 0), users[3].getRef());
+        assertFalse(gameRoomId.equals(users[3].expectMsgClass(Matchmaker.GameRoomFound.class).getGameRoomId()));
+    }
+
+}
@@ -0,0 +1,91 @@
+package ar.com.itba.actors;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the mailbox sizes read by the admission control and the SystemMonitor.
+ */
+public class MonitoredMailboxTest extends TestCase {
+
+    private ActorSystem system;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("MonitoredMailboxTest");
+    }
+
+    @Override
+    protected void tearDown() {
+        release.countDown();
+        TestKit.shutdownActorSystem(system);
+    }
+
+    /**
+     * Actor stuck on its first message until the test ends, holding the given number of messages in its mailbox.
+     */
+    private ActorRef stuck(String name, String group, int messages) {
+        ActorRef actor = system.actorOf(Props.create(Stuck.class, () -> new Stuck(group, release)).withMailbox(MonitoredMailbox.MAILBOX)
+                // Blocked on threads of their own, the default dispatcher may have a single one
+                .withDispatcher(SystemStatsWriter.BLOCKING_DISPATCHER), name);
+        for (int i = 0; i <= messages; i++) {
+            actor.tell(i, ActorRef.noSender());
+        }
+        return actor;
+    }
+
+    public void testSizeMatchesWholePathSegments() {
+        stuck("GameRoomManager", null, 3);
+        stuck("GameRoomManagerBackup", null, 5);
+        new TestKit(system).awaitAssert(() -> {
+            assertEquals(3, MonitoredMailbox.size("/user/GameRoomManager"));
+            assertEquals(8, MonitoredMailbox.size("/user"));
+            return null;
+        });
+    }
+
+    public void testGroupSizeCountsTheActorsThatJoined() {
+        stuck("first", "group", 2);
+        stuck("second", "group", 4);
+        stuck("other", null, 8);
+        new TestKit(system).awaitAssert(() -> {
+            assertEquals(6, MonitoredMailbox.groupSize("group"));
+            return null;
+        });
+    }
+
+    static private class Stuck extends AbstractActor {
+
+        private final String group;
+        private final CountDownLatch release;
+
+        private Stuck(String group, CountDownLatch release) {
+            this.group = group;
+            this.release = release;
+        }
+
+        @Override
+        public void preStart() throws Exception {
+            super.preStart();
+            if (group != null) {
+                MonitoredMailbox.join(group, getSelf());
+            }
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .matchAny(message -> release.await(10, TimeUnit.SECONDS))
+                    .build();
+        }
+    }
+
+}
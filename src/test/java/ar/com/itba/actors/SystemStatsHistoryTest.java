@@ -0,0 +1,250 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.testkit.javadsl.TestKit;
+import junit.framework.TestCase;
+import org.bson.Document;
+import scala.concurrent.duration.Duration;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit test for the rollups and range queries of the system history, against an in-memory store.
+ */
+public class SystemStatsHistoryTest extends TestCase {
+
+    private final static long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private final static long HOUR = TimeUnit.HOURS.toMillis(1);
+    private final static long DAY = TimeUnit.DAYS.toMillis(1);
+    // Far from the epoch, so that the retention of the raw samples matters
+    private final static long START = 1000 * DAY;
+
+    private ActorSystem system;
+    private MemoryStore store;
+    private AtomicLong clock;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("SystemStatsHistoryTest");
+        store = new MemoryStore();
+        clock = new AtomicLong(START);
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    private ActorRef history() {
+        return system.actorOf(SystemStatsHistory.props(store, Duration.create(1, TimeUnit.SECONDS),
+                Duration.create(10, TimeUnit.SECONDS), clock::get));
+    }
+
+    /**
+     * Rolls up at the current time and waits until the store shows it.
+     */
+    private void rollup(ActorRef history, long minute, long hour) {
+        history.tell("Rollup", ActorRef.noSender());
+        new TestKit(system).awaitAssert(() -> {
+            assertEquals(Long.valueOf(minute), store.last(SystemStatsHistory.Resolution.MINUTE));
+            if (hour >= 0) {
+                assertEquals(Long.valueOf(hour), store.last(SystemStatsHistory.Resolution.HOUR));
+            }
+            return null;
+        });
+    }
+
+    public void testRollsUpCompleteBuckets() {
+        // A sample every 10 seconds for 3 minutes and a half
+        for (long time = START; time < START + 210000; time += 10000) {
+            store.add(time);
+        }
+        ActorRef history = history();
+
+        // The third minute ends less than the write lag ago
+        clock.set(START + 3 * MINUTE + 5000);
+        rollup(history, START + MINUTE, -1);
+        assertEquals(2, store.documents(SystemStatsHistory.Resolution.MINUTE).size());
+        assertTrue(store.documents(SystemStatsHistory.Resolution.HOUR).isEmpty());
+        assertEquals(7 * DAY, (long) store.indexed.get(SystemStatsHistory.Resolution.RAW));
+        assertEquals(0, (long) store.indexed.get(SystemStatsHistory.Resolution.HOUR));
+
+        clock.set(START + HOUR + MINUTE);
+        rollup(history, START + 3 * MINUTE, START);
+        NavigableMap<Long, Document> minutes = store.documents(SystemStatsHistory.Resolution.MINUTE);
+        assertEquals(4, minutes.size());
+        assertEquals(6, (int) minutes.get(START).getInteger("samples"));
+        assertEquals(3, (int) minutes.get(START + 3 * MINUTE).getInteger("samples"));
+        assertEquals(21, (int) store.documents(SystemStatsHistory.Resolution.HOUR).get(START).getInteger("samples"));
+
+        // Only the buckets completed since are aggregated
+        store.add(START + HOUR + 30000);
+        clock.set(START + HOUR + 2 * MINUTE);
+        rollup(history, START + HOUR, START);
+        long[] range = store.ranges.get(store.ranges.size() - 1);
+        assertEquals(START + HOUR, range[0]);
+        assertEquals(START + HOUR + MINUTE, range[1]);
+    }
+
+    public void testRollupsResumeFromTheStore() {
+        for (long time = START; time < START + 5 * MINUTE; time += 10000) {
+            store.add(time);
+        }
+        clock.set(START + 2 * MINUTE + 20000);
+        ActorRef first = history();
+        rollup(first, START + MINUTE, -1);
+        system.stop(first);
+
+        clock.set(START + 5 * MINUTE + 20000);
+        rollup(history(), START + 4 * MINUTE, -1);
+        long[] range = store.ranges.get(store.ranges.size() - 1);
+        assertEquals(START + 2 * MINUTE, range[0]);
+        assertEquals(START + 5 * MINUTE, range[1]);
+    }
+
+    public void testChoosesTheFinestResolutionKept() {
+        TestKit probe = new TestKit(system);
+        ActorRef history = history();
+        clock.set(START + 30 * DAY);
+        long now = clock.get();
+
+        history.tell(new SystemStatsHistory.GetSystemHistory(now - 10 * MINUTE, now, null), probe.getRef());
+        assertEquals(SystemStatsHistory.Resolution.RAW, probe.expectMsgClass(SystemStatsHistory.SystemHistory.class).getResolution());
+        history.tell(new SystemStatsHistory.GetSystemHistory(now - DAY, now, null), probe.getRef());
+        assertEquals(SystemStatsHistory.Resolution.MINUTE, probe.expectMsgClass(SystemStatsHistory.SystemHistory.class).getResolution());
+        // Raw samples of 10 days ago have expired
+        history.tell(new SystemStatsHistory.GetSystemHistory(now - 10 * DAY, now - 10 * DAY + MINUTE, null), probe.getRef());
+        assertEquals(SystemStatsHistory.Resolution.MINUTE, probe.expectMsgClass(SystemStatsHistory.SystemHistory.class).getResolution());
+        history.tell(new SystemStatsHistory.GetSystemHistory(now - 30 * DAY, now, null), probe.getRef());
+        assertEquals(SystemStatsHistory.Resolution.HOUR, probe.expectMsgClass(SystemStatsHistory.SystemHistory.class).getResolution());
+        history.tell(new SystemStatsHistory.GetSystemHistory(now - 30 * DAY, now, SystemStatsHistory.Resolution.RAW), probe.getRef());
+        assertEquals(SystemStatsHistory.Resolution.RAW, probe.expectMsgClass(SystemStatsHistory.SystemHistory.class).getResolution());
+    }
+
+    public void testStreamsTheSamplesOfTheRange() throws Exception {
+        for (long time = START; time < START + MINUTE; time += 1000) {
+            store.add(time);
+        }
+        TestKit probe = new TestKit(system);
+        history().tell(new SystemStatsHistory.GetSystemHistory(START + 10000, START + 20000, SystemStatsHistory.Resolution.RAW), probe.getRef());
+        SystemStatsHistory.SystemHistory history = probe.expectMsgClass(SystemStatsHistory.SystemHistory.class);
+        assertEquals(0, store.open.get());
+
+        List<Document> samples = history.getSamples()
+                .runWith(Sink.seq(), ActorMaterializer.create(system))
+                .toCompletableFuture().get(3, TimeUnit.SECONDS);
+        assertEquals(10, samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(START + 10000 + i * 1000, (long) samples.get(i).getLong("time"));
+        }
+        assertEquals(0, store.open.get());
+    }
+
+    /**
+     * Stand-in for the Mongo collections, rolling up the number of samples of each bucket.
+     */
+    static private class MemoryStore implements SystemStatsHistory.Store {
+
+        private final Map<SystemStatsHistory.Resolution, NavigableMap<Long, Document>> collections = new EnumMap<>(SystemStatsHistory.Resolution.class);
+        private final Map<SystemStatsHistory.Resolution, Long> indexed = new ConcurrentHashMap<>();
+        private final List<long[]> ranges = new CopyOnWriteArrayList<>();
+        private final AtomicInteger open = new AtomicInteger();
+
+        private MemoryStore() {
+            for (SystemStatsHistory.Resolution resolution : SystemStatsHistory.Resolution.values()) {
+                collections.put(resolution, new ConcurrentSkipListMap<>());
+            }
+        }
+
+        private void add(long time) {
+            documents(SystemStatsHistory.Resolution.RAW).put(time, new Document("time", time));
+        }
+
+        private NavigableMap<Long, Document> documents(SystemStatsHistory.Resolution resolution) {
+            return collections.get(resolution);
+        }
+
+        @Override
+        public void insertMany(List<Document> documents) {
+            for (Document document : documents) {
+                add(document.getLong("time"));
+            }
+        }
+
+        @Override
+        public void createIndexes(SystemStatsHistory.Resolution resolution, long retentionMillis) {
+            indexed.put(resolution, retentionMillis);
+        }
+
+        @Override
+        public SystemStatsHistory.Cursor find(SystemStatsHistory.Resolution resolution, long from, long to) {
+            Iterator<Document> documents = documents(resolution).subMap(from, to).values().iterator();
+            open.incrementAndGet();
+            return new SystemStatsHistory.Cursor() {
+
+                @Override
+                public boolean hasNext() {
+                    return documents.hasNext();
+                }
+
+                @Override
+                public Document next() {
+                    return documents.next();
+                }
+
+                @Override
+                public void close() {
+                    open.decrementAndGet();
+                }
+            };
+        }
+
+        @Override
+        public Long first(SystemStatsHistory.Resolution resolution) {
+            return documents(resolution).isEmpty() ? null : documents(resolution).firstKey();
+        }
+
+        @Override
+        public Long last(SystemStatsHistory.Resolution resolution) {
+            return documents(resolution).isEmpty() ? null : documents(resolution).lastKey();
+        }
+
+        @Override
+        public int rollup(SystemStatsHistory.Resolution resolution, long from, long to) {
+            Map<Long, Integer> samples = new TreeMap<>();
+            for (long time : documents(SystemStatsHistory.Resolution.RAW).subMap(from, to).keySet()) {
+                samples.merge(time - time % resolution.getStepMillis(), 1, Integer::sum);
+            }
+            // Each bucket is written once it is complete, like the aggregation of the Mongo store does, since the
+            // tests wait for the buckets to show up
+            NavigableMap<Long, Document> buckets = documents(resolution);
+            int written = 0;
+            for (Map.Entry<Long, Integer> bucket : samples.entrySet()) {
+                Document document = buckets.get(bucket.getKey());
+                if (document == null) {
+                    buckets.put(bucket.getKey(), new Document("time", bucket.getKey()).append("samples", bucket.getValue()));
+                    written++;
+                } else {
+                    document.put("samples", document.getInteger("samples") + bucket.getValue());
+                }
+            }
+            ranges.add(new long[] { from, to });
+            return written;
+        }
+    }
+
+}
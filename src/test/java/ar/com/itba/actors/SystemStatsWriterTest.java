@@ -0,0 +1,73 @@
+package ar.com.itba.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import junit.framework.TestCase;
+import org.bson.Document;
+import scala.concurrent.duration.Duration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the batched writer of the SystemMonitor, against an in-memory sink.
+ */
+public class SystemStatsWriterTest extends TestCase {
+
+    private ActorSystem system;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("SystemStatsWriterTest");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    public void testWritesInBatches() {
+        TestKit probe = new TestKit(system);
+        List<Integer> batches = new CopyOnWriteArrayList<>();
+        ActorRef writer = system.actorOf(SystemStatsWriter.props(documents -> batches.add(documents.size()),
+                10, Duration.create(1, TimeUnit.HOURS), 1000, false));
+
+        for (int i = 0; i < 30; i++) {
+            writer.tell(new Document("sample", i), ActorRef.noSender());
+        }
+
+        probe.awaitAssert(() -> {
+            writer.tell(new SystemStatsWriter.GetWriterStats(), probe.getRef());
+            assertEquals(30, probe.expectMsgClass(SystemStatsWriter.WriterStats.class).getSamplesWritten());
+            return null;
+        });
+        for (int batch : batches) {
+            assertEquals(10, batch);
+        }
+    }
+
+    public void testDropsOldestSamplesWhileTheSinkIsSlow() throws InterruptedException {
+        TestKit probe = new TestKit(system);
+        CountDownLatch release = new CountDownLatch(1);
+        ActorRef writer = system.actorOf(SystemStatsWriter.props(documents -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 5, Duration.create(1, TimeUnit.HOURS), 20, false));
+
+        for (int i = 0; i < 100; i++) {
+            writer.tell(new Document("sample", i), ActorRef.noSender());
+        }
+        writer.tell(new SystemStatsWriter.GetWriterStats(), probe.getRef());
+        SystemStatsWriter.WriterStats stats = probe.expectMsgClass(SystemStatsWriter.WriterStats.class);
+        assertEquals(20, stats.getSamplesBuffered());
+        assertEquals(75, stats.getSamplesLost());
+        release.countDown();
+    }
+
+}
@@ -0,0 +1,46 @@
+package ar.com.itba.admission;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AdmissionControlTest extends TestCase {
+
+    private final static long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public void testShedsWhileMailboxIsDeep() {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger depth = new AtomicInteger();
+        AdmissionControl admission = new AdmissionControl(depth::get, 100, 1000 * MILLISECOND, now::get);
+        assertFalse(admission.overloaded());
+
+        depth.set(101);
+        now.addAndGet(20 * MILLISECOND);
+        assertTrue(admission.overloaded());
+
+        depth.set(0);
+        now.addAndGet(20 * MILLISECOND);
+        assertFalse(admission.overloaded());
+    }
+
+    public void testShedsWhileLatencyIsHighUntilRecovery() {
+        AtomicLong now = new AtomicLong();
+        AdmissionControl admission = new AdmissionControl(() -> 0, 100, 100 * MILLISECOND, now::get);
+        for (int i = 0; i < 50; i++) {
+            admission.recordLatency(500 * MILLISECOND);
+        }
+        assertTrue(admission.overloaded());
+
+        // Without new latencies requests are let through again
+        now.addAndGet(2000 * MILLISECOND);
+        assertFalse(admission.overloaded());
+
+        for (int i = 0; i < 50; i++) {
+            admission.recordLatency(MILLISECOND);
+        }
+        assertFalse(admission.overloaded());
+    }
+
+}
@@ -0,0 +1,30 @@
+package ar.com.itba.admission;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AdmissionTest extends TestCase {
+
+    /**
+     * Requests refused by the bucket of the server do not use up the burst of their user.
+     */
+    public void testGlobalRefusalKeepsUserTokens() {
+        AtomicLong now = new AtomicLong();
+        TokenBuckets userBuckets = new TokenBuckets(0.001, 2, 100, now::get);
+        TokenBuckets globalBucket = new TokenBuckets(1, 1, 1, now::get);
+        Admission admission = new Admission(new AdmissionControl(() -> 0, 100, TimeUnit.SECONDS.toNanos(10)), userBuckets, globalBucket);
+
+        assertTrue(admission.admit("user").isAdmitted());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Admission.Outcome.RATE_EXCEEDED, admission.admit("user").getOutcome());
+        }
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertTrue(admission.admit("user").isAdmitted());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(Admission.Outcome.USER_RATE_EXCEEDED, admission.admit("user").getOutcome());
+    }
+
+}
@@ -0,0 +1,102 @@
+package ar.com.itba.admission;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucketsTest extends TestCase {
+
+    private final static long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    public void testBurstThenRate() {
+        AtomicLong now = new AtomicLong();
+        TokenBuckets buckets = new TokenBuckets(10, 5, 100, now::get);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, buckets.tryAcquire("user"));
+        }
+        long wait = buckets.tryAcquire("user");
+        assertEquals(SECOND / 10, wait);
+
+        now.addAndGet(wait);
+        assertEquals(0, buckets.tryAcquire("user"));
+        assertTrue(buckets.tryAcquire("user") > 0);
+    }
+
+    public void testReleasedTokenCanBeTakenAgain() {
+        AtomicLong now = new AtomicLong();
+        TokenBuckets buckets = new TokenBuckets(10, 2, 100, now::get);
+        assertEquals(0, buckets.tryAcquire("user"));
+        assertEquals(0, buckets.tryAcquire("user"));
+        assertTrue(buckets.tryAcquire("user") > 0);
+
+        buckets.release("user");
+        assertEquals(0, buckets.tryAcquire("user"));
+        assertTrue(buckets.tryAcquire("user") > 0);
+    }
+
+    public void testWellBehavedUserIsAdmittedDuringAbuseBurst() {
+        AtomicLong now = new AtomicLong();
+        TokenBuckets buckets = new TokenBuckets(5, 10, 100, now::get);
+        int abusiveAdmitted = 0;
+        // For ten seconds the abusive user sends a thousand requests every 100ms and the well behaved one sends two
+        // per second
+        for (int tick = 0; tick < 100; tick++) {
+            for (int i = 0; i < 1000; i++) {
+                if (buckets.tryAcquire("abusive") == 0) {
+                    abusiveAdmitted++;
+                }
+            }
+            if (tick % 5 == 0) {
+                assertEquals("Well behaved request rejected at tick " + tick, 0, buckets.tryAcquire("wellBehaved"));
+            }
+            now.addAndGet(SECOND / 10);
+        }
+        // The burst plus five per second
+        assertTrue("Admitted " + abusiveAdmitted, abusiveAdmitted <= 10 + 50);
+    }
+
+    public void testConcurrentAcquiresNeverExceedBurst() throws Exception {
+        TokenBuckets buckets = new TokenBuckets(1, 100, 100, () -> 0L);
+        AtomicInteger admitted = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                running.add(clients.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        if (buckets.tryAcquire("user") == 0) {
+                            admitted.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : running) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        assertEquals(100, admitted.get());
+    }
+
+    public void testFullBucketsAreDropped() {
+        AtomicLong now = new AtomicLong();
+        TokenBuckets buckets = new TokenBuckets(10, 1, 10, now::get);
+        for (int i = 0; i < 10; i++) {
+            buckets.tryAcquire("user" + i);
+        }
+        assertEquals(10, buckets.size());
+
+        now.addAndGet(2 * SECOND);
+        buckets.tryAcquire("another");
+        assertEquals(1, buckets.size());
+    }
+
+}
@@ -0,0 +1,94 @@
+package ar.com.itba.collections;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectMapTest extends TestCase {
+
+    public void testPutGetRemove() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(2, "b"));
+        assertEquals("a", map.put(1, "c"));
+        assertEquals("c", map.get(1));
+        assertEquals(2, map.size());
+
+        assertFalse(map.remove(2, "a"));
+        assertTrue(map.remove(2, "b"));
+        assertNull(map.get(2));
+        assertNull(map.remove(2));
+        assertEquals(1, map.size());
+
+        assertNull(map.put(2, "d"));
+        assertEquals("d", map.get(2));
+        assertEquals("x", map.getOrDefault(3, "x"));
+    }
+
+    public void testAgreesWithHashMap() {
+        Random random = new Random(42);
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(5000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        int[] visited = new int[1];
+        map.forEach((key, value) -> {
+            assertEquals(expected.get(key), value);
+            visited[0]++;
+            return true;
+        });
+        assertEquals(expected.size(), visited[0]);
+    }
+
+    public void testForEachAfterWalksAscendingKeys() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        for (long key = 1; key <= 100; key++) {
+            map.put(key * 10, "room" + key);
+        }
+        for (long key = 1; key <= 100; key += 2) {
+            map.remove(key * 10);
+        }
+
+        List<Long> keys = new ArrayList<>();
+        map.forEachAfter(55, (key, value) -> {
+            keys.add(key);
+            return keys.size() < 3;
+        });
+        assertEquals(3, keys.size());
+        assertEquals(Long.valueOf(60), keys.get(0));
+        assertEquals(Long.valueOf(80), keys.get(1));
+        assertEquals(Long.valueOf(100), keys.get(2));
+
+        keys.clear();
+        map.forEachAfter(980, (key, value) -> keys.add(key));
+        assertEquals(1, keys.size());
+        assertEquals(Long.valueOf(1000), keys.get(0));
+    }
+
+    public void testForEachAfterNeedsAscendingKeys() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        map.put(2, "b");
+        map.put(1, "a");
+        try {
+            map.forEachAfter(0, (key, value) -> true);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package ar.com.itba.collections;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ObjectLongMapTest extends TestCase {
+
+    public void testPutGetRemove() {
+        ObjectLongMap<String> map = new ObjectLongMap<>();
+        assertEquals(ObjectLongMap.MISSING, map.put("a", 1));
+        assertEquals(ObjectLongMap.MISSING, map.putIfAbsent("b", 2));
+        assertEquals(2, map.putIfAbsent("b", 3));
+        assertEquals(2, map.get("b"));
+        assertEquals(1, map.put("a", 4));
+        assertEquals(4, map.get("a"));
+        assertEquals(2, map.size());
+
+        assertFalse(map.remove("b", 1));
+        assertTrue(map.remove("b", 2));
+        assertEquals(ObjectLongMap.MISSING, map.get("b"));
+        assertEquals(ObjectLongMap.MISSING, map.remove("b"));
+        assertEquals(4, map.remove("a"));
+        assertTrue(map.isEmpty());
+    }
+
+    public void testRejectsTheMissingValue() {
+        try {
+            new ObjectLongMap<String>().put("a", ObjectLongMap.MISSING);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Keys with colliding hashes make long probe runs, that removals have to keep reachable.
+     */
+    public void testAgreesWithHashMap() {
+        Random random = new Random(42);
+        ObjectLongMap<Key> map = new ObjectLongMap<>();
+        Map<Key, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            Key key = new Key(random.nextInt(3000));
+            switch (random.nextInt(4)) {
+                case 0:
+                    Long removed = expected.remove(key);
+                    assertEquals(removed == null ? ObjectLongMap.MISSING : removed, map.remove(key));
+                    break;
+                case 1:
+                    Long current = expected.putIfAbsent(key, (long) i);
+                    assertEquals(current == null ? ObjectLongMap.MISSING : current, map.putIfAbsent(key, i));
+                    break;
+                default:
+                    Long previous = expected.put(key, (long) i);
+                    assertEquals(previous == null ? ObjectLongMap.MISSING : previous, map.put(key, i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int id = 0; id < 3000; id++) {
+            Long value = expected.get(new Key(id));
+            assertEquals(value == null ? ObjectLongMap.MISSING : value, map.get(new Key(id)));
+        }
+    }
+
+    static private class Key {
+
+        private final int id;
+
+        private Key(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id / 8;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).id == id;
+        }
+    }
+
+}
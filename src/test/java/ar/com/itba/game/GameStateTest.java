@@ -0,0 +1,47 @@
+package ar.com.itba.game;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the simulation of a GameRoom.
+ */
+public class GameStateTest extends TestCase {
+
+    public void testDeltaOnlyHasTheMovedPlayers() {
+        GameState state = new GameState();
+        state.addPlayer("a");
+        state.addPlayer("b");
+        state.setVelocity("a", 2, 3);
+
+        state.step();
+        assertEquals("Tick(1) User(id: a) at (2, 3)", state.delta(1));
+        assertNull(state.delta(2));
+
+        state.setVelocity("a", 0, 0);
+        state.step();
+        assertNull(state.delta(3));
+    }
+
+    public void testPlayersStayInsideTheBoard() {
+        GameState state = new GameState();
+        state.addPlayer("a");
+        state.setVelocity("a", -100, 100);
+
+        for (int i = 0; i < GameState.BOARD_SIZE; i++) {
+            state.step();
+        }
+        assertEquals("Tick(0) User(id: a) at (0, " + GameState.BOARD_SIZE + ")", state.snapshot(0));
+    }
+
+    public void testRemovedPlayersAreNotSent() {
+        GameState state = new GameState();
+        state.addPlayer("a");
+        state.setVelocity("a", 1, 0);
+        state.step();
+        state.removePlayer("a");
+
+        assertNull(state.delta(1));
+        assertEquals("Tick(1)", state.snapshot(1));
+    }
+
+}
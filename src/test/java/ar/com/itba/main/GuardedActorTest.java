@@ -0,0 +1,119 @@
+package ar.com.itba.main;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.AskTimeoutException;
+import akka.pattern.CircuitBreakerOpenException;
+import akka.testkit.javadsl.TestKit;
+import ar.com.itba.actors.GameRoomManager;
+import ar.com.itba.actors.GameRoomManagerRouter;
+import ar.com.itba.metrics.Metrics;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+import scala.concurrent.duration.Duration;
+
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fault injection test: the GameRoomManager is slowed down until its circuit breaker opens, and then recovers.
+ */
+public class GuardedActorTest extends TestCase {
+
+    private ActorSystem system;
+    private final AtomicLong delayMillis = new AtomicLong();
+    private ActorRef slowGameRoomManager;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("GuardedActorTest", ConfigFactory
+                .parseString("akka.persistence.snapshot-store.local.dir = \"target/snapshots/" + UUID.randomUUID() + "\"")
+                .withFallback(ConfigFactory.load("test")));
+        ActorRef gameRoomManager = system.actorOf(GameRoomManagerRouter.props(2));
+        slowGameRoomManager = system.actorOf(Props.create(Delaying.class, () -> new Delaying(gameRoomManager, delayMillis)));
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    public void testOpensWhileSlowAndClosesAfterRecovery() throws Exception {
+        Metrics.BreakerMetrics metrics = Metrics.breaker("SlowGameRoomManager");
+        GuardedActor guarded = new GuardedActor(system.scheduler(), "SlowGameRoomManager", slowGameRoomManager, 3,
+                Duration.create(1, TimeUnit.SECONDS), Duration.create(300, TimeUnit.MILLISECONDS));
+        assertTrue(get(guarded.ask(new GameRoomManager.CreateGameRoom("owner0"), 3000)) instanceof GameRoomManager.GameRoomCreated);
+
+        delayMillis.set(500);
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(get(guarded.ask(new GameRoomManager.CreateGameRoom("owner" + i), 100)) instanceof AskTimeoutException);
+        }
+        // The breaker counts the failure after the ask completes, and runs its listeners after it opens
+        TestKit probe = new TestKit(system);
+        probe.awaitAssert(() -> {
+            assertTrue(guarded.isOpen());
+            assertEquals(1, metrics.getTransitions(Metrics.BreakerState.OPEN));
+            return null;
+        });
+
+        // While open, asks fail without waiting for their timeout
+        long start = System.nanoTime();
+        assertTrue(get(guarded.ask(new GameRoomManager.CreateGameRoom("owner4"), 100)) instanceof CircuitBreakerOpenException);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+
+        delayMillis.set(0);
+        probe.awaitAssert(() -> {
+            assertEquals(1, metrics.getTransitions(Metrics.BreakerState.HALF_OPEN));
+            return null;
+        });
+        assertTrue(get(guarded.ask(new GameRoomManager.CreateGameRoom("owner5"), 3000)) instanceof GameRoomManager.GameRoomCreated);
+        probe.awaitAssert(() -> {
+            assertEquals(1, metrics.getTransitions(Metrics.BreakerState.CLOSED));
+            return null;
+        });
+        assertEquals(Metrics.BreakerState.CLOSED, metrics.getState());
+    }
+
+    /**
+     * Reply of the ask, or the exception it failed with.
+     */
+    private static Object get(CompletionStage<Object> reply) throws InterruptedException {
+        try {
+            return reply.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            throw new AssertionError("No reply", e);
+        }
+    }
+
+    /**
+     * Forwards every message to the target after the current delay.
+     */
+    static public class Delaying extends AbstractActor {
+
+        private final ActorRef target;
+        private final AtomicLong delayMillis;
+
+        public Delaying(ActorRef target, AtomicLong delayMillis) {
+            this.target = target;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .matchAny(message -> getContext().system().scheduler().scheduleOnce(
+                            Duration.create(delayMillis.get(), TimeUnit.MILLISECONDS), target, message,
+                            getContext().dispatcher(), getSender()))
+                    .build();
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package ar.com.itba.main;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit test for the cache of rendered responses.
+ */
+public class TtlCacheTest extends TestCase {
+
+    public void testLoadsAgainOnceExpired() {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        TtlCache<String, Integer> cache = new TtlCache<>(10, 100, now::get);
+
+        assertEquals(1, (int) cache.get("key", loads::incrementAndGet));
+        now.set(9);
+        assertEquals(1, (int) cache.get("key", loads::incrementAndGet));
+        now.set(10);
+        assertEquals(2, (int) cache.get("key", loads::incrementAndGet));
+    }
+
+    public void testRemovesOnlyTheGivenValue() {
+        TtlCache<String, String> cache = new TtlCache<>(10, 100, () -> 0);
+        String value = cache.get("key", () -> "first");
+
+        cache.remove("key", "other");
+        assertSame(value, cache.get("key", () -> "second"));
+        cache.remove("key", value);
+        assertEquals("second", cache.get("key", () -> "second"));
+    }
+
+    public void testStaysBounded() {
+        AtomicLong now = new AtomicLong();
+        TtlCache<Integer, Integer> cache = new TtlCache<>(10, 3, now::get);
+        for (int i = 0; i < 3; i++) {
+            cache.get(i, () -> 0);
+        }
+        // None expired, so all are dropped
+        now.set(5);
+        cache.get(3, () -> 0);
+        assertEquals(1, cache.size());
+        now.set(8);
+        cache.get(4, () -> 0);
+        cache.get(5, () -> 0);
+        now.set(15);
+        // The first one expired, so only it is dropped
+        cache.get(6, () -> 0);
+        assertEquals(3, cache.size());
+    }
+
+}
@@ -0,0 +1,82 @@
+package ar.com.itba.main;
+
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import ar.com.itba.actors.SystemStatsWriter;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the virtual thread executor of the blocking-io-dispatcher. Blocking calls only run on virtual
+ * threads on Java 21, older JVMs must refuse the dispatcher.
+ */
+public class VirtualThreadExecutorTest extends TestCase {
+
+    private final static int BLOCKING_CALLS = 200;
+    private final static long WAIT_SECONDS = 10;
+
+    private ActorSystem system(String executor) {
+        return ActorSystem.create("VirtualThreadExecutorTest", ConfigFactory
+                .parseString(SystemStatsWriter.BLOCKING_DISPATCHER + ".executor = \"" + executor + "\"")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    public void testRefusedWithoutVirtualThreads() {
+        if (VirtualThreadExecutor.isSupported()) {
+            return;
+        }
+        ActorSystem system = system(VirtualThreadExecutor.EXECUTOR);
+        try {
+            system.dispatchers().lookup(SystemStatsWriter.BLOCKING_DISPATCHER);
+            fail("Virtual thread dispatcher created on Java " + System.getProperty("java.version"));
+        } catch (Exception e) {
+            // Expected, the JVM has no virtual threads
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    /**
+     * Every blocking call gets a thread of its own: all of them are blocked at once before any is released, which
+     * the few threads of a platform pool could not do.
+     */
+    public void testBlockingCallsDoNotWaitForPlatformThreads() throws Exception {
+        if (!VirtualThreadExecutor.isSupported()) {
+            return;
+        }
+        ActorSystem system = system(VirtualThreadExecutor.EXECUTOR);
+        try {
+            Executor executor = system.dispatchers().lookup(SystemStatsWriter.BLOCKING_DISPATCHER);
+            CountDownLatch blocked = new CountDownLatch(BLOCKING_CALLS);
+            CountDownLatch release = new CountDownLatch(1);
+            List<CompletableFuture<Void>> calls = new ArrayList<>();
+            for (int i = 0; i < BLOCKING_CALLS; i++) {
+                calls.add(CompletableFuture.runAsync(() -> {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, executor));
+            }
+            try {
+                assertTrue((BLOCKING_CALLS - blocked.getCount()) + " of " + BLOCKING_CALLS + " calls blocked at once",
+                        blocked.await(WAIT_SECONDS, TimeUnit.SECONDS));
+            } finally {
+                release.countDown();
+            }
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package ar.com.itba.metrics;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the latency histograms and their Prometheus export.
+ */
+public class MetricsTest extends TestCase {
+
+    public void testRecordsByOutcome() {
+        Metrics.RouteMetrics route = Metrics.route("test_outcome");
+        new RouteTimer(route).completed(200);
+        new RouteTimer(route).completed(409);
+        RouteTimer timedOut = new RouteTimer(route);
+        timedOut.timedOut();
+        timedOut.completed(409);
+
+        assertEquals(1, route.outcome(Metrics.Outcome.OK).getCount());
+        assertEquals(1, route.outcome(Metrics.Outcome.CONFLICT).getCount());
+        assertEquals(1, route.outcome(Metrics.Outcome.TIMEOUT).getCount());
+    }
+
+    public void testQuantilesAndPrometheusText() {
+        LatencyHistogram histogram = Metrics.ask("test_target");
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, TimeUnit.MICROSECONDS.toMillis(histogram.getValueAtQuantile(0.5)));
+        String text = Metrics.toPrometheus();
+        assertTrue(text.contains("actor_ask_duration_seconds_count{target=\"test_target\"} 100\n"));
+        assertTrue(text.contains("actor_ask_duration_seconds{target=\"test_target\",quantile=\"0.99\"} 0.099"));
+    }
+
+}
@@ -0,0 +1,153 @@
+package ar.com.itba.tcp;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.Tcp;
+import akka.stream.javadsl.Tcp$;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import ar.com.itba.actors.GameRoomManagerRouter;
+import ar.com.itba.admission.Admission;
+import ar.com.itba.admission.AdmissionControl;
+import ar.com.itba.admission.TokenBuckets;
+import ar.com.itba.main.GuardedActor;
+import com.typesafe.config.ConfigFactory;
+import junit.framework.TestCase;
+import scala.concurrent.duration.Duration;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for the binary protocol served over TCP.
+ */
+public class TcpServerTest extends TestCase {
+
+    private ActorSystem system;
+    private ActorMaterializer materializer;
+    private GuardedActor manager;
+
+    @Override
+    protected void setUp() {
+        system = ActorSystem.create("TcpServerTest", ConfigFactory
+                .parseString("akka.persistence.snapshot-store.local.dir = \"target/snapshots/" + UUID.randomUUID() + "\"")
+                .withFallback(ConfigFactory.load("test")));
+        materializer = ActorMaterializer.create(system);
+        manager = new GuardedActor(system.scheduler(), "GameRoomManager", system.actorOf(GameRoomManagerRouter.props(2)),
+                5, Duration.create(5, TimeUnit.SECONDS), Duration.create(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Admission of a server whose GameRoomManager has the given backlog, allowing each user a burst of userBurst
+     * requests that is not refilled during the test.
+     */
+    private static Admission admission(int mailboxDepth, int userBurst) {
+        return new Admission(new AdmissionControl(() -> mailboxDepth, 100, TimeUnit.SECONDS.toNanos(10)),
+                new TokenBuckets(0.001, userBurst, 100), new TokenBuckets(1000, 1000, 1));
+    }
+
+    @Override
+    protected void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    /**
+     * Sends the requests through the given framed connection and reads their responses by request id.
+     */
+    private Map<Integer, BinaryProtocol.Response> send(Flow<ByteString, ByteString, ?> connection, ByteString... requests) throws Exception {
+        List<ByteString> frames = Source.from(Arrays.asList(requests))
+                .via(Framing.simpleFramingProtocol(TcpServer.MAX_FRAME).join(connection))
+                .take(requests.length)
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        Map<Integer, BinaryProtocol.Response> responses = new HashMap<>();
+        for (ByteString frame : frames) {
+            BinaryProtocol.Response response = BinaryProtocol.readResponse(frame);
+            responses.put(response.getRequestId(), response);
+        }
+        return responses;
+    }
+
+    public void testAnswersPipelinedRequestsById() throws Exception {
+        Flow<ByteString, ByteString, ?> server = new TcpServer(manager, admission(0, 10), 5000, 16).flow();
+
+        Map<Integer, BinaryProtocol.Response> responses = send(server,
+                BinaryProtocol.createGameRoom(1, "owner", 2),
+                BinaryProtocol.createGameRoom(2, "other", 3),
+                BinaryProtocol.getGameRoomUsers(3, "404"),
+                BinaryProtocol.createGameRoom(4, "owner", 500),
+                // Request 5 of an unknown operation
+                ByteString.fromArray(new byte[] { 0, 0, 0, 5, 42 }));
+
+        assertEquals(5, responses.size());
+        assertEquals(BinaryProtocol.OK, responses.get(1).getStatus());
+        assertEquals(BinaryProtocol.OK, responses.get(2).getStatus());
+        assertFalse(responses.get(1).getValues().get(0).equals(responses.get(2).getValues().get(0)));
+        assertEquals(BinaryProtocol.UNKNOWN_GAME_ROOM, responses.get(3).getStatus());
+        assertEquals(BinaryProtocol.BAD_REQUEST, responses.get(4).getStatus());
+        assertEquals(BinaryProtocol.BAD_REQUEST, responses.get(5).getStatus());
+        assertEquals(42, responses.get(5).getOperation());
+    }
+
+    public void testServesGameRoomOperationsOverTcp() throws Exception {
+        Tcp.ServerBinding binding = new TcpServer(manager, admission(0, 10), 5000, 16).bind(system, materializer, "localhost", 0)
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        Flow<ByteString, ByteString, ?> connection = Tcp$.MODULE$.get(system).outgoingConnection("localhost", binding.localAddress().getPort());
+
+        String gameRoomId = send(connection, BinaryProtocol.createGameRoom(7, "owner", 2)).get(7).getValues().get(0);
+        Map<Integer, BinaryProtocol.Response> joined = send(connection,
+                BinaryProtocol.joinGameRoom(1, gameRoomId, "guest"),
+                BinaryProtocol.createGameRoom(2, "owner", 2));
+        assertEquals(BinaryProtocol.OK, joined.get(1).getStatus());
+        assertEquals(BinaryProtocol.USER_IS_ALREADY_IN_GAME, joined.get(2).getStatus());
+        assertEquals(gameRoomId, joined.get(2).getValues().get(0));
+
+        Map<Integer, BinaryProtocol.Response> full = send(connection,
+                BinaryProtocol.joinGameRoom(1, gameRoomId, "third"),
+                BinaryProtocol.getGameRoomUsers(2, gameRoomId));
+        assertEquals(BinaryProtocol.GAME_ROOM_IS_FULL, full.get(1).getStatus());
+        assertEquals(2, full.get(2).getValues().size());
+        assertTrue(full.get(2).getValues().contains("guest"));
+
+        Map<Integer, BinaryProtocol.Response> left = send(connection,
+                BinaryProtocol.leaveGameRoom(1, gameRoomId, "guest"),
+                BinaryProtocol.deleteGameRoom(2, "404"));
+        assertEquals(BinaryProtocol.OK, left.get(1).getStatus());
+        assertEquals(BinaryProtocol.UNKNOWN_GAME_ROOM, left.get(2).getStatus());
+
+        binding.unbind().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    public void testAnswersBusyToRequestsNotAdmitted() throws Exception {
+        Map<Integer, BinaryProtocol.Response> limited = send(new TcpServer(manager, admission(0, 2), 5000, 16).flow(),
+                BinaryProtocol.joinGameRoom(1, "404", "guest"),
+                BinaryProtocol.joinGameRoom(2, "404", "guest"),
+                BinaryProtocol.joinGameRoom(3, "404", "guest"),
+                BinaryProtocol.joinGameRoom(4, "404", "other"));
+        int busy = 0;
+        for (BinaryProtocol.Response response : limited.values()) {
+            if (response.getStatus() == BinaryProtocol.BUSY) {
+                busy++;
+                assertTrue(Integer.parseInt(response.getValues().get(0)) > 0);
+            }
+        }
+        // The third request of the guest ran out of tokens, the other user still had its own
+        assertEquals(1, busy);
+        assertEquals(BinaryProtocol.UNKNOWN_GAME_ROOM, limited.get(4).getStatus());
+
+        Map<Integer, BinaryProtocol.Response> shed = send(new TcpServer(manager, admission(1000, 10), 5000, 16).flow(),
+                BinaryProtocol.createGameRoom(1, "owner", 2),
+                BinaryProtocol.getGameRoomUsers(2, "404"));
+        assertEquals(BinaryProtocol.BUSY, shed.get(1).getStatus());
+        assertEquals(BinaryProtocol.BUSY, shed.get(2).getStatus());
+    }
+
+}